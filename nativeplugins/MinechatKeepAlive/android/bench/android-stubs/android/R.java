@@ -0,0 +1,14 @@
+package android;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ */
+public final class R {
+    public static final class drawable {
+        public static final int stat_notify_chat = 0x01080080;
+    }
+
+    public static final class dimen {
+        public static final int notification_large_icon_width = 0x01050005;
+    }
+}
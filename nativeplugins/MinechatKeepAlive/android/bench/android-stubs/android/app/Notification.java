@@ -0,0 +1,127 @@
+package android.app;
+
+import android.content.Context;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ * Builder 只保存文本字段，便于基准测试观察渲染结果并防止被 JIT 消除。
+ */
+public class Notification {
+    public static final String CATEGORY_MESSAGE = "msg";
+    public static final int GROUP_ALERT_CHILDREN = 2;
+
+    public CharSequence title;
+    public CharSequence text;
+    public long when;
+    public int number;
+    public android.graphics.Bitmap largeIcon;
+
+    public static class Style {
+    }
+
+    public static class InboxStyle extends Style {
+        private int lines;
+
+        public InboxStyle setBigContentTitle(CharSequence title) {
+            return this;
+        }
+
+        public InboxStyle setSummaryText(CharSequence text) {
+            return this;
+        }
+
+        public InboxStyle addLine(CharSequence line) {
+            lines++;
+            return this;
+        }
+    }
+
+    public static class Builder {
+        private final Notification n = new Notification();
+
+        public Builder(Context context) {
+        }
+
+        public Builder(Context context, String channelId) {
+        }
+
+        public Builder setContentTitle(CharSequence title) {
+            n.title = title;
+            return this;
+        }
+
+        public Builder setContentText(CharSequence text) {
+            n.text = text;
+            return this;
+        }
+
+        public Builder setLargeIcon(android.graphics.Bitmap icon) {
+            n.largeIcon = icon;
+            return this;
+        }
+
+        public Builder setWhen(long when) {
+            n.when = when;
+            return this;
+        }
+
+        public Builder setShowWhen(boolean show) {
+            return this;
+        }
+
+        public Builder setStyle(Style style) {
+            return this;
+        }
+
+        public Builder setNumber(int number) {
+            n.number = number;
+            return this;
+        }
+
+        public Builder setCategory(String category) {
+            return this;
+        }
+
+        public Builder setSmallIcon(int icon) {
+            return this;
+        }
+
+        public Builder setAutoCancel(boolean autoCancel) {
+            return this;
+        }
+
+        public Builder setOngoing(boolean ongoing) {
+            return this;
+        }
+
+        public Builder setOnlyAlertOnce(boolean onlyAlertOnce) {
+            return this;
+        }
+
+        public Builder setGroup(String group) {
+            return this;
+        }
+
+        public Builder setGroupSummary(boolean summary) {
+            return this;
+        }
+
+        public Builder setGroupAlertBehavior(int behavior) {
+            return this;
+        }
+
+        public Builder setContentIntent(PendingIntent intent) {
+            return this;
+        }
+
+        public Notification build() {
+            Notification out = new Notification();
+            out.title = n.title;
+            out.text = n.text;
+            out.when = n.when;
+            out.number = n.number;
+            out.largeIcon = n.largeIcon;
+            return out;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package android.app;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ */
+public class NotificationChannel {
+    public NotificationChannel(String id, CharSequence name, int importance) {
+    }
+
+    public void setDescription(String description) {
+    }
+}
@@ -0,0 +1,34 @@
+package android.app;
+
+import android.service.notification.StatusBarNotification;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ */
+public class NotificationManager {
+    public static final int IMPORTANCE_LOW = 2;
+    public static final int IMPORTANCE_DEFAULT = 3;
+
+    public void createNotificationChannel(NotificationChannel channel) {
+    }
+
+    public void notify(int id, Notification notification) {
+    }
+
+    public void notify(String tag, int id, Notification notification) {
+    }
+
+    public void cancel(int id) {
+    }
+
+    public void cancel(String tag, int id) {
+    }
+
+    public boolean areNotificationsEnabled() {
+        return true;
+    }
+
+    public StatusBarNotification[] getActiveNotifications() {
+        return new StatusBarNotification[0];
+    }
+}
@@ -0,0 +1,12 @@
+package android.app;
+
+import android.content.Context;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ * startForeground 为空操作，基准测试只衡量通知内容的构建。
+ */
+public class Service extends Context {
+    public final void startForeground(int id, Notification notification) {
+    }
+}
@@ -0,0 +1,51 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+
+import java.io.File;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ * 与真实 Context 不同，这里不是抽象类：基准测试按需覆盖个别方法。
+ */
+public class Context {
+    public static final int MODE_PRIVATE = 0;
+    public static final String NOTIFICATION_SERVICE = "notification";
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        throw new UnsupportedOperationException("getSharedPreferences");
+    }
+
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    public File getFilesDir() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public File getCacheDir() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public Resources getResources() {
+        return new Resources();
+    }
+
+    public PackageManager getPackageManager() {
+        return null;
+    }
+
+    public String getPackageName() {
+        return "cn.org.agatha.minechat";
+    }
+
+    public int checkSelfPermission(String permission) {
+        return PackageManager.PERMISSION_GRANTED;
+    }
+}
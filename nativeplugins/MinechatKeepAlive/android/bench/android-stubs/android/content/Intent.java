@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ */
+public class Intent {
+}
@@ -0,0 +1,14 @@
+package android.content.pm;
+
+import android.content.Intent;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ */
+public class PackageManager {
+    public static final int PERMISSION_GRANTED = 0;
+
+    public Intent getLaunchIntentForPackage(String packageName) {
+        return null;
+    }
+}
@@ -0,0 +1,11 @@
+package android.content.res;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ */
+public class Resources {
+    public int getDimensionPixelSize(int id) {
+        // 64dp@xxhdpi，与多数真机的通知大图标尺寸一致
+        return 192;
+    }
+}
@@ -0,0 +1,50 @@
+package android.graphics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ * 只记录尺寸，不持有像素；compress 写出只含 PNG 签名与 IHDR 的文件头，可被 stub 的 BitmapFactory 读回。
+ */
+public final class Bitmap {
+    public enum CompressFormat {
+        JPEG, PNG, WEBP
+    }
+
+    private final int width;
+    private final int height;
+
+    Bitmap(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getByteCount() {
+        return width * height * 4;
+    }
+
+    public static Bitmap createScaledBitmap(Bitmap src, int dstWidth, int dstHeight, boolean filter) {
+        return new Bitmap(dstWidth, dstHeight);
+    }
+
+    public boolean compress(CompressFormat format, int quality, OutputStream stream) {
+        try {
+            stream.write(BitmapFactory.pngHeader(width, height));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void recycle() {
+    }
+}
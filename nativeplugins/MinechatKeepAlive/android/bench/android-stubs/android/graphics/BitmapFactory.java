@@ -0,0 +1,76 @@
+package android.graphics;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ * 只识别 PNG：从 IHDR 读出宽高并按 inSampleSize 缩小，不解码像素。
+ */
+public class BitmapFactory {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public int inSampleSize;
+        public int outWidth;
+        public int outHeight;
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts) {
+        if (data == null || length < 24 || offset + 24 > data.length) return null;
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (data[offset + i] != SIGNATURE[i]) return null;
+        }
+        int w = readInt(data, offset + 16);
+        int h = readInt(data, offset + 20);
+        if (w <= 0 || h <= 0) return null;
+        int sample = opts != null && opts.inSampleSize > 1 ? opts.inSampleSize : 1;
+        if (opts != null) {
+            opts.outWidth = w / sample;
+            opts.outHeight = h / sample;
+            if (opts.inJustDecodeBounds) return null;
+        }
+        return new Bitmap(Math.max(1, w / sample), Math.max(1, h / sample));
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length) {
+        return decodeByteArray(data, offset, length, null);
+    }
+
+    public static Bitmap decodeFile(String pathName) {
+        try {
+            byte[] data = Files.readAllBytes(new File(pathName).toPath());
+            return decodeByteArray(data, 0, data.length, null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static byte[] pngHeader(int width, int height) {
+        byte[] out = new byte[33];
+        System.arraycopy(SIGNATURE, 0, out, 0, SIGNATURE.length);
+        writeInt(out, 8, 13);
+        out[12] = 'I';
+        out[13] = 'H';
+        out[14] = 'D';
+        out[15] = 'R';
+        writeInt(out, 16, width);
+        writeInt(out, 20, height);
+        // 位深 8、RGBA；CRC 留空，stub 读取时不校验
+        out[24] = 8;
+        out[25] = 6;
+        return out;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return ((b[i] & 0xff) << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] b, int i, int v) {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+}
@@ -0,0 +1,21 @@
+package android.net;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ */
+public class Uri {
+    private final String value;
+
+    private Uri(String value) {
+        this.value = value;
+    }
+
+    public static Uri parse(String value) {
+        return new Uri(value);
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
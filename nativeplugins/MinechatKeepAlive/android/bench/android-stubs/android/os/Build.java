@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ * SDK_INT 取 33（与 targetSdkVersion 一致），让基准测试走与线上主流机型相同的分支。
+ */
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = 33;
+    }
+
+    public static class VERSION_CODES {
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int O = 26;
+    }
+}
@@ -0,0 +1,18 @@
+package android.os;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ * 不执行任何投递：post 返回 false，调用方会走各自的“无 Handler”同步分支。
+ */
+public class Handler {
+    public boolean post(Runnable r) {
+        return false;
+    }
+
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        return false;
+    }
+
+    public void removeCallbacks(Runnable r) {
+    }
+}
@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ */
+public final class SystemClock {
+    private SystemClock() {}
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1_000_000L;
+    }
+}
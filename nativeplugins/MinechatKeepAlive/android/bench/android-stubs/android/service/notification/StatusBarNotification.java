@@ -0,0 +1,14 @@
+package android.service.notification;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ */
+public class StatusBarNotification {
+    public String getTag() {
+        return null;
+    }
+
+    public int getId() {
+        return 0;
+    }
+}
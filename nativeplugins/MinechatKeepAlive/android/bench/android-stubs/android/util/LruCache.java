@@ -0,0 +1,50 @@
+package android.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 仅用于 JVM 基准测试的最小 stub，不参与 AAR 构建。
+ * 与真实实现一致：按 sizeOf 计容量，访问顺序淘汰，所有方法同步。
+ */
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(0, 0.75f, true);
+    private final int maxSize;
+    private int size;
+
+    public LruCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    public final synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    public final synchronized V put(K key, V value) {
+        V previous = map.put(key, value);
+        size += sizeOf(key, value);
+        if (previous != null) size -= sizeOf(key, previous);
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<K, V> e = it.next();
+            size -= sizeOf(e.getKey(), e.getValue());
+            it.remove();
+        }
+        return previous;
+    }
+
+    public final synchronized V remove(K key) {
+        V previous = map.remove(key);
+        if (previous != null) size -= sizeOf(key, previous);
+        return previous;
+    }
+
+    public final synchronized int size() {
+        return size;
+    }
+}
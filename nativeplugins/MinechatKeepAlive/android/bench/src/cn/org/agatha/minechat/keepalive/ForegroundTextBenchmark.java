@@ -0,0 +1,41 @@
+package cn.org.agatha.minechat.keepalive;
+
+import android.app.Service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 前台常驻通知的文本构建：render（复用 Builder 与时间格式化器）以及状态未变时的跳过路径。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ForegroundTextBenchmark {
+    private ForegroundNotifier notifier;
+    private int tick;
+
+    @Setup
+    public void setup() {
+        notifier = new ForegroundNotifier(new Service(), "minechat_keepalive", 10301, null);
+        notifier.startForeground("通知:已连接");
+    }
+
+    @Benchmark
+    public void renderChangedStatus() {
+        // 交替两种状态，每次都需要重新渲染
+        notifier.startForeground((tick++ & 1) == 0 ? "通知:已连接" : "通知:连接中");
+    }
+
+    @Benchmark
+    public void updateUnchangedStatus() {
+        notifier.update("通知:已连接");
+    }
+}
@@ -0,0 +1,64 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 基准/浸泡测试用 Context：SharedPreferences 存在内存里。
+ */
+class MemoryContext extends Context {
+    private final MemoryPrefs prefs = new MemoryPrefs();
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return prefs;
+    }
+
+    private static final class MemoryPrefs implements SharedPreferences {
+        private final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public synchronized String getString(String key, String def) {
+            String v = values.get(key);
+            return v != null ? v : def;
+        }
+
+        @Override
+        public Editor edit() {
+            final Map<String, String> pending = new HashMap<>();
+            return new Editor() {
+                @Override
+                public Editor putString(String key, String value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    pending.put(key, null);
+                    return this;
+                }
+
+                @Override
+                public void apply() {
+                    synchronized (MemoryPrefs.this) {
+                        for (Map.Entry<String, String> e : pending.entrySet()) {
+                            if (e.getValue() == null) {
+                                values.remove(e.getKey());
+                            } else {
+                                values.put(e.getKey(), e.getValue());
+                            }
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+    }
+}
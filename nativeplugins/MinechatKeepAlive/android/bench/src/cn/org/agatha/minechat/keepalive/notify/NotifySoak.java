@@ -0,0 +1,976 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.os.Handler;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NotifySocketManager 浸泡/压测：连接本地替身服务端（scripts/notify-standin-server.cjs），
+ * 依次跑消息突发、服务端重启、连接抖动、慢消费者、token 轮换、在线换 token 几个场景，
+ * 报告丢失消息数、重连耗时、线程数与堆增长。任一场景不达标时以退出码 1 结束，便于 CI 判定。
+ * <p>
+ * 用 scripts/bench-keepalive.sh soak 运行；参数：--node、--server、--report、--scale（消息量倍数）。
+ */
+public final class NotifySoak {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String TOKEN_1 = "soak-1";
+    private static final String TOKEN_2 = "soak-2";
+    private static final String TOKEN_3 = "soak-3";
+    private static final String EVENT_SLOW = "soak.slow";
+    private static final long SLOW_HANDLER_MS = 5;
+    // 替身服务端下发的不同头像 URL 数（8 个会话 + 32 个发送者）；头像缓存生效时请求数不应超过它
+    private static final int DISTINCT_AVATARS = 40;
+
+    // 全部场景结束后相对基线允许的增长；超过说明有线程或对象随重连泄漏
+    private static final int MAX_THREAD_GROWTH = 8;
+    private static final long MAX_HEAP_GROWTH_MB = 32;
+
+    private NotifySoak() {}
+
+    public static void main(String[] args) throws Exception {
+        String node = "node";
+        String script = "scripts/notify-standin-server.cjs";
+        String report = null;
+        double scale = 1.0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--node".equals(args[i])) node = args[i + 1];
+            else if ("--server".equals(args[i])) script = args[i + 1];
+            else if ("--report".equals(args[i])) report = args[i + 1];
+            else if ("--scale".equals(args[i])) scale = Double.parseDouble(args[i + 1]);
+        }
+
+        File dir = Files.createTempDirectory("minechat-soak").toFile();
+        SoakContext ctx = new SoakContext(dir);
+        NotifyEventLog.get(ctx);
+
+        StandInServer server = StandInServer.start(node, script);
+        ExecutorHandler handler = new ExecutorHandler();
+        NotifySocketManager manager = new NotifySocketManager(handler);
+        // 缩短退避上限，让重连耗时反映的是连接本身而不是等待
+        manager.setReconnectPolicy(new BackoffReconnectPolicy(100, 1_000, 10_000, null, null));
+        StateTracker tracker = new StateTracker();
+        manager.addStateListener(tracker);
+
+        NotifyPrefs.setConfig(ctx, "http://127.0.0.1:" + server.port, NotifyPrefs.DEFAULT_SOCKET_PATH);
+        NotifyPrefs.setToken(ctx, TOKEN_1);
+        // 按冷启动的顺序走一遍，报告的 stats.startup 即首次连上的分阶段耗时
+        NotifyStartupTrace.begin("soak");
+        NotifySocketManager.prewarm(ctx);
+        manager.refresh(ctx);
+
+        JSONObject root = new JSONObject();
+        JSONArray scenarios = new JSONArray();
+        boolean pass = tracker.awaitConnected(15_000);
+        if (!pass) {
+            root.put("error", "initial connect failed: " + manager.getLastError());
+        } else {
+            tracker.drainLatencies();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            int threadsBaseline = threads.getThreadCount();
+            threads.resetPeakThreadCount();
+            long heapBaseline = usedHeap();
+
+            Scenario[] all = {
+                    new Burst(scale), new Restart(scale), new Flap(scale), new SlowConsumer(scale), new TokenRotation(scale),
+                    new TokenRefresh(scale), new Filter(scale), new MultiAccount(scale), new Outbox(scale)
+            };
+            for (Scenario s : all) {
+                JSONObject r;
+                try {
+                    r = s.run(ctx, manager, server, tracker);
+                } catch (Throwable t) {
+                    r = new JSONObject().put("pass", false).put("error", String.valueOf(t));
+                }
+                r.put("name", s.name());
+                r.put("threads", threads.getThreadCount());
+                scenarios.put(r);
+                System.err.println("[soak] " + r);
+                pass &= r.optBoolean("pass", false);
+            }
+
+            int threadsFinal = threads.getThreadCount();
+            long heapFinal = usedHeap();
+            long heapGrowthMb = (heapFinal - heapBaseline) / (1024 * 1024);
+            JSONObject resources = new JSONObject();
+            resources.put("threadsBaseline", threadsBaseline);
+            resources.put("threadsPeak", threads.getPeakThreadCount());
+            resources.put("threadsFinal", threadsFinal);
+            resources.put("heapBaselineMb", heapBaseline / (1024 * 1024));
+            resources.put("heapFinalMb", heapFinal / (1024 * 1024));
+            resources.put("heapGrowthMb", heapGrowthMb);
+            boolean ok = threadsFinal - threadsBaseline <= MAX_THREAD_GROWTH && heapGrowthMb <= MAX_HEAP_GROWTH_MB;
+            resources.put("pass", ok);
+            root.put("resources", resources);
+            pass &= ok;
+        }
+
+        root.put("scale", scale);
+        root.put("scenarios", scenarios);
+        root.put("stats", new JSONObject(NotifyStats.toJson()));
+        root.put("pass", pass);
+
+        manager.shutdown();
+        handler.shutdown();
+        server.close();
+
+        String text = root.toString(2);
+        System.out.println(text);
+        if (report != null) Files.write(new File(report).toPath(), text.getBytes(UTF_8));
+        if (!pass) {
+            // 失败时附上原生事件日志，定位是哪一步没连上/没收到
+            System.err.println(NotifyEventLog.get(ctx).read(-1, NotifyEventLog.MAX_READ));
+        }
+        System.exit(pass ? 0 : 1);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private abstract static class Scenario {
+        final double scale;
+
+        Scenario(double scale) {
+            this.scale = scale;
+        }
+
+        int scaled(int n) {
+            return Math.max(1, (int) (n * scale));
+        }
+
+        abstract String name();
+
+        abstract JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception;
+    }
+
+    /** 稳定连接上的高速突发：千条/秒下每条消息都应有去向（展示或按队列策略丢弃）。 */
+    private static final class Burst extends Scenario {
+        Burst(double scale) {
+            super(scale);
+        }
+
+        @Override
+        String name() {
+            return "burst";
+        }
+
+        @Override
+        JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception {
+            int count = scaled(5_000);
+            Counters base = Counters.read();
+            JSONObject wireBefore = server.call(new JSONObject().put("cmd", "stats"));
+            long start = System.nanoTime();
+            server.call(new JSONObject().put("cmd", "burst").put("count", count).put("rate", 2_500));
+            Counters end = Counters.settle(base, count);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+            JSONObject wireAfter = server.call(new JSONObject().put("cmd", "stats"));
+            JSONObject r = end.messageReport(base, count);
+            r.put("rate", 2_500);
+            r.put("elapsedMs", elapsedMs);
+            // 客户端请求的是精简投影；完整格式的字节数用于对比
+            r.put("bytesPerMessageFull", (wireAfter.optLong("bytesFull") - wireBefore.optLong("bytesFull")) / count);
+            r.put("bytesPerMessageLite", (wireAfter.optLong("bytesLite") - wireBefore.optLong("bytesLite")) / count);
+            long avatarRequests = wireAfter.optLong("avatarRequests") - wireBefore.optLong("avatarRequests");
+            r.put("avatarRequests", avatarRequests);
+            r.put("avatars", new JSONObject(NotifyStats.toJson()).optJSONObject("avatars"));
+            r.put("pass", r.getLong("unaccounted") <= 0 && avatarRequests <= DISTINCT_AVATARS);
+            return r;
+        }
+    }
+
+    /** 推送过程中服务端重启：重连后应通过 notify.resume 把停机期间的消息补齐。 */
+    private static final class Restart extends Scenario {
+        Restart(double scale) {
+            super(scale);
+        }
+
+        @Override
+        String name() {
+            return "restart";
+        }
+
+        @Override
+        JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception {
+            int count = scaled(3_000);
+            Counters base = Counters.read();
+            CompletableFuture<JSONObject> burst = server.send(new JSONObject().put("cmd", "burst").put("count", count).put("rate", 1_000));
+            Thread.sleep(1_000);
+            server.call(new JSONObject().put("cmd", "restart").put("downMs", 2_000));
+            long up = System.nanoTime();
+            boolean connected = tracker.awaitConnected(15_000);
+            long reconnectMs = (System.nanoTime() - up) / 1_000_000L;
+            burst.get(60, TimeUnit.SECONDS);
+            Counters end = Counters.settle(base, count);
+
+            JSONObject r = end.messageReport(base, count);
+            r.put("reconnected", connected);
+            r.put("reconnectAfterServerUpMs", reconnectMs);
+            r.put("reconnects", tracker.drainLatencies());
+            r.put("pass", connected && r.getLong("unaccounted") <= 0);
+            return r;
+        }
+    }
+
+    /** 服务端反复踢掉连接：每次都应按退避重连，且抖动期间的消息不丢。 */
+    private static final class Flap extends Scenario {
+        Flap(double scale) {
+            super(scale);
+        }
+
+        @Override
+        String name() {
+            return "flap";
+        }
+
+        @Override
+        JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception {
+            int count = scaled(2_000);
+            int flaps = 8;
+            Counters base = Counters.read();
+            CompletableFuture<JSONObject> burst = server.send(new JSONObject().put("cmd", "burst").put("count", count).put("rate", 500));
+            server.call(new JSONObject().put("cmd", "flap").put("count", flaps).put("intervalMs", 400));
+            // 最后一次踢线刚发出，给客户端时间感知断开，否则可能读到断开前的 connected
+            Thread.sleep(200);
+            boolean connected = tracker.awaitConnected(15_000);
+            burst.get(60, TimeUnit.SECONDS);
+            Counters end = Counters.settle(base, count);
+
+            JSONObject r = end.messageReport(base, count);
+            r.put("flaps", flaps);
+            r.put("reconnects", tracker.drainLatencies());
+            r.put("pass", connected && r.getLong("unaccounted") <= 0);
+            return r;
+        }
+    }
+
+    /**
+     * 慢处理器与消息共用分发线程：慢事件按其容量丢弃，不应拖垮 notify.message
+     * （消息自身队列溢出的丢弃会单独计入 dispatcherDropped）。
+     */
+    private static final class SlowConsumer extends Scenario {
+        SlowConsumer(double scale) {
+            super(scale);
+        }
+
+        @Override
+        String name() {
+            return "slow_consumer";
+        }
+
+        @Override
+        JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception {
+            manager.registerHandler(EVENT_SLOW, 64, true, new NotifyEventHandler<Object>() {
+                @Override
+                public Object decode(Object payload) {
+                    return payload;
+                }
+
+                @Override
+                public void handle(Object event) {
+                    try {
+                        Thread.sleep(SLOW_HANDLER_MS);
+                    } catch (InterruptedException ignored) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            int slow = scaled(2_000);
+            int count = scaled(1_000);
+            Counters base = Counters.read();
+            CompletableFuture<JSONObject> a = server.send(new JSONObject().put("cmd", "burst").put("event", EVENT_SLOW).put("count", slow).put("rate", 1_000));
+            CompletableFuture<JSONObject> b = server.send(new JSONObject().put("cmd", "burst").put("count", count).put("rate", 500));
+            a.get(60, TimeUnit.SECONDS);
+            b.get(60, TimeUnit.SECONDS);
+            Counters end = Counters.settle(base, count);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (end.slowHandled - base.slowHandled + end.slowDropped - base.slowDropped < slow && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+                end = Counters.read();
+            }
+
+            JSONObject r = end.messageReport(base, count);
+            r.put("slowSent", slow);
+            r.put("slowHandled", end.slowHandled - base.slowHandled);
+            r.put("slowDropped", end.slowDropped - base.slowDropped);
+            boolean slowAccounted = end.slowHandled - base.slowHandled + end.slowDropped - base.slowDropped == slow;
+            r.put("pass", slowAccounted && r.getLong("unaccounted") <= 0);
+            return r;
+        }
+    }
+
+    /** 服务端吊销旧 token 并踢线：刷新 token 后应立即用新 token 重连并恢复投递。 */
+    private static final class TokenRotation extends Scenario {
+        TokenRotation(double scale) {
+            super(scale);
+        }
+
+        @Override
+        String name() {
+            return "token_rotation";
+        }
+
+        @Override
+        JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception {
+            Counters before = Counters.read();
+            JSONObject kicked = server.call(new JSONObject().put("cmd", "tokens")
+                    .put("accept", new JSONArray().put(TOKEN_2)).put("kick", true));
+            // 让旧 token 的重连先失败几次
+            Thread.sleep(1_500);
+            Counters rejected = Counters.read();
+
+            long start = System.nanoTime();
+            NotifyPrefs.setToken(ctx, TOKEN_2);
+            manager.refresh(ctx);
+            boolean connected = tracker.awaitConnected(15_000);
+            long rotateMs = (System.nanoTime() - start) / 1_000_000L;
+            tracker.drainLatencies();
+
+            int count = scaled(500);
+            Counters base = Counters.read();
+            server.call(new JSONObject().put("cmd", "burst").put("count", count).put("rate", 500));
+            Counters end = Counters.settle(base, count);
+
+            JSONObject r = end.messageReport(base, count);
+            r.put("kicked", kicked.optInt("kicked"));
+            r.put("rejectedAttempts", rejected.connectFailures - before.connectFailures);
+            r.put("reconnectAfterRotateMs", rotateMs);
+            r.put("pass", connected && kicked.optInt("kicked") > 0 && r.getLong("unaccounted") <= 0);
+            return r;
+        }
+    }
+
+    /**
+     * 推送过程中主动换 token（旧 token 随后吊销）：应通过 notify.auth 在现有连接上完成，
+     * 不产生新的握手，也不应出现明显的消息断流。
+     */
+    private static final class TokenRefresh extends Scenario {
+        TokenRefresh(double scale) {
+            super(scale);
+        }
+
+        @Override
+        String name() {
+            return "token_refresh";
+        }
+
+        @Override
+        JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception {
+            server.call(new JSONObject().put("cmd", "tokens").put("accept", new JSONArray().put(TOKEN_2).put(TOKEN_3)));
+            tracker.drainLatencies();
+            int count = scaled(2_000);
+            Counters base = Counters.read();
+            JSONObject wireBefore = server.call(new JSONObject().put("cmd", "stats"));
+            GapMeter gaps = new GapMeter();
+            gaps.start();
+            CompletableFuture<JSONObject> burst = server.send(new JSONObject().put("cmd", "burst").put("count", count).put("rate", 500));
+            // 推送进行到一半左右时换 token
+            Thread.sleep(count / 500 * 1_000L / 2);
+            NotifyPrefs.setToken(ctx, TOKEN_3);
+            manager.refresh(ctx);
+            burst.get(60, TimeUnit.SECONDS);
+            Counters end = Counters.settle(base, count);
+            long maxGapMs = gaps.finish();
+            JSONObject kicked = server.call(new JSONObject().put("cmd", "tokens")
+                    .put("accept", new JSONArray().put(TOKEN_3)).put("kick", true));
+            JSONObject wireAfter = server.call(new JSONObject().put("cmd", "stats"));
+
+            JSONObject r = end.messageReport(base, count);
+            long handshakes = wireAfter.optLong("handshakes") - wireBefore.optLong("handshakes");
+            r.put("handshakes", handshakes);
+            r.put("reauths", wireAfter.optLong("reauths") - wireBefore.optLong("reauths"));
+            r.put("kicked", kicked.optInt("kicked"));
+            r.put("maxMessageGapMs", maxGapMs);
+            r.put("reconnects", tracker.drainLatencies());
+            r.put("pass", handshakes == 0 && kicked.optInt("kicked") == 0 && r.getLong("unaccounted") <= 0);
+            return r;
+        }
+    }
+
+    /**
+     * 过滤规则下推：免打扰 c1、c2 只收 @ 消息。服务端应按规则少推，被少推的不计入丢失；
+     * 推下来的消息都应通过本地过滤（filteredLocally 为 0），说明规则在推送前已经送达。
+     */
+    private static final class Filter extends Scenario {
+        Filter(double scale) {
+            super(scale);
+        }
+
+        @Override
+        String name() {
+            return "filter";
+        }
+
+        @Override
+        JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception {
+            boolean acked = applyRules(ctx, new JSONObject()
+                    .put("muted", new JSONArray().put("c1"))
+                    .put("mentionsOnly", new JSONArray().put("c2")));
+            int count = scaled(2_000);
+            Counters base = Counters.read();
+            long localBefore = filteredLocally();
+            JSONObject wireBefore = server.call(new JSONObject().put("cmd", "stats"));
+            server.call(new JSONObject().put("cmd", "burst").put("count", count).put("rate", 1_000));
+            JSONObject wireAfter = server.call(new JSONObject().put("cmd", "stats"));
+            int serverFiltered = (int) (wireAfter.optLong("filtered") - wireBefore.optLong("filtered"));
+            Counters end = Counters.settle(base, count - serverFiltered);
+            long local = filteredLocally() - localBefore;
+            boolean cleared = applyRules(ctx, new JSONObject());
+
+            JSONObject r = end.messageReport(base, count - serverFiltered);
+            r.put("serverFiltered", serverFiltered);
+            r.put("filteredLocally", local);
+            r.put("rulesAcked", acked && cleared);
+            r.put("pass", acked && cleared && serverFiltered > 0 && local == 0 && r.getLong("unaccounted") <= 0);
+            return r;
+        }
+
+        private static boolean applyRules(SoakContext ctx, JSONObject rules) throws Exception {
+            NotifyRules.set(ctx, rules.toString());
+            long version = NotifyRules.get(ctx).version;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadline) {
+                JSONObject filter = new JSONObject(NotifyStats.toJson()).optJSONObject("filter");
+                if (filter != null && filter.optLong("ackedVersion") == version) return true;
+                Thread.sleep(20);
+            }
+            return false;
+        }
+
+        private static long filteredLocally() throws Exception {
+            JSONObject filter = new JSONObject(NotifyStats.toJson()).optJSONObject("filter");
+            return filter != null ? filter.optLong("filteredLocally") : 0L;
+        }
+    }
+
+    /**
+     * 多账号：再挂 3 个附加账号后与主账号同时推送。应仍只有一条物理连接、主命名空间不重新握手，
+     * 每个账号各自收齐自己的消息；服务端踢线后附加账号随主连接一起重连；移除账号后服务端上的命名空间随之断开。
+     * 推送期间免打扰 a1/c1：只有 a1 的命名空间少推它的 c1，主账号与其他账号的 c1 照常收到，本地不再过滤。
+     */
+    private static final class MultiAccount extends Scenario {
+        private static final String[] ACCOUNTS = {"a1", "a2", "a3"};
+
+        MultiAccount(double scale) {
+            super(scale);
+        }
+
+        @Override
+        String name() {
+            return "multi_account";
+        }
+
+        @Override
+        JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception {
+            JSONArray accept = new JSONArray().put(TOKEN_3);
+            for (String a : ACCOUNTS) accept.put("soak-" + a);
+            server.call(new JSONObject().put("cmd", "tokens").put("accept", accept));
+            JSONObject wireBefore = server.call(new JSONObject().put("cmd", "stats"));
+            JSONObject accountsBefore = accountStats();
+
+            for (String a : ACCOUNTS) NotifyAccounts.set(ctx, a, "soak-" + a);
+            boolean attached = awaitServerAccounts(server, ACCOUNTS.length);
+            boolean acked = Filter.applyRules(ctx, new JSONObject().put("muted", new JSONArray().put(ACCOUNTS[0] + "/c1")));
+
+            int per = scaled(1_000);
+            Counters base = Counters.read();
+            long localBefore = Filter.filteredLocally();
+            List<CompletableFuture<JSONObject>> bursts = new ArrayList<>();
+            bursts.add(server.send(new JSONObject().put("cmd", "burst").put("count", per).put("rate", 500)));
+            for (String a : ACCOUNTS) {
+                bursts.add(server.send(new JSONObject().put("cmd", "burst").put("count", per).put("rate", 500).put("account", a)));
+            }
+            for (CompletableFuture<JSONObject> b : bursts) b.get(60, TimeUnit.SECONDS);
+            JSONObject wireAfter = server.call(new JSONObject().put("cmd", "stats"));
+            int serverFiltered = (int) (wireAfter.optLong("filtered") - wireBefore.optLong("filtered"));
+            int total = per * (ACCOUNTS.length + 1) - serverFiltered;
+            Counters end = Counters.settle(base, total);
+            JSONObject accountsAfter = accountStats();
+            long local = Filter.filteredLocally() - localBefore;
+            boolean cleared = Filter.applyRules(ctx, new JSONObject());
+
+            JSONObject r = end.messageReport(base, total);
+            // 只有 a1 的 c1 被服务端少推
+            boolean perAccountOk = serverFiltered > 0;
+            long accountsReceived = 0;
+            JSONObject received = new JSONObject();
+            for (String a : ACCOUNTS) {
+                long n = counter(accountsAfter, a, "received") - counter(accountsBefore, a, "received");
+                received.put(a, n);
+                accountsReceived += n;
+                perAccountOk &= n == (a.equals(ACCOUNTS[0]) ? per - serverFiltered : per);
+            }
+            long mainReceived = (end.received - base.received) - accountsReceived;
+            received.put("main", mainReceived);
+            perAccountOk &= mainReceived == per;
+            r.put("perAccountReceived", received);
+            r.put("serverFiltered", serverFiltered);
+            r.put("filteredLocally", local);
+            r.put("rulesAcked", acked && cleared);
+            long connections = wireAfter.optLong("connections");
+            long handshakes = wireAfter.optLong("handshakes") - wireBefore.optLong("handshakes");
+            r.put("connections", connections);
+            r.put("handshakes", handshakes);
+            r.put("accountHandshakes", wireAfter.optLong("accountHandshakes") - wireBefore.optLong("accountHandshakes"));
+
+            server.call(new JSONObject().put("cmd", "flap").put("count", 1).put("intervalMs", 100));
+            boolean reattached = tracker.awaitConnected(15_000) && awaitServerAccounts(server, ACCOUNTS.length);
+
+            for (String a : ACCOUNTS) NotifyAccounts.set(ctx, a, "");
+            boolean detached = awaitServerAccounts(server, 0);
+            r.put("attached", attached);
+            r.put("reattached", reattached);
+            r.put("detached", detached);
+            r.put("pass", attached && reattached && detached && perAccountOk && acked && cleared && local == 0
+                    && connections == 1 && handshakes == 0 && r.getLong("unaccounted") <= 0);
+            return r;
+        }
+
+        private static boolean awaitServerAccounts(StandInServer server, int expected) throws Exception {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadline) {
+                if (server.call(new JSONObject().put("cmd", "stats")).optInt("accounts") == expected) return true;
+                Thread.sleep(50);
+            }
+            return false;
+        }
+
+        private static JSONObject accountStats() throws Exception {
+            JSONObject a = new JSONObject(NotifyStats.toJson()).optJSONObject("accounts");
+            return a != null ? a : new JSONObject();
+        }
+
+        private static long counter(JSONObject accounts, String account, String key) {
+            JSONObject a = accounts.optJSONObject(account);
+            return a != null ? a.optLong(key) : 0L;
+        }
+    }
+
+    /** 后台采样收到的消息数，记录两次增长之间的最长间隔（首条消息之前不计）。 */
+    private static final class GapMeter extends Thread {
+        private static final long SAMPLE_MS = 5;
+
+        private volatile boolean running = true;
+        private volatile long maxGapMs;
+
+        GapMeter() {
+            super("soak-gap-meter");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                long last = Counters.read().received;
+                long lastChange = 0L;
+                while (running) {
+                    Thread.sleep(SAMPLE_MS);
+                    long now = Counters.read().received;
+                    if (now == last) continue;
+                    long t = System.nanoTime();
+                    if (lastChange != 0L) maxGapMs = Math.max(maxGapMs, (t - lastChange) / 1_000_000L);
+                    lastChange = t;
+                    last = now;
+                }
+            } catch (Throwable ignored) {
+            }
+        }
+
+        long finish() throws InterruptedException {
+            running = false;
+            join();
+            return maxGapMs;
+        }
+    }
+
+    /** NotifyStats 中与浸泡相关的计数（进程级累计值，场景内取差值）。 */
+    /**
+     * 待发箱：关闭通知期间推送超过容量的消息，应只保留最新的 CAPACITY 条且一条通知都不发；
+     * 重新打开后 flushOutbox 应全部补发，每个会话只发布一次通知。
+     */
+    private static final class Outbox extends Scenario {
+        Outbox(double scale) {
+            super(scale);
+        }
+
+        @Override
+        String name() {
+            return "outbox";
+        }
+
+        @Override
+        JSONObject run(SoakContext ctx, NotifySocketManager manager, StandInServer server, StateTracker tracker) throws Exception {
+            int count = NotifyOutbox.CAPACITY + scaled(100);
+            JSONObject before = outbox();
+            // 上一个场景最后一批消息可能还在批处理窗口里：先发掉，不算作关闭通知期间的发布
+            manager.flushNotifications();
+            ctx.nm.enabled = false;
+            ctx.nm.posted.set(0);
+            Counters base = Counters.read();
+            server.call(new JSONObject().put("cmd", "burst").put("count", count).put("rate", 1_000));
+            Counters end = Counters.settle(base, count);
+            // 等分发线程把最后几条存进待发箱
+            Thread.sleep(ChatNotificationAggregator.BATCH_WINDOW_MS);
+            JSONObject held = outbox();
+            int postedWhileDisabled = ctx.nm.posted.get();
+            boolean blocked = manager.getState().state == NotifyConnectionState.State.NOTIFICATIONS_DISABLED;
+
+            ctx.nm.enabled = true;
+            ctx.nm.posted.set(0);
+            int flushed = manager.flushOutbox(ctx);
+            Thread.sleep(ChatNotificationAggregator.BATCH_WINDOW_MS * 3);
+            JSONObject after = outbox();
+
+            JSONObject r = end.messageReport(base, count);
+            long stored = held.optLong("stored") - before.optLong("stored");
+            long evicted = held.optLong("evicted") - before.optLong("evicted");
+            r.put("stored", stored);
+            r.put("evicted", evicted);
+            r.put("pendingWhileDisabled", held.optLong("pending"));
+            r.put("postedWhileDisabled", postedWhileDisabled);
+            r.put("stateBlocked", blocked);
+            r.put("flushed", flushed);
+            r.put("pendingAfter", after.optLong("pending"));
+            // 替身服务端的消息分布在 8 个会话上
+            r.put("chatNotifications", ctx.nm.posted.get());
+            r.put("pass", blocked && postedWhileDisabled == 0 && stored == count && evicted == count - NotifyOutbox.CAPACITY
+                    && flushed == NotifyOutbox.CAPACITY && after.optLong("pending") == 0 && ctx.nm.posted.get() <= 8
+                    && manager.isConnected() && r.getLong("unaccounted") <= 0);
+            return r;
+        }
+
+        private static JSONObject outbox() throws Exception {
+            JSONObject o = new JSONObject(NotifyStats.toJson()).optJSONObject("outbox");
+            return o != null ? o : new JSONObject();
+        }
+    }
+
+    private static final class Counters {
+        long received;
+        long deduped;
+        long connectFailures;
+        long messageDropped;
+        long slowHandled;
+        long slowDropped;
+
+        static Counters read() throws Exception {
+            JSONObject stats = new JSONObject(NotifyStats.toJson());
+            Counters c = new Counters();
+            JSONObject messages = stats.optJSONObject("messages");
+            if (messages != null) {
+                c.received = messages.optLong("received");
+                c.deduped = messages.optLong("deduped");
+            }
+            JSONObject connect = stats.optJSONObject("connect");
+            if (connect != null) c.connectFailures = connect.optLong("failures");
+            JSONObject handlers = stats.optJSONObject("handlers");
+            if (handlers != null) {
+                JSONObject m = handlers.optJSONObject(NotifySocketManager.EVENT_MESSAGE);
+                if (m != null) c.messageDropped = m.optLong("dropped");
+                JSONObject s = handlers.optJSONObject(EVENT_SLOW);
+                if (s != null) {
+                    c.slowHandled = s.optLong("handled");
+                    c.slowDropped = s.optLong("dropped");
+                }
+            }
+            return c;
+        }
+
+        /**
+         * 等到 expected 条消息都有了去向（展示或被分发队列丢弃），或 2 秒内不再变化，最多 30 秒。
+         */
+        static Counters settle(Counters base, int expected) throws Exception {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            long lastChange = System.nanoTime();
+            Counters c = read();
+            long seen = c.accounted(base);
+            while (seen < expected && System.nanoTime() < deadline
+                    && System.nanoTime() - lastChange < TimeUnit.SECONDS.toNanos(2)) {
+                Thread.sleep(100);
+                c = read();
+                long now = c.accounted(base);
+                if (now != seen) {
+                    seen = now;
+                    lastChange = System.nanoTime();
+                }
+            }
+            return c;
+        }
+
+        long accounted(Counters base) {
+            return (received - deduped) - (base.received - base.deduped) + (messageDropped - base.messageDropped);
+        }
+
+        JSONObject messageReport(Counters base, int sent) throws Exception {
+            long unique = (received - deduped) - (base.received - base.deduped);
+            long dropped = messageDropped - base.messageDropped;
+            JSONObject r = new JSONObject();
+            r.put("sent", sent);
+            r.put("delivered", unique);
+            r.put("duplicates", deduped - base.deduped);
+            r.put("dispatcherDropped", dropped);
+            // 既没有展示也没有被队列按策略丢弃的消息：连接中断期间真正丢失的部分
+            r.put("unaccounted", sent - unique - dropped);
+            return r;
+        }
+    }
+
+    /** 记录连接状态，统计每次断开到重新连上的耗时。 */
+    private static final class StateTracker implements NotifyConnectionState.Listener {
+        private NotifyConnectionState.State state = NotifyConnectionState.State.INIT;
+        private long downSince;
+        private final List<Long> latencies = new ArrayList<>();
+
+        @Override
+        public synchronized void onStateChanged(NotifyConnectionState.Snapshot from, NotifyConnectionState.Snapshot to) {
+            long now = System.nanoTime();
+            if (to.state == NotifyConnectionState.State.CONNECTED) {
+                if (downSince != 0L) latencies.add((now - downSince) / 1_000_000L);
+                downSince = 0L;
+            } else if (state == NotifyConnectionState.State.CONNECTED) {
+                downSince = now;
+            }
+            state = to.state;
+            notifyAll();
+        }
+
+        synchronized boolean awaitConnected(long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (state != NotifyConnectionState.State.CONNECTED) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return false;
+                wait(left);
+            }
+            return true;
+        }
+
+        /**
+         * @return {count, p50Ms, maxMs}，并清空已记录的耗时
+         */
+        synchronized JSONObject drainLatencies() throws Exception {
+            List<Long> l = new ArrayList<>(latencies);
+            latencies.clear();
+            Collections.sort(l);
+            JSONObject o = new JSONObject();
+            o.put("count", l.size());
+            o.put("p50Ms", l.isEmpty() ? 0 : l.get(l.size() / 2));
+            o.put("maxMs", l.isEmpty() ? 0 : l.get(l.size() - 1));
+            return o;
+        }
+    }
+
+    /** 用 ScheduledExecutorService 模拟 KeepAliveService 的 HandlerThread。 */
+    private static final class ExecutorHandler extends Handler {
+        private final ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "soak-handler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        private final Map<Runnable, List<ScheduledFuture<?>>> pending = new IdentityHashMap<>();
+
+        @Override
+        public boolean post(Runnable r) {
+            return postDelayed(r, 0);
+        }
+
+        @Override
+        public boolean postDelayed(final Runnable r, long delayMillis) {
+            synchronized (pending) {
+                final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+                self[0] = exec.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (pending) {
+                            List<ScheduledFuture<?>> l = pending.get(r);
+                            if (l != null) {
+                                l.remove(self[0]);
+                                if (l.isEmpty()) pending.remove(r);
+                            }
+                        }
+                        try {
+                            r.run();
+                        } catch (Throwable ignored) {
+                        }
+                    }
+                }, Math.max(0L, delayMillis), TimeUnit.MILLISECONDS);
+                List<ScheduledFuture<?>> l = pending.get(r);
+                if (l == null) {
+                    l = new ArrayList<>();
+                    pending.put(r, l);
+                }
+                l.add(self[0]);
+            }
+            return true;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            List<ScheduledFuture<?>> l;
+            synchronized (pending) {
+                l = pending.remove(r);
+            }
+            if (l == null) return;
+            for (ScheduledFuture<?> f : l) f.cancel(false);
+        }
+
+        void shutdown() {
+            exec.shutdownNow();
+        }
+    }
+
+    /** 可以关闭通知，并统计会话通知的发布次数。 */
+    private static final class SoakNotificationManager extends NotificationManager {
+        volatile boolean enabled = true;
+        final AtomicInteger posted = new AtomicInteger();
+
+        @Override
+        public boolean areNotificationsEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public void notify(String tag, int id, Notification notification) {
+            posted.incrementAndGet();
+        }
+    }
+
+    private static final class SoakContext extends MemoryContext {
+        private final File filesDir;
+        final SoakNotificationManager nm = new SoakNotificationManager();
+
+        SoakContext(File filesDir) {
+            this.filesDir = filesDir;
+        }
+
+        @Override
+        public File getFilesDir() {
+            return filesDir;
+        }
+
+        @Override
+        public File getCacheDir() {
+            return new File(filesDir, "cache");
+        }
+
+        @Override
+        public Object getSystemService(String name) {
+            return NOTIFICATION_SERVICE.equals(name) ? nm : null;
+        }
+    }
+
+    /** 替身服务端子进程：stdin 写指令，stdout 按 id 回应答。 */
+    private static final class StandInServer {
+        private final Process process;
+        private final Writer stdin;
+        private final Map<Integer, CompletableFuture<JSONObject>> calls = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final CompletableFuture<Integer> listening = new CompletableFuture<>();
+        int port;
+
+        private StandInServer(Process process) {
+            this.process = process;
+            this.stdin = new OutputStreamWriter(process.getOutputStream(), UTF_8);
+        }
+
+        static StandInServer start(String node, String script) throws Exception {
+            ProcessBuilder pb = new ProcessBuilder(node, script);
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            final StandInServer s = new StandInServer(pb.start());
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    s.readLoop();
+                }
+            }, "soak-server-reader");
+            reader.setDaemon(true);
+            reader.start();
+            s.port = s.listening.get(30, TimeUnit.SECONDS);
+            return s;
+        }
+
+        CompletableFuture<JSONObject> send(JSONObject cmd) throws Exception {
+            int id = nextId.incrementAndGet();
+            CompletableFuture<JSONObject> f = new CompletableFuture<>();
+            calls.put(id, f);
+            synchronized (stdin) {
+                stdin.write(cmd.put("id", id).toString());
+                stdin.write('\n');
+                stdin.flush();
+            }
+            return f;
+        }
+
+        JSONObject call(JSONObject cmd) throws Exception {
+            JSONObject r = send(cmd).get(120, TimeUnit.SECONDS);
+            if (r.has("error")) throw new IllegalStateException(cmd.optString("cmd") + ": " + r.optString("error"));
+            return r;
+        }
+
+        void close() {
+            try {
+                stdin.close();
+                if (!process.waitFor(5, TimeUnit.SECONDS)) process.destroyForcibly();
+            } catch (Throwable ignored) {
+                process.destroyForcibly();
+            }
+        }
+
+        private void readLoop() {
+            try {
+                BufferedReader r = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8));
+                String line;
+                while ((line = r.readLine()) != null) {
+                    JSONObject o;
+                    try {
+                        o = new JSONObject(line);
+                    } catch (Throwable ignored) {
+                        continue;
+                    }
+                    if (o.has("id")) {
+                        CompletableFuture<JSONObject> f = calls.remove(o.optInt("id"));
+                        if (f != null) f.complete(o);
+                    } else if ("listening".equals(o.optString("event"))) {
+                        listening.complete(o.optInt("port"));
+                    }
+                }
+            } catch (Throwable ignored) {
+            }
+            IllegalStateException exited = new IllegalStateException("stand-in server exited");
+            listening.completeExceptionally(exited);
+            for (CompletableFuture<JSONObject> f : calls.values()) f.completeExceptionally(exited);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * notify.message 载荷的标题/正文提取（showPayloadNotification 之前的解析步骤）。
+ * <p>
+ * parseString：字符串载荷的流式提取；parseJsonObject：socket.io 已给出 JSONObject 时的字段提取；
+ * parseStringViaJsonObject：先完整构建 JSONObject 再提取，作为流式解析的对照。
+ * <p>
+ * format=full 为线上完整载荷，format=lite 为握手时请求的精简投影（见 NotifyPayloadParser），两者解析出的通知字段相同；
+ * setup 时打印两种格式的 UTF-8 字节数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PayloadParseBenchmark {
+    @Param({"small", "large", "escaped"})
+    public String shape;
+
+    @Param({"full", "lite"})
+    public String format;
+
+    private String payload;
+    private JSONObject json;
+    private boolean liteFormat;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder body = new StringBuilder();
+        if ("small".equals(shape)) {
+            body.append("晚上一起挖矿吗");
+        } else if ("large".equals(shape)) {
+            for (int i = 0; i < 200; i++) body.append("这是一段很长的消息正文，用来模拟长消息。");
+        } else {
+            body.append("line1\\nline2 \\\"quoted\\\" \\u4f60\\u597d");
+        }
+        String full = "{\"chatId\":\"c_1024\",\"chat\":{\"id\":\"c_1024\",\"name\":\"Agatha 主城\",\"members\":[1,2,3,4,5,6,7,8]},"
+                + "\"message\":{\"id\":\"m_8848\",\"createdAt\":\"2024-03-05T10:20:30.123Z\",\"content\":\"" + body + "\","
+                + "\"sender\":{\"id\":\"u_1\",\"name\":\"Steve\",\"avatar\":\"https://example.invalid/a.png\"}},"
+                + "\"extra\":{\"mentions\":[],\"attachments\":[]}}";
+        // 服务端截断正文（只有 large 超长，且不含转义）
+        String liteBody = body.length() > NotifyPayloadParser.MAX_BODY_CHARS ? body.substring(0, NotifyPayloadParser.MAX_BODY_CHARS) : body.toString();
+        String lite = "{\"c\":\"c_1024\",\"n\":\"Agatha 主城\",\"i\":\"m_8848\",\"t\":1709634030123,\"b\":\"" + liteBody + "\"}";
+        System.out.println("[wire] " + shape + ": full=" + full.getBytes("UTF-8").length + "B lite=" + lite.getBytes("UTF-8").length + "B");
+        liteFormat = "lite".equals(format);
+        payload = liteFormat ? lite : full;
+        json = new JSONObject(payload);
+    }
+
+    @Benchmark
+    public NotifyPayloadParser.Result parseString() {
+        return NotifyPayloadParser.parse(payload, liteFormat);
+    }
+
+    @Benchmark
+    public NotifyPayloadParser.Result parseJsonObject() {
+        return NotifySocketManager.parseJsonPayload(json, liteFormat);
+    }
+
+    @Benchmark
+    public NotifyPayloadParser.Result parseStringViaJsonObject() throws Exception {
+        return NotifySocketManager.parseJsonPayload(new JSONObject(payload), liteFormat);
+    }
+}
@@ -0,0 +1,51 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次健康检查都会走的 refresh() 配置比较路径，以及前台通知用的 getStatusText。
+ * <p>
+ * 基准环境里没有服务端，无法得到“已连接”的 socket；refreshWithoutToken 走的是已配置 wsBase、
+ * 未登录时的短路分支，与快路径一样只读配置快照并比较版本号，不会建立连接。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RefreshBenchmark {
+    private MemoryContext context;
+    private NotifySocketManager manager;
+    private long appliedVersion;
+
+    @Setup
+    public void setup() {
+        context = new MemoryContext();
+        NotifyPrefs.setConfig(context, "https://example.invalid", "/api/notify");
+        NotifyPrefs.setToken(context, "");
+        manager = new NotifySocketManager(null);
+        manager.refresh(context);
+        appliedVersion = NotifyPrefs.getConfig(context).version;
+    }
+
+    @Benchmark
+    public boolean configSnapshotCompare() {
+        return NotifyPrefs.getConfig(context).version == appliedVersion;
+    }
+
+    @Benchmark
+    public void refreshWithoutToken() {
+        manager.refresh(context);
+    }
+
+    @Benchmark
+    public String statusText() {
+        return manager.getStatusText();
+    }
+}
@@ -5,9 +5,16 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 
+import cn.org.agatha.minechat.keepalive.notify.NotifySocketManager;
+import cn.org.agatha.minechat.keepalive.notify.NotifyStartupTrace;
+
 public class BootReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
+        NotifyStartupTrace.begin("boot");
+        NotifyStartupTrace.mark(NotifyStartupTrace.Phase.RECEIVER);
+        // 服务要等主线程处理完本广播才创建，预热先行
+        NotifySocketManager.prewarm(context);
         try {
             Intent serviceIntent = new Intent(context, KeepAliveService.class);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -0,0 +1,144 @@
+package cn.org.agatha.minechat.keepalive;
+
+import android.app.Notification;
+import android.app.Service;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import cn.org.agatha.minechat.keepalive.notify.NotifyStats;
+
+/**
+ * 前台常驻通知的发布器：复用同一个 Notification.Builder 和时间格式化器，
+ * 只在状态文本真正变化时才调用 startForeground（一次到 system_server 的 binder 调用），
+ * 并且两次发布之间至少间隔 {@link #MIN_UPDATE_INTERVAL_MS}，期间的变化合并为一次延迟发布。
+ */
+final class ForegroundNotifier {
+    static final long MIN_UPDATE_INTERVAL_MS = 5_000;
+
+    private final Service service;
+    private final String channelId;
+    private final int notificationId;
+    private final Handler handler;
+
+    private Notification.Builder builder;
+    private SimpleDateFormat timeFormat;
+
+    // 以下字段均在 this 上加锁访问
+    private String publishedStatus;
+    private String pendingStatus;
+    private long statusSince;
+    private long lastPublishAt;
+    private boolean deferredScheduled;
+
+    private final Runnable deferredPublish = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ForegroundNotifier.this) {
+                deferredScheduled = false;
+                if (pendingStatus != null && !pendingStatus.equals(publishedStatus)) {
+                    publishLocked(pendingStatus);
+                }
+            }
+        }
+    };
+
+    ForegroundNotifier(Service service, String channelId, int notificationId, Handler handler) {
+        this.service = service;
+        this.channelId = channelId;
+        this.notificationId = notificationId;
+        this.handler = handler;
+    }
+
+    /**
+     * 无条件发布一次。每次 startForegroundService 之后系统都要求 Service 调用 startForeground，
+     * 所以 onCreate/onStartCommand 必须走这里而不是 {@link #update(String)}。
+     */
+    synchronized void startForeground(String status) {
+        publishLocked(normalize(status));
+    }
+
+    /**
+     * 状态可能变化时调用：文本未变则跳过，距上次发布过近则延迟到最小间隔后再发布。
+     */
+    synchronized void update(String status) {
+        String s = normalize(status);
+        pendingStatus = s;
+        if (s.equals(publishedStatus)) {
+            NotifyStats.onForegroundSkipped();
+            return;
+        }
+
+        long wait = lastPublishAt + MIN_UPDATE_INTERVAL_MS - SystemClock.elapsedRealtime();
+        if (wait <= 0 || handler == null) {
+            if (deferredScheduled && handler != null) {
+                handler.removeCallbacks(deferredPublish);
+                deferredScheduled = false;
+            }
+            publishLocked(s);
+            return;
+        }
+
+        // 最小间隔内的变化只保留最后一次
+        NotifyStats.onForegroundSkipped();
+        if (!deferredScheduled) {
+            deferredScheduled = true;
+            handler.postDelayed(deferredPublish, wait);
+        }
+    }
+
+    synchronized void cancelPending() {
+        if (handler != null) handler.removeCallbacks(deferredPublish);
+        deferredScheduled = false;
+    }
+
+    private void publishLocked(String status) {
+        if (!status.equals(publishedStatus) || statusSince == 0L) {
+            statusSince = System.currentTimeMillis();
+        }
+        try {
+            service.startForeground(notificationId, render(status));
+            publishedStatus = status;
+            pendingStatus = status;
+            lastPublishAt = SystemClock.elapsedRealtime();
+            NotifyStats.onForegroundPublished();
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private Notification render(String status) {
+        if (builder == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                builder = new Notification.Builder(service, channelId);
+            } else {
+                builder = new Notification.Builder(service);
+            }
+            builder.setContentTitle("Minechat")
+                    .setOngoing(true)
+                    .setOnlyAlertOnce(true)
+                    .setSmallIcon(android.R.drawable.stat_notify_chat);
+        }
+
+        // 时间表示“当前状态从何时开始”，只随状态变化，这样状态不变时渲染结果也不变
+        String sinceText = "";
+        try {
+            if (timeFormat == null) timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+            sinceText = timeFormat.format(new Date(statusSince));
+        } catch (Throwable ignored) {
+        }
+
+        String text = "还活着" + (sinceText.isEmpty() ? "" : (" " + sinceText));
+        if (!status.isEmpty()) {
+            text = text + " | " + status;
+        }
+        return builder.setContentText(text).setWhen(statusSince).build();
+    }
+
+    private static String normalize(String status) {
+        return status == null ? "" : status.trim();
+    }
+}
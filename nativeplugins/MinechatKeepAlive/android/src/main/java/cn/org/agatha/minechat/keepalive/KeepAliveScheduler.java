@@ -0,0 +1,94 @@
+package cn.org.agatha.minechat.keepalive;
+
+import android.os.Handler;
+
+/**
+ * 事件驱动 + 自适应退避的健康检查调度器。
+ * <p>
+ * 连接不稳定（连接中/断开/失败）时按 {@link #MIN_INTERVAL_MS} 检查；连续稳定时间隔逐次翻倍，
+ * 直到 {@link #MAX_INTERVAL_MS}。状态变化、配置变化、网络变化等外部事件会立即触发一次检查。
+ * 所有状态只在传入的 Handler 线程上读写。
+ */
+final class KeepAliveScheduler {
+    static final long MIN_INTERVAL_MS = 10_000;
+    static final long MAX_INTERVAL_MS = 5 * 60_000;
+
+    // 外部事件往往成串到达（例如断网时 disconnect + 网络回调），合并后只检查一次
+    private static final long EVENT_DEBOUNCE_MS = 500;
+
+    interface Callback {
+        /**
+         * 执行一次健康检查（刷新连接、更新前台通知）。
+         *
+         * @return 当前连接是否稳定；稳定时下一次检查会退避得更久
+         */
+        boolean onHealthCheck();
+    }
+
+    private final Handler handler;
+    private final Callback callback;
+
+    private volatile boolean started;
+    private long intervalMs = MIN_INTERVAL_MS;
+
+    private final Runnable check = new Runnable() {
+        @Override
+        public void run() {
+            if (!started) return;
+            boolean stable = false;
+            try {
+                stable = callback.onHealthCheck();
+            } catch (Throwable ignored) {
+            }
+            intervalMs = stable ? Math.min(intervalMs * 2, MAX_INTERVAL_MS) : MIN_INTERVAL_MS;
+            handler.removeCallbacks(this);
+            handler.postDelayed(this, intervalMs);
+        }
+    };
+
+    KeepAliveScheduler(Handler handler, Callback callback) {
+        this.handler = handler;
+        this.callback = callback;
+    }
+
+    void start(final long initialDelayMs) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                started = true;
+                intervalMs = MIN_INTERVAL_MS;
+                handler.removeCallbacks(check);
+                handler.postDelayed(check, Math.max(0, initialDelayMs));
+            }
+        });
+    }
+
+    void stop() {
+        // 立即置位，避免 stop 之后仍在排队的事件重新排上检查
+        started = false;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                started = false;
+                handler.removeCallbacks(check);
+            }
+        });
+    }
+
+    /**
+     * 外部事件到达。
+     *
+     * @param resetBackoff 为 true 时（连接变得不稳定、网络切换、配置变化）退回最短检查间隔
+     */
+    void onEvent(final boolean resetBackoff) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!started) return;
+                if (resetBackoff) intervalMs = MIN_INTERVAL_MS;
+                handler.removeCallbacks(check);
+                handler.postDelayed(check, EVENT_DEBOUNCE_MS);
+            }
+        });
+    }
+}
@@ -1,84 +1,253 @@
 package cn.org.agatha.minechat.keepalive;
 
-import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.Handler;
-import android.os.Looper;
-
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import android.os.HandlerThread;
 
+import cn.org.agatha.minechat.keepalive.notify.NotifyConnectionState;
+import cn.org.agatha.minechat.keepalive.notify.NotifyEventBridge;
+import cn.org.agatha.minechat.keepalive.notify.NotifyEventLog;
+import cn.org.agatha.minechat.keepalive.notify.NotifyPrefs;
 import cn.org.agatha.minechat.keepalive.notify.NotifySocketManager;
+import cn.org.agatha.minechat.keepalive.notify.NotifyStartupTrace;
 
 public class KeepAliveService extends Service {
     private static final String CHANNEL_ID = "minechat_keepalive";
     private static final int NOTIFICATION_ID = 10301;
 
-    private final NotifySocketManager notifySocketManager = new NotifySocketManager();
-    private final Handler handler = new Handler(Looper.getMainLooper());
+    // 连续的刷新请求（例如 JS 连续调用 setNotifyConfig/setNotifyToken）在该窗口内合并为一次
+    private static final long REFRESH_COALESCE_MS = 300;
+
+    private NotifySocketManager notifySocketManager;
 
-    private final Runnable ticker = new Runnable() {
+    // socket 生命周期相关的工作（读配置、stop/IO.socket/connect）全部在该串行线程执行，避免阻塞 uni-app 所在的主线程
+    private HandlerThread workerThread;
+    private Handler worker;
+
+    // 两个实例各自独立排队：removeCallbacks 按实例移除
+    private final class RefreshTask implements Runnable {
         @Override
         public void run() {
             try {
                 notifySocketManager.refresh(getApplicationContext());
             } catch (Throwable ignored) {
             }
-            try {
-                // 更新前台通知内容（展示通知连接状态）
-                startForeground(NOTIFICATION_ID, buildNotification());
-            } catch (Throwable ignored) {
-            }
+        }
+    }
 
-            try {
-                handler.postDelayed(this, 10_000);
-            } catch (Throwable ignored) {
-            }
+    private final Runnable refreshTask = new RefreshTask();
+
+    // 服务创建时的首次刷新：不经过 REFRESH_COALESCE_MS 合并窗口，也不会被随后 onStartCommand 的 requestRefresh 移除
+    private final Runnable coldStartRefreshTask = new RefreshTask();
+
+    private final PowerModePolicy.Actions powerModeActions = new PowerModePolicy.Actions() {
+        @Override
+        public void park() {
+            notifySocketManager.park();
+        }
+
+        @Override
+        public void unpark() {
+            notifySocketManager.unpark();
+            notifySocketManager.refresh(getApplicationContext());
+        }
+
+        @Override
+        public void scheduleSync() {
+            NotifySyncJobService.schedule(getApplicationContext());
+        }
+
+        @Override
+        public void cancelSync() {
+            NotifySyncJobService.cancel(getApplicationContext());
         }
     };
 
+    private final Runnable publishStatusTask = new Runnable() {
+        @Override
+        public void run() {
+            publishStatus();
+        }
+    };
+
+    private KeepAliveScheduler scheduler;
+
+    // token/wsBase 一变化（JS 调用 setNotifyToken 的同一时刻）就重连，而不是等下一次健康检查
+    private final NotifyPrefs.Listener configListener = new NotifyPrefs.Listener() {
+        @Override
+        public void onConfigChanged(NotifyPrefs.Config config) {
+            requestRefresh();
+            KeepAliveScheduler s = scheduler;
+            if (s != null) s.onEvent(true);
+        }
+    };
+
+    private final NotifyConnectionState.Listener stateListener = new NotifyConnectionState.Listener() {
+        @Override
+        public void onStateChanged(NotifyConnectionState.Snapshot from, NotifyConnectionState.Snapshot to) {
+            // 状态变化立即反映到前台通知；不稳定时让调度器回到最短检查间隔（停放与健康检查一样按稳定处理）
+            Handler h = worker;
+            if (h != null) h.post(publishStatusTask);
+            KeepAliveScheduler s = scheduler;
+            if (s != null) s.onEvent(to.state != NotifyConnectionState.State.CONNECTED && to.state != NotifyConnectionState.State.PARKED);
+        }
+    };
+
+    private ConnectivityManager.NetworkCallback networkCallback;
+    // 最近一次可用的默认网络，用于识别 Wi-Fi/移动网络之间的切换
+    private Network lastNetwork;
+    private BroadcastReceiver connectivityReceiver;
+
+    private ForegroundNotifier foregroundNotifier;
+    private PowerModeMonitor powerModeMonitor;
+
     @Override
     public void onCreate() {
         super.onCreate();
+        // 开机广播已开始的记录会沿用；进程被系统重建时从这里开始
+        NotifyStartupTrace.begin("service");
+        NotifyStartupTrace.mark(NotifyStartupTrace.Phase.SERVICE_CREATE);
+        // 配置加载、socket.io 类加载与 DNS 预解析放到后台线程，和下面的通知渠道、前台通知并行
+        NotifySocketManager.prewarm(this);
+        try {
+            NotifyEventLog.get(this);
+        } catch (Throwable ignored) {
+        }
+        NotifyEventLog.log("service onCreate");
+        long channelStarted = NotifyStartupTrace.start(NotifyStartupTrace.Phase.CHANNEL);
         ensureChannel();
-        startForeground(NOTIFICATION_ID, buildNotification());
+        NotifyStartupTrace.end(NotifyStartupTrace.Phase.CHANNEL, channelStarted);
 
-        // 尽早拉起原生通知 socket（若已配置 token/wsBase）
         try {
-            notifySocketManager.refresh(getApplicationContext());
+            workerThread = new HandlerThread("minechat-notify-worker");
+            workerThread.start();
+            worker = new Handler(workerThread.getLooper());
         } catch (Throwable ignored) {
+            workerThread = null;
+            worker = null;
         }
 
+        // 消息通知的批量发布也在 worker 上进行
+        notifySocketManager = new NotifySocketManager(worker);
+        // JS 层经由 uni 模块复用这条连接收发事件
+        NotifyEventBridge.attach(notifySocketManager);
+
+        foregroundNotifier = new ForegroundNotifier(this, CHANNEL_ID, NOTIFICATION_ID, worker);
+        foregroundNotifier.startForeground(currentStatusText());
+
+        if (worker != null) {
+            scheduler = new KeepAliveScheduler(worker, new KeepAliveScheduler.Callback() {
+                @Override
+                public boolean onHealthCheck() {
+                    try {
+                        notifySocketManager.refresh(getApplicationContext());
+                    } catch (Throwable ignored) {
+                    }
+                    publishStatus();
+                    // 停放期间没有连接需要检查，按稳定处理让检查间隔退避
+                    return notifySocketManager.isConnected() || notifySocketManager.isParked();
+                }
+            });
+        }
+
+        notifySocketManager.addStateListener(stateListener);
+
         try {
-            handler.postDelayed(ticker, 2_000);
+            NotifyPrefs.addListener(this, configListener);
         } catch (Throwable ignored) {
         }
+        registerConnectivityCallback();
+
+        // 放在首次 refresh 之前：启动时已处于 Doze/省电息屏则直接停放
+        powerModeMonitor = new PowerModeMonitor(this, new PowerModeMonitor.Callback() {
+            @Override
+            public void onModeChanged(final PowerModePolicy.Mode mode) {
+                Handler h = worker;
+                if (h == null) return;
+                h.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyPowerMode(mode);
+                    }
+                });
+            }
+        });
+        powerModeMonitor.start();
+
+        // 尽早拉起原生通知 socket（若已配置 token/wsBase）
+        Handler h = worker;
+        if (h != null) h.post(coldStartRefreshTask);
+
+        if (scheduler != null) scheduler.start(2_000);
     }
 
     @Override
     public void onDestroy() {
+        NotifyEventLog.log("service onDestroy");
+        if (foregroundNotifier != null) foregroundNotifier.cancelPending();
         try {
             removeForegroundNotification();
         } catch (Throwable ignored) {
         }
 
+        notifySocketManager.removeStateListener(stateListener);
+        NotifyEventBridge.detach(notifySocketManager);
+        if (scheduler != null) scheduler.stop();
+        NotifyPrefs.removeListener(configListener);
+        unregisterConnectivityCallback();
+        if (powerModeMonitor != null) powerModeMonitor.stop();
+        NotifySyncJobService.cancel(this);
+
+        Handler h = worker;
+        worker = null;
+        if (h != null) {
+            try {
+                // 只撤掉服务自己排的任务；消息通知的批处理任务留给下面的 flushNotifications
+                h.removeCallbacks(refreshTask);
+                h.removeCallbacks(coldStartRefreshTask);
+                h.removeCallbacks(publishStatusTask);
+                // stop 同样交给 worker 执行，与进行中的 refresh 串行，quitSafely 会先跑完已入队的任务
+                h.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        shutdownSocket();
+                    }
+                });
+            } catch (Throwable ignored) {
+            }
+        } else {
+            shutdownSocket();
+        }
+
         try {
-            notifySocketManager.stop();
+            if (workerThread != null) workerThread.quitSafely();
         } catch (Throwable ignored) {
         }
+        workerThread = null;
+        super.onDestroy();
+    }
 
+    private void shutdownSocket() {
         try {
-            handler.removeCallbacks(ticker);
+            notifySocketManager.shutdown();
+        } catch (Throwable ignored) {
+        }
+        // 批处理窗口里的消息是 worker 上的延迟任务，quitSafely 会丢弃它们；游标与去重表已经前进，退出前同步发布
+        try {
+            notifySocketManager.flushNotifications();
         } catch (Throwable ignored) {
         }
-        super.onDestroy();
     }
 
     @Override
@@ -95,15 +264,13 @@ public class KeepAliveService extends Service {
     public int onStartCommand(Intent intent, int flags, int startId) {
         try {
             ensureChannel();
-            startForeground(NOTIFICATION_ID, buildNotification());
+            foregroundNotifier.startForeground(currentStatusText());
         } catch (Throwable ignored) {
         }
 
+        NotifyEventLog.log("service onStartCommand restart=" + (intent == null));
         // 每次启动/重启都刷新一次配置，确保 token 更新后生效
-        try {
-            notifySocketManager.refresh(getApplicationContext());
-        } catch (Throwable ignored) {
-        }
+        requestRefresh();
         return START_STICKY;
     }
 
@@ -112,6 +279,120 @@ public class KeepAliveService extends Service {
         return null;
     }
 
+    private void requestRefresh() {
+        Handler h = worker;
+        if (h == null) return;
+        try {
+            // 先移除尚未执行的刷新，再重新排队：一串 setNotifyToken 只会触发一次重连
+            h.removeCallbacks(refreshTask);
+            h.postDelayed(refreshTask, REFRESH_COALESCE_MS);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private void publishStatus() {
+        ForegroundNotifier n = foregroundNotifier;
+        if (n == null) return;
+        try {
+            // 更新前台通知内容（展示通知连接状态）；状态未变化时不会真正发布
+            n.update(currentStatusText());
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private String currentStatusText() {
+        try {
+            return notifySocketManager.getStatusText();
+        } catch (Throwable ignored) {
+            return "";
+        }
+    }
+
+    // 在 worker 线程执行
+    private void applyPowerMode(PowerModePolicy.Mode mode) {
+        NotifyEventLog.log("power mode " + mode);
+        try {
+            PowerModePolicy.apply(mode, powerModeActions);
+        } catch (Throwable ignored) {
+        }
+        publishStatus();
+        KeepAliveScheduler s = scheduler;
+        if (s != null) s.onEvent(mode == PowerModePolicy.Mode.LIVE);
+    }
+
+    private void onNetworkChanged(boolean available, boolean switched) {
+        NotifyEventLog.log("network available=" + available + " switched=" + switched);
+        // 断网时暂停重连；网络恢复/切换时立即重连，而不是等退避或下一次健康检查
+        try {
+            notifySocketManager.onNetworkChanged(available, switched);
+        } catch (Throwable ignored) {
+        }
+        if (available) requestRefresh();
+        KeepAliveScheduler s = scheduler;
+        if (s != null) s.onEvent(true);
+    }
+
+    private void registerConnectivityCallback() {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+                if (cm == null) return;
+                networkCallback = new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(Network network) {
+                        Network previous = lastNetwork;
+                        lastNetwork = network;
+                        onNetworkChanged(true, previous != null && !previous.equals(network));
+                    }
+
+                    @Override
+                    public void onLost(Network network) {
+                        // 切换时旧网络的 onLost 可能晚于新网络的 onAvailable，此时不能暂停
+                        Network current = lastNetwork;
+                        if (current != null && !current.equals(network)) return;
+                        onNetworkChanged(false, false);
+                    }
+                };
+                cm.registerDefaultNetworkCallback(networkCallback);
+            } else {
+                connectivityReceiver = new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        boolean available = false;
+                        try {
+                            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+                            NetworkInfo info = cm != null ? cm.getActiveNetworkInfo() : null;
+                            available = info != null && info.isConnected();
+                        } catch (Throwable ignored) {
+                        }
+                        onNetworkChanged(available, false);
+                    }
+                };
+                registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            }
+        } catch (Throwable ignored) {
+            networkCallback = null;
+            connectivityReceiver = null;
+        }
+    }
+
+    private void unregisterConnectivityCallback() {
+        try {
+            if (networkCallback != null) {
+                ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+                if (cm != null) cm.unregisterNetworkCallback(networkCallback);
+            }
+        } catch (Throwable ignored) {
+        }
+        networkCallback = null;
+
+        try {
+            if (connectivityReceiver != null) unregisterReceiver(connectivityReceiver);
+        } catch (Throwable ignored) {
+        }
+        connectivityReceiver = null;
+    }
+
     private void ensureChannel() {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
         try {
@@ -145,37 +426,4 @@ public class KeepAliveService extends Service {
         } catch (Throwable ignored) {
         }
     }
-
-    private Notification buildNotification() {
-        String status = "";
-        try {
-            status = notifySocketManager.getStatusText(getApplicationContext());
-        } catch (Throwable ignored) {
-        }
-
-        String nowText = "";
-        try {
-            nowText = new SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(new Date());
-        } catch (Throwable ignored) {
-        }
-
-        String text = "还活着" + (nowText.isEmpty() ? "" : (" " + nowText));
-        if (status != null && !status.trim().isEmpty()) {
-            text = text + " | " + status.trim();
-        }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            return new Notification.Builder(this, CHANNEL_ID)
-                    .setContentTitle("Minechat")
-                    .setContentText(text)
-                    .setOngoing(true)
-                    .setSmallIcon(android.R.drawable.stat_notify_chat)
-                    .build();
-        }
-        return new Notification.Builder(this)
-                .setContentTitle("Minechat")
-                .setContentText(text)
-                .setOngoing(true)
-                .setSmallIcon(android.R.drawable.stat_notify_chat)
-                .build();
-    }
 }
@@ -0,0 +1,145 @@
+package cn.org.agatha.minechat.keepalive;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import cn.org.agatha.minechat.keepalive.notify.NotifyConnectionState;
+import cn.org.agatha.minechat.keepalive.notify.NotifyEventLog;
+import cn.org.agatha.minechat.keepalive.notify.NotifyPrefs;
+import cn.org.agatha.minechat.keepalive.notify.NotifySocketManager;
+
+/**
+ * 省电模式下的批量补收：socket 停放期间，由 JobScheduler 在系统维护窗口（有网络时）拉起，
+ * 短暂连上 notify socket，靠 notify.resume / notify.replay 把停放期间的消息一次收完，然后断开。
+ */
+public class NotifySyncJobService extends JobService {
+    static final int JOB_ID = 20310;
+
+    // 整个补收窗口的上限；连接成功后再留一小段时间等待 notify.replay
+    private static final long SYNC_WINDOW_MS = 30_000;
+    private static final long REPLAY_GRACE_MS = 5_000;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private NotifySocketManager manager;
+    private JobParameters params;
+
+    private final Runnable finishTask = new Runnable() {
+        @Override
+        public void run() {
+            finish(true);
+        }
+    };
+
+    static void schedule(Context context) {
+        try {
+            JobScheduler js = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            if (js == null || js.getPendingJob(JOB_ID) != null) return;
+            JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, NotifySyncJobService.class))
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                    .setPeriodic(PowerModePolicy.SYNC_INTERVAL_MS)
+                    .build();
+            js.schedule(job);
+            NotifyEventLog.log("sync job scheduled");
+        } catch (Throwable ignored) {
+        }
+    }
+
+    static void cancel(Context context) {
+        try {
+            JobScheduler js = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            if (js != null) js.cancel(JOB_ID);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    @Override
+    public synchronized boolean onStartJob(JobParameters p) {
+        NotifyPrefs.Config config = NotifyPrefs.getConfig(this);
+        if (!config.hasWsBase() || !config.hasToken()) return false;
+        try {
+            NotifyEventLog.get(this);
+        } catch (Throwable ignored) {
+        }
+        NotifyEventLog.log("sync job start");
+
+        params = p;
+        try {
+            thread = new HandlerThread("minechat-notify-sync");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        } catch (Throwable ignored) {
+            return false;
+        }
+
+        manager = new NotifySocketManager(handler);
+        manager.addStateListener(new NotifyConnectionState.Listener() {
+            @Override
+            public void onStateChanged(NotifyConnectionState.Snapshot from, NotifyConnectionState.Snapshot to) {
+                Handler h = handler;
+                if (h == null || to.state != NotifyConnectionState.State.CONNECTED) return;
+                // 连上后 resume 已发出，等待补发到达即可结束
+                h.removeCallbacks(finishTask);
+                h.postDelayed(finishTask, REPLAY_GRACE_MS);
+            }
+        });
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    manager.refresh(getApplicationContext());
+                } catch (Throwable ignored) {
+                }
+            }
+        });
+        handler.postDelayed(finishTask, SYNC_WINDOW_MS);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters p) {
+        // 系统收回维护窗口或任务被取消（回到实时模式）：周期任务会再次调度，这里不需要重试
+        finish(false);
+        return false;
+    }
+
+    private synchronized void finish(boolean notifyScheduler) {
+        final NotifySocketManager m = manager;
+        final JobParameters p = params;
+        final HandlerThread t = thread;
+        manager = null;
+        params = null;
+        thread = null;
+        handler = null;
+        if (m == null) return;
+
+        NotifyEventLog.log("sync job finish");
+        PowerModePolicy.finishSync(new PowerModePolicy.SyncFinish() {
+            @Override
+            public void shutdownSocket() {
+                m.shutdown();
+            }
+
+            @Override
+            public void flushNotifications() {
+                m.flushNotifications();
+            }
+
+            @Override
+            public void quitThread() {
+                if (t != null) t.quitSafely();
+            }
+
+            @Override
+            public void jobFinished() {
+                if (p != null) NotifySyncJobService.this.jobFinished(p, false);
+            }
+        }, notifyScheduler);
+    }
+}
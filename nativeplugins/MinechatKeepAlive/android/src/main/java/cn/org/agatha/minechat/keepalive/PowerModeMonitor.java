@@ -0,0 +1,82 @@
+package cn.org.agatha.minechat.keepalive;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+
+/**
+ * 监听 Doze 与亮灭屏，把设备状态交给 {@link PowerModePolicy}，模式变化时回调。
+ * 回调在主线程触发，实现方只应投递任务。
+ */
+final class PowerModeMonitor {
+    interface Callback {
+        void onModeChanged(PowerModePolicy.Mode mode);
+    }
+
+    private final Context context;
+    private final Callback callback;
+    private final PowerModePolicy policy = new PowerModePolicy();
+    private BroadcastReceiver receiver;
+
+    PowerModeMonitor(Context context, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.callback = callback;
+    }
+
+    void start() {
+        if (receiver != null) return;
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                evaluate();
+            }
+        };
+        try {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_SCREEN_ON);
+            filter.addAction(Intent.ACTION_SCREEN_OFF);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                filter.addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+            }
+            context.registerReceiver(receiver, filter);
+        } catch (Throwable ignored) {
+            receiver = null;
+            return;
+        }
+        evaluate();
+    }
+
+    void stop() {
+        try {
+            if (receiver != null) context.unregisterReceiver(receiver);
+        } catch (Throwable ignored) {
+        }
+        receiver = null;
+    }
+
+    PowerModePolicy.Mode current() {
+        return policy.current();
+    }
+
+    private void evaluate() {
+        boolean idle = false;
+        boolean interactive = true;
+        try {
+            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (pm != null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) idle = pm.isDeviceIdleMode();
+                interactive = pm.isInteractive();
+            }
+        } catch (Throwable ignored) {
+        }
+        PowerModePolicy.Mode changed = policy.update(idle, interactive);
+        if (changed == null || callback == null) return;
+        try {
+            callback.onModeChanged(changed);
+        } catch (Throwable ignored) {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package cn.org.agatha.minechat.keepalive;
+
+/**
+ * 省电模式决策（纯 Java，不依赖 Android API）。
+ * <p>
+ * Doze 下系统会切断后台网络，此时维持长连接只会不停重连失败。
+ * 这里根据设备状态决定是保持实时 socket（{@link Mode#LIVE}），还是停放 socket、
+ * 改由 JobScheduler 在系统维护窗口内批量补收（{@link Mode#PARKED}）。
+ * 单纯开启省电模式并不切断前台服务的网络，此时停放只会让消息推迟到至少 15 分钟一次的补收任务，所以不作为停放条件。
+ */
+final class PowerModePolicy {
+    enum Mode {
+        LIVE,
+        PARKED
+    }
+
+    // JobScheduler 周期任务允许的最小间隔
+    static final long SYNC_INTERVAL_MS = 15 * 60_000;
+
+    /**
+     * 模式切换时要执行的动作，KeepAliveService 把它们接到 NotifySocketManager 与 NotifySyncJobService 上。
+     */
+    interface Actions {
+        void park();
+
+        /** 解除停放并立即重连。 */
+        void unpark();
+
+        void scheduleSync();
+
+        void cancelSync();
+    }
+
+    /**
+     * 补收任务结束时的收尾步骤，由 NotifySyncJobService 实现。
+     */
+    interface SyncFinish {
+        void shutdownSocket();
+
+        void flushNotifications();
+
+        void quitThread();
+
+        void jobFinished();
+    }
+
+    private Mode mode = Mode.LIVE;
+
+    /**
+     * 亮屏/可交互时一律实时；否则只在 Doze 中停放。
+     */
+    static Mode decide(boolean deviceIdle, boolean interactive) {
+        if (interactive) return Mode.LIVE;
+        return deviceIdle ? Mode.PARKED : Mode.LIVE;
+    }
+
+    /**
+     * 根据最新设备状态更新模式。
+     *
+     * @return 模式发生变化时返回新模式，否则返回 null
+     */
+    Mode update(boolean deviceIdle, boolean interactive) {
+        Mode next = decide(deviceIdle, interactive);
+        if (next == mode) return null;
+        mode = next;
+        return next;
+    }
+
+    Mode current() {
+        return mode;
+    }
+
+    /**
+     * 停放：先停放 socket 再排补收任务；恢复实时：先撤掉补收任务再重连，补收与实时 socket 不会同时连着。
+     */
+    static void apply(Mode mode, Actions actions) {
+        if (mode == Mode.PARKED) {
+            actions.park();
+            actions.scheduleSync();
+        } else {
+            actions.cancelSync();
+            actions.unpark();
+        }
+    }
+
+    /**
+     * 补收结束：断开 socket 后先同步发布批处理窗口里的补发通知，再退出线程、通知 JobScheduler。
+     * 补发通知是 handler 上的延迟任务，线程先退出的话游标已前进、通知却丢了。某一步抛异常不影响后面的步骤。
+     *
+     * @param notifyScheduler 任务是自己结束的（而不是被系统 onStopJob 收回）时才调用 jobFinished
+     */
+    static void finishSync(SyncFinish steps, boolean notifyScheduler) {
+        try {
+            steps.shutdownSocket();
+        } catch (Throwable ignored) {
+        }
+        try {
+            steps.flushNotifications();
+        } catch (Throwable ignored) {
+        }
+        try {
+            steps.quitThread();
+        } catch (Throwable ignored) {
+        }
+        if (!notifyScheduler) return;
+        try {
+            steps.jobFinished();
+        } catch (Throwable ignored) {
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 通知大图标用的头像缓存。
+ * <p>
+ * 三级：内存 LRU（已按通知大图标尺寸缩小的 Bitmap，按字节计容量）→ 磁盘（缩小后的 PNG，总量超过上限时按最近使用淘汰）→ HTTP。
+ * 同一 URL 的并发请求合并为一次加载；失败的 URL 在一段时间内不再重试，避免群聊刷屏时反复请求坏链接。
+ * 调用方用 {@link #prefetch(String)} 在收到消息时提前开始加载，发布通知时用 {@link #peek(String)} 只取内存中已有的头像，
+ * 不在发布线程上等待；还没加载好的用 {@link #prefetch(String, Listener)} 登记回调，加载完成后再更新通知。
+ */
+final class AvatarCache {
+
+    interface Listener {
+        /** 在头像加载线程（或登记时已在内存中则在调用方线程）上回调；加载失败时不回调。 */
+        void onAvatarLoaded(String url, Bitmap bitmap);
+    }
+
+    private static final String DIR_NAME = "minechat_avatars";
+    private static final long DISK_CAP_BYTES = 8L * 1024 * 1024;
+    private static final int MEMORY_CAP_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_DOWNLOAD_BYTES = 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    private static final int READ_TIMEOUT_MS = 10_000;
+    private static final long FAILURE_TTL_MS = 5 * 60_000;
+    private static final int MAX_FAILURES = 64;
+    // 取不到系统尺寸时的大图标边长（64dp@xxhdpi）
+    private static final int DEFAULT_ICON_PX = 192;
+
+    private static volatile AvatarCache instance;
+
+    // 以下字段在 Pending 自身上加锁访问
+    private static final class Pending {
+        final List<Listener> listeners = new ArrayList<>(1);
+        boolean finished;
+        Bitmap bitmap;
+
+        void listen(String url, Listener l) {
+            synchronized (this) {
+                if (!finished) {
+                    listeners.add(l);
+                    return;
+                }
+            }
+            if (bitmap != null) l.onAvatarLoaded(url, bitmap);
+        }
+
+        List<Listener> finish(Bitmap b) {
+            synchronized (this) {
+                bitmap = b;
+                finished = true;
+                List<Listener> out = new ArrayList<>(listeners);
+                listeners.clear();
+                return out;
+            }
+        }
+    }
+
+    private final File dir;
+    private final int iconPx;
+    private final LruCache<String, Bitmap> memory;
+    private final ConcurrentHashMap<String, Pending> inflight = new ConcurrentHashMap<>();
+    private final Object diskLock = new Object();
+    // URL -> 失败时间（SystemClock.elapsedRealtime），在 this 上加锁访问
+    private final LinkedHashMap<String, Long> failures = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_FAILURES;
+        }
+    };
+    private final ExecutorService executor;
+    // 共用 NotifyHttp 的连接池、TLS 会话与 DNS 缓存，只收紧超时
+    private final OkHttpClient http;
+
+    static AvatarCache get(Context context) {
+        AvatarCache c = instance;
+        if (c != null) return c;
+        synchronized (AvatarCache.class) {
+            if (instance == null) instance = new AvatarCache(context.getApplicationContext());
+            return instance;
+        }
+    }
+
+    private AvatarCache(Context context) {
+        this.dir = new File(context.getCacheDir(), DIR_NAME);
+        this.iconPx = iconSize(context);
+        int cap = (int) Math.min(MEMORY_CAP_BYTES, Runtime.getRuntime().maxMemory() / 32);
+        this.memory = new LruCache<String, Bitmap>(Math.max(1, cap)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        // 两个线程：一个慢域名不会卡住其他头像；任务在各自线程上做网络 IO 与解码
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "minechat-avatar");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        this.http = NotifyHttp.client().newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 开始后台加载（已在内存中、正在加载或最近失败时什么也不做）。可在任意线程调用。
+     */
+    void prefetch(String url) {
+        prefetch(url, null);
+    }
+
+    /**
+     * 同 {@link #prefetch(String)}，加载成功后回调 listener；已在内存中时立即在调用方线程回调，最近失败过的 URL 不回调。
+     */
+    void prefetch(String url, Listener listener) {
+        if (!isFetchable(url)) return;
+        Bitmap b = memory.get(url);
+        if (b != null) {
+            if (listener != null) listener.onAvatarLoaded(url, b);
+            return;
+        }
+        Pending p = start(url);
+        if (p != null && listener != null) p.listen(url, listener);
+    }
+
+    /**
+     * 只取内存中已有的头像，不等待、不发起加载；没有时返回 null。
+     */
+    Bitmap peek(String url) {
+        if (!isFetchable(url)) return null;
+        Bitmap b = memory.get(url);
+        if (b != null) NotifyStats.onAvatarMemoryHit();
+        return b;
+    }
+
+    private Pending start(final String url) {
+        synchronized (this) {
+            Long failedAt = failures.get(url);
+            if (failedAt != null) {
+                if (SystemClock.elapsedRealtime() - failedAt < FAILURE_TTL_MS) return null;
+                failures.remove(url);
+            }
+        }
+        Pending existing = inflight.get(url);
+        if (existing != null) {
+            NotifyStats.onAvatarCoalesced();
+            return existing;
+        }
+        final Pending p = new Pending();
+        existing = inflight.putIfAbsent(url, p);
+        if (existing != null) {
+            NotifyStats.onAvatarCoalesced();
+            return existing;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Bitmap b = null;
+                    try {
+                        b = load(url);
+                    } catch (Throwable ignored) {
+                    }
+                    if (b != null) {
+                        memory.put(url, b);
+                    } else {
+                        NotifyStats.onAvatarFailed();
+                        synchronized (AvatarCache.this) {
+                            failures.put(url, SystemClock.elapsedRealtime());
+                        }
+                    }
+                    List<Listener> listeners = p.finish(b);
+                    inflight.remove(url, p);
+                    if (b == null) return;
+                    for (Listener l : listeners) {
+                        try {
+                            l.onAvatarLoaded(url, b);
+                        } catch (Throwable ignored) {
+                        }
+                    }
+                }
+            });
+        } catch (Throwable ignored) {
+            p.finish(null);
+            inflight.remove(url, p);
+        }
+        return p;
+    }
+
+    private Bitmap load(String url) throws Exception {
+        File file = new File(dir, key(url));
+        if (file.isFile()) {
+            Bitmap b = BitmapFactory.decodeFile(file.getPath());
+            if (b != null) {
+                // 记录最近使用，淘汰时保留常用头像
+                file.setLastModified(System.currentTimeMillis());
+                NotifyStats.onAvatarDiskHit();
+                return b;
+            }
+            file.delete();
+        }
+
+        byte[] bytes = download(url);
+        if (bytes == null) return null;
+        Bitmap b = decode(bytes);
+        if (b == null) return null;
+        NotifyStats.onAvatarFetched();
+        store(file, b);
+        return b;
+    }
+
+    private byte[] download(String url) throws Exception {
+        Response response = http.newCall(new Request.Builder().url(url).build()).execute();
+        try {
+            ResponseBody body = response.body();
+            if (response.code() != 200 || body == null) return null;
+            long declared = body.contentLength();
+            if (declared > MAX_DOWNLOAD_BYTES) return null;
+            InputStream in = body.byteStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(declared > 0 ? (int) declared : 16 * 1024);
+            byte[] buf = new byte[8 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (out.size() + n > MAX_DOWNLOAD_BYTES) return null;
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 解码并缩小到大图标尺寸：先用 inSampleSize 按 2 的幂下采样（不分配原图内存），再精确缩放到最长边 iconPx。
+     */
+    private Bitmap decode(byte[] bytes) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null;
+
+        int longest = Math.max(bounds.outWidth, bounds.outHeight);
+        int sample = 1;
+        while (longest / (sample * 2) >= iconPx) sample *= 2;
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = sample;
+        Bitmap b = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, opts);
+        if (b == null) return null;
+
+        int w = b.getWidth();
+        int h = b.getHeight();
+        if (Math.max(w, h) <= iconPx) return b;
+        float scale = iconPx / (float) Math.max(w, h);
+        Bitmap scaled = Bitmap.createScaledBitmap(b, Math.max(1, Math.round(w * scale)), Math.max(1, Math.round(h * scale)), true);
+        if (scaled != b) b.recycle();
+        return scaled;
+    }
+
+    private void store(File file, Bitmap b) {
+        synchronized (diskLock) {
+            File tmp = new File(dir, file.getName() + ".tmp");
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs()) return;
+                FileOutputStream out = new FileOutputStream(tmp);
+                try {
+                    b.compress(Bitmap.CompressFormat.PNG, 100, out);
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(file)) tmp.delete();
+                trimLocked();
+            } catch (Throwable ignored) {
+                tmp.delete();
+            }
+        }
+    }
+
+    // 总量超过上限时，从最久未使用的文件开始删除
+    private void trimLocked() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total <= DISK_CAP_BYTES) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (File f : files) {
+            if (total <= DISK_CAP_BYTES) break;
+            long len = f.length();
+            if (f.delete()) total -= len;
+        }
+    }
+
+    private static boolean isFetchable(String url) {
+        return url != null && (url.startsWith("https://") || url.startsWith("http://"));
+    }
+
+    private static String key(String url) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte x : d) {
+                sb.append(Character.forDigit((x >> 4) & 0xf, 16)).append(Character.forDigit(x & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (Throwable ignored) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static int iconSize(Context context) {
+        try {
+            int px = context.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+            if (px > 0) return px;
+        } catch (Throwable ignored) {
+        }
+        return DEFAULT_ICON_PX;
+    }
+}
@@ -0,0 +1,103 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * 指数退避 + 全抖动（delay = random(0, min(max, base * 2^n))）的重连策略。
+ * <p>
+ * 全抖动让服务端重启后大量客户端的重连时间均匀散开，而不是同一秒一起涌入；
+ * 无网络时完全暂停，网络恢复/切换时立即重连并重置退避；
+ * 任意一小时内的重连次数不超过上限，超出后顺延到最早一次尝试满一小时之后。
+ * <p>
+ * 不依赖 Android API，时间源与随机数可注入，便于在 JVM 上单独验证。
+ */
+public final class BackoffReconnectPolicy implements ReconnectPolicy {
+    public static final long DEFAULT_BASE_DELAY_MS = 1_000;
+    public static final long DEFAULT_MAX_DELAY_MS = 5 * 60_000;
+    public static final int DEFAULT_MAX_ATTEMPTS_PER_HOUR = 30;
+
+    static final long HOUR_MS = 60 * 60_000;
+
+    public interface Clock {
+        long nowMs();
+    }
+
+    private static final Clock MONOTONIC = new Clock() {
+        @Override
+        public long nowMs() {
+            // 不受用户改系统时间影响
+            return System.nanoTime() / 1_000_000L;
+        }
+    };
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final int maxAttemptsPerHour;
+    private final Clock clock;
+    private final Random random;
+
+    // 以下字段均在 this 上加锁访问
+    private int failures;
+    private boolean networkAvailable = true;
+    // 最近一小时内（已排定的）重连时间点，按加入顺序
+    private final ArrayDeque<Long> attempts = new ArrayDeque<>();
+
+    public BackoffReconnectPolicy() {
+        this(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_MAX_ATTEMPTS_PER_HOUR, MONOTONIC, new Random());
+    }
+
+    public BackoffReconnectPolicy(long baseDelayMs, long maxDelayMs, int maxAttemptsPerHour, Clock clock, Random random) {
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+        this.maxAttemptsPerHour = Math.max(1, maxAttemptsPerHour);
+        this.clock = clock != null ? clock : MONOTONIC;
+        this.random = random != null ? random : new Random();
+    }
+
+    @Override
+    public synchronized long nextDelayMs() {
+        if (!networkAvailable) return STOP;
+        long now = clock.nowMs();
+
+        long ceiling = baseDelayMs;
+        for (int i = 0; i < failures && ceiling < maxDelayMs; i++) ceiling <<= 1;
+        ceiling = Math.min(ceiling, maxDelayMs);
+        failures++;
+
+        long delay = (long) (random.nextDouble() * ceiling);
+        long at = budgetedTime(now, now + delay);
+        attempts.addLast(at);
+        return at - now;
+    }
+
+    @Override
+    public synchronized void onConnected() {
+        failures = 0;
+    }
+
+    @Override
+    public synchronized boolean onNetworkChanged(boolean available) {
+        networkAvailable = available;
+        if (!available) return false;
+        failures = 0;
+        long now = clock.nowMs();
+        // 网络来回抖动时立即重连同样计入每小时额度，额度用尽就交给下一次 nextDelayMs 排期
+        if (budgetedTime(now, now) != now) return false;
+        attempts.addLast(now);
+        return true;
+    }
+
+    synchronized int getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * 在每小时额度内，返回不早于 desired 的可用重连时间点。
+     */
+    private long budgetedTime(long now, long desired) {
+        while (!attempts.isEmpty() && attempts.peekFirst() <= now - HOUR_MS) attempts.removeFirst();
+        if (attempts.size() < maxAttemptsPerHour) return desired;
+        return Math.max(desired, attempts.peekFirst() + HOUR_MS);
+    }
+}
@@ -0,0 +1,495 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.service.notification.StatusBarNotification;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按会话聚合消息通知。
+ * <p>
+ * 每个会话使用固定的 (tag, id) = ("chat:" + chatId, {@link #CHAT_NOTIFICATION_ID})，同一会话的新消息更新同一条通知（InboxStyle 展示最近几条），
+ * 不再出现随机 ID 冲突；{@link #BATCH_WINDOW_MS} 内到达的消息合并为每个会话一次 NotificationManager 调用，
+ * 避免群聊刷屏时被系统限流/丢弃、手机连续震动。Android 7.0+ 额外发布一条分组摘要。
+ * <p>
+ * 会话头像经 {@link AvatarCache} 作为大图标：收到消息时预取，发布时只用内存中已有的，不在 handler 线程上等待；
+ * 还没加载好的会话先发不带头像的通知，头像到达后静默更新该会话的通知（setOnlyAlertOnce，不再次提醒）。
+ */
+final class ChatNotificationAggregator {
+    static final int CHAT_NOTIFICATION_ID = 20300;
+    private static final int SUMMARY_NOTIFICATION_ID = 20299;
+    private static final String TAG_PREFIX = "chat:";
+    private static final String GROUP_KEY = "minechat_messages";
+
+    static final long BATCH_WINDOW_MS = 400;
+    private static final int MAX_LINES_PER_CHAT = 6;
+    private static final int MAX_CHATS = 32;
+    // 每个会话最多保留多少条待发布消息的服务端时间（仅用于延迟统计）
+    private static final int MAX_PENDING_TIMES = 64;
+
+    interface Callback {
+        void onNotifyError(Throwable error);
+
+        /** 本批会话通知全部发出（在发布线程上）。 */
+        void onRendered();
+
+        /**
+         * 发布失败时，本批中尚未发出的会话的新消息（每条一行），交给调用方存入待发箱。
+         * 这些消息已从聚合状态中撤回，之后从待发箱补发时不会与状态里的行重复计数。
+         */
+        void onUndelivered(String chatKey, String title, String avatarUrl, List<String> lines, long[] serverTimes);
+    }
+
+    // 本批待发布会话的新消息快照，发布失败时交还给 Callback#onUndelivered
+    private static final class Batch {
+        final String key;
+        final String title;
+        final String avatarUrl;
+        final List<String> lines;
+        final long[] times;
+
+        Batch(String key, String title, String avatarUrl, List<String> lines, long[] times) {
+            this.key = key;
+            this.title = title;
+            this.avatarUrl = avatarUrl;
+            this.lines = lines;
+            this.times = times;
+        }
+    }
+
+    private static final class ChatState {
+        final String key;
+        String title;
+        String avatarUrl;
+        final ArrayDeque<String> lines = new ArrayDeque<>();
+        // 当前通知中累计的消息数，以及上次发布之后新到的消息数
+        int count;
+        int fresh;
+        boolean dirty;
+        // 通知已发出但还没带上头像，等 AvatarCache 回调后补发
+        boolean iconPending;
+        long postedAt;
+        final ArrayDeque<Long> pendingTimes = new ArrayDeque<>();
+
+        ChatState(String key) {
+            this.key = key;
+        }
+    }
+
+    private final Context context;
+    private final String channelId;
+    private final Handler handler;
+    private final Callback callback;
+
+    // 访问顺序：最近有消息的会话排在最后；超过上限时淘汰最久未活跃的会话状态
+    private final LinkedHashMap<String, ChatState> chats = new LinkedHashMap<String, ChatState>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChatState> eldest) {
+            return size() > MAX_CHATS;
+        }
+    };
+    private boolean flushScheduled;
+    // 服务端下发的免打扰会话（chat.update 的 muted）
+    private final Set<String> mutedChats = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // 头像加载线程上回调：切回 handler 线程更新通知，handler 不可用时就地更新
+    private final AvatarCache.Listener iconListener = new AvatarCache.Listener() {
+        @Override
+        public void onAvatarLoaded(final String url, final Bitmap bitmap) {
+            Runnable r = new Runnable() {
+                @Override
+                public void run() {
+                    repostWithIcon(url, bitmap);
+                }
+            };
+            if (handler == null || !handler.post(r)) r.run();
+        }
+    };
+
+    ChatNotificationAggregator(Context context, String channelId, Handler handler, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.channelId = channelId;
+        this.handler = handler;
+        this.callback = callback;
+    }
+
+    /**
+     * 记录一条消息；实际发布在批处理窗口结束后统一进行。可在任意线程调用。
+     *
+     * @param avatarUrl    会话/发送者头像，作为通知大图标；可为 null
+     * @param serverTimeMs 消息的服务端时间（epoch 毫秒），未知时传 -1；用于统计端到端延迟
+     */
+    void add(String chatId, String title, String body, String avatarUrl, long serverTimeMs) {
+        String key = chatKey(chatId, title);
+        if (mutedChats.contains(key)) return;
+        if (avatarUrl != null) {
+            try {
+                AvatarCache.get(context).prefetch(avatarUrl);
+            } catch (Throwable ignored) {
+            }
+        }
+        synchronized (this) {
+            ChatState st = chats.get(key);
+            if (st == null) {
+                st = new ChatState(key);
+                chats.put(key, st);
+            }
+            st.title = title;
+            if (avatarUrl != null) st.avatarUrl = avatarUrl;
+            st.lines.addLast(body == null ? "" : body);
+            while (st.lines.size() > MAX_LINES_PER_CHAT) st.lines.removeFirst();
+            st.count++;
+            st.fresh++;
+            st.dirty = true;
+            if (st.pendingTimes.size() < MAX_PENDING_TIMES) st.pendingTimes.addLast(serverTimeMs);
+
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        if (handler == null || !handler.postDelayed(flushTask, BATCH_WINDOW_MS)) {
+            flush();
+        }
+    }
+
+    /**
+     * 会话已在其他设备读过：撤掉该会话的通知并清空累计的消息。
+     */
+    void cancel(String chatId) {
+        if (chatId == null || chatId.isEmpty()) return;
+        boolean empty;
+        synchronized (this) {
+            chats.remove(chatId);
+            empty = chats.isEmpty();
+        }
+        NotificationManager nm = notificationManager();
+        if (nm == null) return;
+        try {
+            nm.cancel(TAG_PREFIX + chatId, CHAT_NOTIFICATION_ID);
+            if (empty) nm.cancel(SUMMARY_NOTIFICATION_ID);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * 会话改名：只更新内存中的标题，下一次有新消息时随通知一起发布，不为改名单独弹通知。
+     */
+    void rename(String chatId, String title) {
+        if (chatId == null || chatId.isEmpty() || title == null || title.isEmpty()) return;
+        synchronized (this) {
+            ChatState st = chats.get(chatId);
+            if (st != null) st.title = title;
+        }
+    }
+
+    void setMuted(String chatId, boolean muted) {
+        if (chatId == null || chatId.isEmpty()) return;
+        if (muted) {
+            mutedChats.add(chatId);
+            cancel(chatId);
+        } else {
+            mutedChats.remove(chatId);
+        }
+    }
+
+    /**
+     * 不等批处理窗口，在调用方线程立即发布所有待发布的会话。用于 handler 线程即将退出时（补收任务结束），
+     * 否则延迟的 flushTask 随线程一起被丢弃，游标与去重表却已经前进，这些消息再也不会展示。
+     */
+    void flushNow() {
+        if (handler != null) handler.removeCallbacks(flushTask);
+        flush();
+    }
+
+    private void flush() {
+        NotificationManager nm = notificationManager();
+        Set<String> active = activeChatTags(nm);
+        Map<String, Bitmap> icons = peekIcons();
+        Set<String> missingIcons = new HashSet<>();
+        long now = System.currentTimeMillis();
+
+        ArrayDeque<Notification> toPost = new ArrayDeque<>();
+        ArrayDeque<String> tags = new ArrayDeque<>();
+        ArrayDeque<Batch> batches = new ArrayDeque<>();
+        Notification summary = null;
+        PendingIntent pi = launchIntent();
+
+        synchronized (this) {
+            flushScheduled = false;
+            for (Iterator<ChatState> it = chats.values().iterator(); it.hasNext(); ) {
+                ChatState st = it.next();
+                String tag = TAG_PREFIX + st.key;
+                if (active != null && !active.contains(tag)) {
+                    if (!st.dirty) {
+                        // 用户已划掉/点开：丢弃状态
+                        it.remove();
+                        continue;
+                    }
+                    // 上一条通知已不在通知栏：只保留本批新消息，避免把看过的旧消息再带出来
+                    while (st.lines.size() > st.fresh) st.lines.removeFirst();
+                    st.count = st.fresh;
+                }
+                if (!st.dirty) continue;
+                long[] t = new long[st.fresh];
+                for (int i = 0; i < t.length; i++) {
+                    Long v = st.pendingTimes.pollFirst();
+                    t[i] = v == null ? -1L : v;
+                }
+                st.pendingTimes.clear();
+                // 新消息是 lines 末尾的 fresh 行（超出 MAX_LINES_PER_CHAT 的更早部分已经不在了）
+                List<String> freshLines = new ArrayList<>(st.lines).subList(Math.max(0, st.lines.size() - st.fresh), st.lines.size());
+                st.dirty = false;
+                st.fresh = 0;
+                Bitmap icon = st.avatarUrl == null ? null : icons.get(st.avatarUrl);
+                st.iconPending = st.avatarUrl != null && icon == null;
+                if (st.iconPending) missingIcons.add(st.avatarUrl);
+                st.postedAt = now;
+                toPost.addLast(buildChat(st, pi, icon, false));
+                tags.addLast(tag);
+                batches.addLast(new Batch(st.key, st.title, st.avatarUrl, freshLines, t));
+            }
+            if (!toPost.isEmpty() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                summary = buildSummary(pi);
+            }
+        }
+
+        if (nm == null || toPost.isEmpty()) return;
+        try {
+            while (!toPost.isEmpty()) {
+                nm.notify(tags.peekFirst(), CHAT_NOTIFICATION_ID, toPost.peekFirst());
+                tags.removeFirst();
+                toPost.removeFirst();
+                for (long t : batches.removeFirst().times) NotifyStats.onMessageRendered(t);
+            }
+            if (summary != null) nm.notify(SUMMARY_NOTIFICATION_ID, summary);
+            if (callback != null) callback.onRendered();
+        } catch (Throwable e) {
+            // 抛异常的这一条和之后的都没有发出：从会话状态里撤回，由待发箱负责补发
+            rollBack(batches);
+            if (callback != null) {
+                try {
+                    callback.onNotifyError(e);
+                    for (Batch b : batches) callback.onUndelivered(b.key, b.title, b.avatarUrl, b.lines, b.times);
+                } catch (Throwable ignored) {
+                }
+            }
+        }
+        // 通知发出之后再登记：头像若已在这期间加载好会立即回调，补发时通知已在通知栏里
+        for (String url : missingIcons) {
+            NotifyStats.onAvatarDeferred();
+            try {
+                AvatarCache.get(context).prefetch(url, iconListener);
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    /**
+     * 撤回没有发出的批次：去掉它们在会话状态里的行与计数。发布期间新到的消息（fresh）排在这些行之后，保持不动。
+     */
+    private synchronized void rollBack(Collection<Batch> failed) {
+        for (Batch b : failed) {
+            ChatState st = chats.get(b.key);
+            if (st == null) continue;
+            List<String> kept = new ArrayList<>(st.lines);
+            int end = Math.max(0, kept.size() - st.fresh);
+            kept.subList(Math.max(0, end - b.lines.size()), end).clear();
+            st.lines.clear();
+            st.lines.addAll(kept);
+            st.count = Math.max(st.fresh, st.count - b.times.length);
+            st.iconPending = false;
+            if (!st.dirty && st.lines.isEmpty()) chats.remove(b.key);
+        }
+    }
+
+    /**
+     * 本批待发布会话的头像，只取内存中已有的；不等待加载。
+     */
+    private Map<String, Bitmap> peekIcons() {
+        Set<String> urls = new HashSet<>();
+        synchronized (this) {
+            for (ChatState st : chats.values()) {
+                if (st.dirty && st.avatarUrl != null) urls.add(st.avatarUrl);
+            }
+        }
+        Map<String, Bitmap> out = new HashMap<>();
+        if (urls.isEmpty()) return out;
+        try {
+            AvatarCache cache = AvatarCache.get(context);
+            for (String url : urls) {
+                Bitmap b = cache.peek(url);
+                if (b != null) out.put(url, b);
+            }
+        } catch (Throwable ignored) {
+        }
+        return out;
+    }
+
+    /**
+     * 头像加载完成：把先前不带头像发出、仍在通知栏中的会话通知原样带上大图标再发一次。
+     * 会话又有待发布的新消息时跳过，交给下一次 flush（那时头像已在内存中）。
+     */
+    private void repostWithIcon(String url, Bitmap icon) {
+        NotificationManager nm = notificationManager();
+        if (nm == null) return;
+        Set<String> active = activeChatTags(nm);
+        ArrayDeque<Notification> toPost = new ArrayDeque<>();
+        ArrayDeque<String> tags = new ArrayDeque<>();
+        PendingIntent pi = launchIntent();
+        synchronized (this) {
+            for (ChatState st : chats.values()) {
+                if (!st.iconPending || st.dirty || !url.equals(st.avatarUrl)) continue;
+                st.iconPending = false;
+                String tag = TAG_PREFIX + st.key;
+                if (active != null && !active.contains(tag)) continue;
+                toPost.addLast(buildChat(st, pi, icon, true));
+                tags.addLast(tag);
+            }
+        }
+        try {
+            while (!toPost.isEmpty()) {
+                nm.notify(tags.removeFirst(), CHAT_NOTIFICATION_ID, toPost.removeFirst());
+                NotifyStats.onAvatarReposted();
+            }
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private Notification buildChat(ChatState st, PendingIntent pi, Bitmap icon, boolean update) {
+        Notification.InboxStyle style = new Notification.InboxStyle().setBigContentTitle(st.title);
+        for (String line : st.lines) style.addLine(line);
+        if (st.count > st.lines.size()) {
+            style.setSummaryText("+" + (st.count - st.lines.size()) + " 条");
+        }
+
+        Notification.Builder b = newBuilder()
+                .setContentTitle(st.title)
+                .setContentText(st.lines.peekLast())
+                .setStyle(style)
+                .setNumber(st.count)
+                .setWhen(st.postedAt)
+                .setShowWhen(true)
+                .setCategory(Notification.CATEGORY_MESSAGE)
+                .setSmallIcon(android.R.drawable.stat_notify_chat)
+                .setAutoCancel(true);
+        if (icon != null) b.setLargeIcon(icon);
+        // 只补头像的更新不再响铃震动
+        if (update) b.setOnlyAlertOnce(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            b.setGroup(GROUP_KEY);
+        }
+        if (pi != null) b.setContentIntent(pi);
+        return b.build();
+    }
+
+    private Notification buildSummary(PendingIntent pi) {
+        Notification.InboxStyle style = new Notification.InboxStyle();
+        int total = 0;
+        int chatCount = 0;
+        for (ChatState st : chats.values()) {
+            String last = st.lines.peekLast();
+            style.addLine(st.title + ": " + (last == null ? "" : last));
+            total += st.count;
+            chatCount++;
+        }
+        String text = chatCount + " 个会话，" + total + " 条新消息";
+        style.setSummaryText(text);
+
+        Notification.Builder b = newBuilder()
+                .setContentTitle("Minechat")
+                .setContentText(text)
+                .setStyle(style)
+                .setSmallIcon(android.R.drawable.stat_notify_chat)
+                .setGroup(GROUP_KEY)
+                .setGroupSummary(true)
+                .setAutoCancel(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // 只让子通知提醒，摘要更新不重复震动
+            b.setGroupAlertBehavior(Notification.GROUP_ALERT_CHILDREN);
+        }
+        if (pi != null) b.setContentIntent(pi);
+        return b.build();
+    }
+
+    private Notification.Builder newBuilder() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return new Notification.Builder(context, channelId);
+        }
+        return new Notification.Builder(context);
+    }
+
+    private PendingIntent launchIntent() {
+        Intent launchIntent = null;
+        try {
+            PackageManager pm = context.getPackageManager();
+            launchIntent = pm.getLaunchIntentForPackage(context.getPackageName());
+        } catch (Throwable ignored) {
+        }
+        if (launchIntent == null) return null;
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) flags |= PendingIntent.FLAG_IMMUTABLE;
+        try {
+            return PendingIntent.getActivity(context, 0, launchIntent, flags);
+        } catch (Throwable ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * 当前仍在通知栏中的会话通知 tag；API 23 以下无法查询时返回 null（视为全部仍在）。
+     */
+    private Set<String> activeChatTags(NotificationManager nm) {
+        if (nm == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return null;
+        try {
+            StatusBarNotification[] list = nm.getActiveNotifications();
+            Set<String> out = new HashSet<>();
+            if (list == null) return out;
+            for (StatusBarNotification sbn : list) {
+                String tag = sbn.getTag();
+                if (tag != null && sbn.getId() == CHAT_NOTIFICATION_ID && tag.startsWith(TAG_PREFIX)) out.add(tag);
+            }
+            return out;
+        } catch (Throwable ignored) {
+            return null;
+        }
+    }
+
+    private NotificationManager notificationManager() {
+        try {
+            return (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        } catch (Throwable ignored) {
+            return null;
+        }
+    }
+
+    private static String chatKey(String chatId, String title) {
+        if (chatId != null && !chatId.isEmpty()) return chatId;
+        // 载荷缺少 chatId 时按标题归并
+        return "title:" + (title == null ? "" : title);
+    }
+}
@@ -0,0 +1,185 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * 附加账号（除 setNotifyToken 登录的主账号以外）的 accountId -> token，与 NotifyPrefs 存在同一个 SharedPreferences 里。
+ * <p>
+ * 附加账号不单独建连接：NotifySocketManager 在主连接上为每个账号打开一个 socket.io 命名空间
+ * {@code /account/<accountId>}，命名空间的 CONNECT 包带 {token} 认证。账号越多也只有一条物理连接、一次 TLS/WebSocket 握手。
+ * 每个账号的投递游标单独保存，命名空间连上后各自发 notify.resume。
+ */
+public final class NotifyAccounts {
+    public static final String KEY_ACCOUNTS = "notify.accounts";
+    private static final String KEY_CURSOR_PREFIX = "notify.accounts.cursor.";
+
+    // 命名空间名的一部分，只允许这些字符
+    private static final Pattern ACCOUNT_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    static final int MAX_ACCOUNTS = 8;
+
+    /**
+     * 账号列表变化回调。会在写入方线程（JS 模块线程）同步触发，实现方只应投递任务。
+     */
+    public interface Listener {
+        void onAccountsChanged(Map<String, String> accounts);
+    }
+
+    private static final Object LOCK = new Object();
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    // 不可变快照，按添加顺序
+    private static volatile Map<String, String> snapshot;
+    private static final ConcurrentHashMap<String, NotifyPrefs.Cursor> cursors = new ConcurrentHashMap<>();
+
+    private NotifyAccounts() {}
+
+    /**
+     * 返回 accountId -> token 的不可变快照；首次调用时从 SharedPreferences 加载。
+     */
+    public static Map<String, String> get(Context context) {
+        Map<String, String> m = snapshot;
+        if (m != null) return m;
+        synchronized (LOCK) {
+            if (snapshot == null) {
+                String raw = null;
+                try {
+                    raw = NotifyPrefs.prefs(context.getApplicationContext()).getString(KEY_ACCOUNTS, "");
+                } catch (Throwable ignored) {
+                }
+                snapshot = parse(raw);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 添加/更新附加账号；token 为空时移除。accountId 只能含字母、数字、_ 与 -（最长 64）。
+     * 账号数已达 {@link #MAX_ACCOUNTS} 或 accountId 非法时返回 false。
+     */
+    public static boolean set(Context context, String accountId, String token) {
+        String id = accountId == null ? "" : accountId.trim();
+        String t = token == null ? "" : token.trim();
+        if (!isValidId(id)) return false;
+        Map<String, String> next;
+        synchronized (LOCK) {
+            Map<String, String> current = get(context);
+            next = with(current, id, t);
+            if (next == null) return false;
+            if (next == current) return true;
+            snapshot = next;
+            try {
+                SharedPreferences.Editor editor = NotifyPrefs.prefs(context.getApplicationContext()).edit();
+                editor.putString(KEY_ACCOUNTS, new JSONObject(next).toString());
+                if (t.isEmpty()) {
+                    cursors.remove(id);
+                    editor.remove(KEY_CURSOR_PREFIX + id + ".messageId").remove(KEY_CURSOR_PREFIX + id + ".createdAt");
+                }
+                editor.apply();
+            } catch (Throwable ignored) {
+            }
+        }
+        for (Listener l : LISTENERS) {
+            try {
+                l.onAccountsChanged(next);
+            } catch (Throwable ignored) {
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 附加账号 ID 列表（JSON 数组文本），不含 token。
+     */
+    public static String getIdsJson(Context context) {
+        JSONArray out = new JSONArray();
+        for (String id : get(context).keySet()) out.put(id);
+        return out.toString();
+    }
+
+    public static void addListener(Listener listener) {
+        if (listener != null) LISTENERS.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    static NotifyPrefs.Cursor getCursor(Context context, String accountId) {
+        NotifyPrefs.Cursor c = cursors.get(accountId);
+        if (c != null) return c;
+        SharedPreferences p = NotifyPrefs.prefs(context.getApplicationContext());
+        c = new NotifyPrefs.Cursor(p.getString(KEY_CURSOR_PREFIX + accountId + ".messageId", ""),
+                p.getString(KEY_CURSOR_PREFIX + accountId + ".createdAt", ""));
+        cursors.put(accountId, c);
+        return c;
+    }
+
+    /**
+     * 推进某个附加账号的投递游标，规则同 {@link NotifyPrefs#setCursor}。
+     */
+    static void setCursor(Context context, String accountId, String messageId, String createdAt) {
+        NotifyPrefs.Cursor next = new NotifyPrefs.Cursor(messageId, createdAt);
+        // 账号已移除：消息可能还在分发队列里，不再为它写游标
+        if (next.isEmpty() || !get(context).containsKey(accountId)) return;
+        synchronized (cursors) {
+            if (!next.isAfter(getCursor(context, accountId))) return;
+            cursors.put(accountId, next);
+            NotifyPrefs.prefs(context).edit()
+                    .putString(KEY_CURSOR_PREFIX + accountId + ".messageId", next.messageId)
+                    .putString(KEY_CURSOR_PREFIX + accountId + ".createdAt", next.createdAt)
+                    .apply();
+        }
+    }
+
+    /**
+     * 解析 KEY_ACCOUNTS 里保存的 JSON：非法的 accountId、空 token 丢掉，最多保留 {@link #MAX_ACCOUNTS} 个。格式错误视为没有账号。
+     */
+    static Map<String, String> parse(String raw) {
+        LinkedHashMap<String, String> loaded = new LinkedHashMap<>();
+        try {
+            if (raw != null && !raw.isEmpty()) {
+                JSONObject o = new JSONObject(raw);
+                Iterator<String> keys = o.keys();
+                while (keys.hasNext() && loaded.size() < MAX_ACCOUNTS) {
+                    String id = keys.next();
+                    String token = o.optString(id, "").trim();
+                    if (isValidId(id) && !token.isEmpty()) loaded.put(id, token);
+                }
+            }
+        } catch (Throwable ignored) {
+        }
+        return Collections.unmodifiableMap(loaded);
+    }
+
+    /**
+     * current 添加/更新（token 非空）或移除（token 为空）一个账号后的快照。
+     * 没有变化时原样返回 current；accountId 非法或账号数已满时返回 null。
+     */
+    static Map<String, String> with(Map<String, String> current, String accountId, String token) {
+        if (!isValidId(accountId)) return null;
+        if (token.equals(current.get(accountId)) || (token.isEmpty() && !current.containsKey(accountId))) return current;
+        if (!token.isEmpty() && !current.containsKey(accountId) && current.size() >= MAX_ACCOUNTS) return null;
+        LinkedHashMap<String, String> m = new LinkedHashMap<>(current);
+        if (token.isEmpty()) {
+            m.remove(accountId);
+        } else {
+            m.put(accountId, token);
+        }
+        return Collections.unmodifiableMap(m);
+    }
+
+    private static boolean isValidId(String id) {
+        return id != null && ACCOUNT_ID.matcher(id).matches();
+    }
+}
@@ -0,0 +1,170 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 原生通知连接的状态机。当前状态是一个不可变的 {@link Snapshot}（状态、进入时间、序号），
+ * 每次转换用 compareAndSet 换掉整个快照，并按 {@link #canMove} 校验：例如新连接已经连上后才到的旧 disconnect、
+ * 已经停放后才到的 connect 都会被拒绝，不会覆盖新状态。
+ * <p>
+ * 读取只有一次 volatile 读，可在任意线程调用；转换成功后在转换方线程同步回调 {@link Listener}。
+ */
+public final class NotifyConnectionState {
+
+    public enum State {
+        INIT("init", null),
+        CONNECTING("connecting", "通知:连接中"),
+        CONNECTED("connected", "通知:已连接"),
+        DISCONNECTED("disconnected", "通知:已断开"),
+        CONNECT_ERROR("connect_error", "通知:连接失败"),
+        // 以下三个是连接正常、但投递失败时覆盖在 CONNECTED 上的状态
+        NO_PERMISSION("no_permission", "通知:无权限"),
+        NOTIFICATIONS_DISABLED("notifications_disabled", "通知:已关闭"),
+        NOTIFY_ERROR("notify_error", null),
+        DISABLED("disabled", "通知:未配置"),
+        WAITING_TOKEN("waiting_token", "通知:未登录"),
+        PARKED("parked", "通知:省电待收");
+
+        /** 发给 JS 的状态名（notify.state 的 payload），与早期版本的字符串状态相同。 */
+        public final String wireName;
+        /** 前台通知上显示的文字。 */
+        public final String statusText;
+
+        State(String wireName, String statusText) {
+            this.wireName = wireName;
+            this.statusText = statusText != null ? statusText : "通知:" + wireName;
+        }
+
+        boolean isDeliveryError() {
+            return this == NO_PERMISSION || this == NOTIFICATIONS_DISABLED || this == NOTIFY_ERROR;
+        }
+    }
+
+    public static final class Snapshot {
+        public final State state;
+        /** 进入该状态的时间（System.currentTimeMillis）。 */
+        public final long sinceMs;
+        /** 每次转换加一；回调可能在不同线程交错到达，监听方可据此丢弃过期的通知。 */
+        public final long seq;
+
+        Snapshot(State state, long sinceMs, long seq) {
+            this.state = state;
+            this.sinceMs = sinceMs;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * 状态转换回调。可能在 socket.io 的事件线程、分发线程或调用 refresh 的线程触发，实现方不要在回调里做耗时操作。
+     */
+    public interface Listener {
+        void onStateChanged(Snapshot from, Snapshot to);
+    }
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot(State.INIT, System.currentTimeMillis(), 0L));
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public Snapshot get() {
+        return current.get();
+    }
+
+    public void addListener(Listener listener) {
+        if (listener != null) listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 转换到 to。转换不合法或已经处于 to 时返回 null。
+     */
+    Snapshot moveTo(State to) {
+        for (;;) {
+            Snapshot cur = current.get();
+            if (cur.state == to || !canMove(cur.state, to)) return null;
+            Snapshot next = new Snapshot(to, System.currentTimeMillis(), cur.seq + 1);
+            if (current.compareAndSet(cur, next)) {
+                fire(cur, next);
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 只有当前快照仍是 expect 时才转换：调用方先读快照、再确认事件来自当前 socket，期间发生的任何转换都会让这次转换失败。
+     */
+    Snapshot moveFrom(Snapshot expect, State to) {
+        if (expect.state == to || !canMove(expect.state, to)) return null;
+        Snapshot next = new Snapshot(to, System.currentTimeMillis(), expect.seq + 1);
+        if (!current.compareAndSet(expect, next)) return null;
+        fire(expect, next);
+        return next;
+    }
+
+    /**
+     * 开始新的一轮（换 socket / 停放 / 停用）：即使状态相同也换一个新快照，让之前读到的快照在 {@link #moveFrom} 中失效。
+     * 状态没变时不回调监听方。
+     */
+    Snapshot restart(State to) {
+        for (;;) {
+            Snapshot cur = current.get();
+            if (cur.state != to && !canMove(cur.state, to)) return null;
+            Snapshot next = new Snapshot(to, cur.state == to ? cur.sinceMs : System.currentTimeMillis(), cur.seq + 1);
+            if (current.compareAndSet(cur, next)) {
+                if (cur.state != to) fire(cur, next);
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 投递恢复：从投递失败状态回到 CONNECTED，不在投递失败状态时返回 null。
+     * 投递失败状态只能经由这里撤掉，{@link #moveTo}(CONNECTED) 不会覆盖它们，例如健康检查不会把“无权限”刷成“已连接”。
+     *
+     * @param rendered true：通知确实发出去了，任何投递失败都撤掉；false：只是通知权限/开关恢复了，NOTIFY_ERROR 保留
+     */
+    Snapshot clearDeliveryError(boolean rendered) {
+        for (;;) {
+            Snapshot cur = current.get();
+            if (!cur.state.isDeliveryError() || (!rendered && cur.state == State.NOTIFY_ERROR)) return null;
+            Snapshot next = new Snapshot(State.CONNECTED, System.currentTimeMillis(), cur.seq + 1);
+            if (current.compareAndSet(cur, next)) {
+                fire(cur, next);
+                return next;
+            }
+        }
+    }
+
+    static boolean canMove(State from, State to) {
+        switch (to) {
+            case INIT:
+                return false;
+            case CONNECTED:
+                // 没有 ReconnectPolicy 时由 socket.io 自行重连，会从 DISCONNECTED/CONNECT_ERROR 直接连上；
+                // 投递失败状态只由 clearDeliveryError 撤掉
+                return from == State.CONNECTING || from == State.CONNECT_ERROR || from == State.DISCONNECTED;
+            case CONNECT_ERROR:
+                return from == State.CONNECTING || from == State.DISCONNECTED;
+            case DISCONNECTED:
+                return from == State.CONNECTED || from.isDeliveryError();
+            case NO_PERMISSION:
+            case NOTIFICATIONS_DISABLED:
+            case NOTIFY_ERROR:
+                return from == State.CONNECTED || from.isDeliveryError();
+            default:
+                // CONNECTING / DISABLED / WAITING_TOKEN / PARKED 由 refresh、park 主动发起，任何状态都可以进入
+                return true;
+        }
+    }
+
+    private void fire(Snapshot from, Snapshot to) {
+        for (Listener l : listeners) {
+            try {
+                l.onStateChanged(from, to);
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 最近已通知消息 ID 的去重表（进程内单例）。
+ * <p>
+ * 同一条消息可能经原生 socket、JS socket、UniPush 三条路径到达；任一路径在弹通知前调用 {@link #markSeen(String)}，
+ * 只有第一次返回 true 的路径负责展示。容量固定（LRU 淘汰最旧的 ID），并持久化到一个小文件，
+ * 进程被杀后重启也能识别重放的消息。写盘在后台线程合并进行（NotifyLineFile，每行一个 ID）。
+ */
+public final class NotifyDedupStore {
+    static final int CAPACITY = 1024;
+    private static final String FILE_NAME = "minechat_notify_dedup.txt";
+
+    private static volatile NotifyDedupStore instance;
+
+    private final LinkedHashMap<String, Boolean> ids = new LinkedHashMap<String, Boolean>(CAPACITY * 4 / 3 + 1, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private final NotifyLineFile store;
+
+    public static NotifyDedupStore get(Context context) {
+        NotifyDedupStore s = instance;
+        if (s != null) return s;
+        synchronized (NotifyDedupStore.class) {
+            if (instance == null) {
+                instance = new NotifyDedupStore(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            }
+            return instance;
+        }
+    }
+
+    NotifyDedupStore(File file) {
+        store = new NotifyLineFile(file, "minechat-notify-dedup", new NotifyLineFile.Source() {
+            @Override
+            public List<String> snapshotLines() {
+                synchronized (NotifyDedupStore.this) {
+                    return new ArrayList<>(ids.keySet());
+                }
+            }
+        });
+        List<String> lines = store.readLines();
+        synchronized (this) {
+            for (String line : lines) {
+                String id = normalize(line);
+                if (id != null) ids.put(id, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * 记录一条消息 ID。
+     *
+     * @return 第一次见到该 ID 时返回 true（调用方应展示通知）；重复或 ID 为空时分别返回 false / true
+     */
+    public boolean markSeen(String messageId) {
+        String id = normalize(messageId);
+        if (id == null) return true;
+        synchronized (this) {
+            if (ids.containsKey(id)) return false;
+            ids.put(id, Boolean.TRUE);
+        }
+        store.scheduleSave();
+        return true;
+    }
+
+    public synchronized boolean contains(String messageId) {
+        String id = normalize(messageId);
+        return id != null && ids.containsKey(id);
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    boolean awaitSaved(long timeoutMs) {
+        return store.awaitSaved(timeoutMs);
+    }
+
+    private static String normalize(String id) {
+        if (id == null) return null;
+        String v = id.trim();
+        // 换行会破坏按行存储的文件格式
+        if (v.isEmpty() || v.indexOf('\n') >= 0 || v.indexOf('\r') >= 0) return null;
+        return v;
+    }
+}
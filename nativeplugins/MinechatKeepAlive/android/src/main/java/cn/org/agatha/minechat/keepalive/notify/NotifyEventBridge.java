@@ -0,0 +1,103 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 原生通知 socket 与 JS 之间的进程内桥接，让 APP-PLUS 端只保留一条 /api/notify 连接。
+ * <p>
+ * KeepAliveService 把它持有的 {@link NotifySocketManager} 挂上来；uni 模块在 App 前台时注册 {@link Listener}，
+ * 原生 socket 收到的每个事件（以及连接状态变化，事件名 {@link #EVENT_STATE}）都转发给 JS，
+ * JS 也可以经由 {@link #emit(String, String)} 通过原生 socket 发事件。没有注册监听时转发路径只有一次 volatile 读。
+ */
+public final class NotifyEventBridge {
+    /** 连接状态变化，payload 为状态字符串（connected / connecting / disconnected ...）。 */
+    public static final String EVENT_STATE = "notify.state";
+
+    public interface Listener {
+        /**
+         * @param payloadJson 事件第一个参数的 JSON 文本（对象/数组/字符串/数字，无参数时为 "null"）
+         */
+        void onEvent(String event, String payloadJson);
+    }
+
+    private static volatile NotifySocketManager manager;
+    private static volatile Listener listener;
+
+    private NotifyEventBridge() {}
+
+    public static void attach(NotifySocketManager m) {
+        manager = m;
+    }
+
+    public static void detach(NotifySocketManager m) {
+        if (manager == m) manager = null;
+    }
+
+    /**
+     * 注册/取消 JS 转发（传 null 取消）。同一时刻只有一个监听者：后注册的页面实例替换之前的。
+     * 注册时先补发一次当前的 {@link #EVENT_STATE} 与已确认精简投影的连接（notify.format），JS 之后只需跟随变化，不必轮询。
+     */
+    public static void setListener(Listener l) {
+        listener = l;
+        NotifySocketManager m = manager;
+        if (l == null || m == null) return;
+        dispatch(EVENT_STATE, m.getState().state.wireName);
+        m.forwardFormats();
+    }
+
+    static boolean isForwarding() {
+        return listener != null;
+    }
+
+    static void dispatch(String event, Object payload) {
+        Listener l = listener;
+        if (l == null || event == null) return;
+        try {
+            l.onEvent(event, toJson(payload));
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * 补发待发箱中没能展示的消息通知（见 {@link NotifySocketManager#flushOutbox}）。常驻服务未运行时返回 0，
+     * 记录留在待发箱里，服务下次成功展示消息时一并补发。
+     */
+    public static int flushOutbox(Context context) {
+        NotifySocketManager m = manager;
+        if (m == null) return 0;
+        return m.flushOutbox(context);
+    }
+
+    /**
+     * 通过原生 socket 发送事件。
+     *
+     * @param payloadJson JSON 文本；不是合法的对象/数组时按原始字符串发送
+     * @return socket 未连接时返回 false，调用方可自行重试或退回 HTTP
+     */
+    public static boolean emit(String event, String payloadJson) {
+        NotifySocketManager m = manager;
+        if (m == null || event == null || event.isEmpty()) return false;
+        return m.emit(event, fromJson(payloadJson));
+    }
+
+    private static String toJson(Object payload) {
+        if (payload == null || payload == JSONObject.NULL) return "null";
+        if (payload instanceof JSONObject || payload instanceof JSONArray) return payload.toString();
+        if (payload instanceof Number || payload instanceof Boolean) return String.valueOf(payload);
+        return JSONObject.quote(String.valueOf(payload));
+    }
+
+    private static Object fromJson(String json) {
+        if (json == null) return null;
+        String s = json.trim();
+        try {
+            if (s.startsWith("{")) return new JSONObject(s);
+            if (s.startsWith("[")) return new JSONArray(s);
+        } catch (Throwable ignored) {
+        }
+        return json;
+    }
+}
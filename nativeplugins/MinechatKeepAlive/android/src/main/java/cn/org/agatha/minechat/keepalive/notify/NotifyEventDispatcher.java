@@ -0,0 +1,218 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务端事件的分发队列：socket.io 事件线程只做一次入队，解码和处理在单独的分发线程上进行。
+ * <p>
+ * 所有事件共用一个 FIFO（保持跨事件的先后顺序，例如先收到消息再收到已读），
+ * 但每种事件各有待处理上限：超出时按该事件的 {@link Overflow} 丢弃最新或最旧的一条并计数，
+ * 因此某个处理器变慢只会让它自己的事件被丢弃，不会让队列无限增长，也不会拖住心跳。
+ * 丢弃的事件交给 {@link DropListener}，调用方可据此补救（例如消息被丢弃后重新请求补发）。
+ */
+final class NotifyEventDispatcher {
+    enum Overflow {
+        /** 丢弃新到的事件（适合按顺序都有意义、宁可丢尾的事件）。 */
+        DROP_NEWEST,
+        /** 丢弃排队最久的同类事件（适合只有最新状态有意义的事件）。 */
+        DROP_OLDEST
+    }
+
+    /**
+     * 事件因超出上限被丢弃。在入队方（socket.io 事件）线程上回调，不持有队列锁，实现方只应记录或投递任务。
+     */
+    interface DropListener {
+        void onDropped(String event, Object payload);
+    }
+
+    private static final class Binding<T> {
+        final String event;
+        final NotifyEventHandler<T> handler;
+        final int capacity;
+        final Overflow overflow;
+        // pending 在 dispatcher 上加锁访问
+        int pending;
+        final AtomicLong handled = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        Binding(String event, NotifyEventHandler<T> handler, int capacity, Overflow overflow) {
+            this.event = event;
+            this.handler = handler;
+            this.capacity = capacity;
+            this.overflow = overflow;
+        }
+
+        void run(Object payload) {
+            T decoded = handler.decode(payload);
+            if (decoded != null) handler.handle(decoded);
+        }
+    }
+
+    private static final class Item {
+        final Binding<?> binding;
+        final Object payload;
+
+        Item(Binding<?> binding, Object payload) {
+            this.binding = binding;
+            this.payload = payload;
+        }
+    }
+
+    private final String threadName;
+    private final Map<String, Binding<?>> bindings = new ConcurrentHashMap<>();
+    private volatile DropListener dropListener;
+
+    // 以下字段均在 this 上加锁访问
+    private final ArrayDeque<Item> queue = new ArrayDeque<>();
+    private Thread worker;
+    private boolean shutdown;
+
+    NotifyEventDispatcher(String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     * 注册（或替换）某个事件的处理器。
+     */
+    <T> void register(String event, int capacity, Overflow overflow, NotifyEventHandler<T> handler) {
+        if (event == null || event.isEmpty() || handler == null) return;
+        bindings.put(event, new Binding<>(event, handler, Math.max(1, capacity), overflow != null ? overflow : Overflow.DROP_NEWEST));
+    }
+
+    void setDropListener(DropListener listener) {
+        dropListener = listener;
+    }
+
+    List<String> events() {
+        return new ArrayList<>(bindings.keySet());
+    }
+
+    boolean isRegistered(String event) {
+        return event != null && bindings.containsKey(event);
+    }
+
+    /**
+     * 入队一个事件；可在任意线程调用，不会阻塞。
+     *
+     * @return false 表示没有对应处理器或事件被丢弃
+     */
+    boolean offer(String event, Object payload) {
+        Binding<?> b = event != null ? bindings.get(event) : null;
+        if (b == null) return false;
+        boolean accepted = true;
+        Object dropped = null;
+        boolean overflowed = false;
+        synchronized (this) {
+            if (shutdown) return false;
+            if (b.pending >= b.capacity) {
+                b.dropped.incrementAndGet();
+                overflowed = true;
+                if (b.overflow == Overflow.DROP_NEWEST) {
+                    accepted = false;
+                    dropped = payload;
+                } else {
+                    dropped = removeOldestLocked(b);
+                }
+            }
+            if (accepted) {
+                queue.addLast(new Item(b, payload));
+                b.pending++;
+                ensureWorkerLocked();
+                notifyAll();
+            }
+        }
+        DropListener l = dropListener;
+        if (overflowed && l != null) {
+            try {
+                l.onDropped(event, dropped);
+            } catch (Throwable ignored) {
+            }
+        }
+        return accepted;
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            for (Item item : queue) item.binding.pending = 0;
+            queue.clear();
+            notifyAll();
+        }
+    }
+
+    JSONObject toJson() throws Exception {
+        JSONObject out = new JSONObject();
+        for (Binding<?> b : bindings.values()) {
+            JSONObject o = new JSONObject();
+            synchronized (this) {
+                o.put("pending", b.pending);
+            }
+            o.put("capacity", b.capacity);
+            o.put("handled", b.handled.get());
+            o.put("dropped", b.dropped.get());
+            o.put("failed", b.failed.get());
+            out.put(b.event, o);
+        }
+        return out;
+    }
+
+    // 返回被移除事件的载荷
+    private Object removeOldestLocked(Binding<?> b) {
+        for (Iterator<Item> it = queue.iterator(); it.hasNext(); ) {
+            Item item = it.next();
+            if (item.binding == b) {
+                it.remove();
+                b.pending--;
+                return item.payload;
+            }
+        }
+        return null;
+    }
+
+    private void ensureWorkerLocked() {
+        if (worker != null) return;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void loop() {
+        while (true) {
+            Item item;
+            synchronized (this) {
+                while (queue.isEmpty() && !shutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                if (shutdown) {
+                    worker = null;
+                    return;
+                }
+                item = queue.removeFirst();
+                item.binding.pending--;
+            }
+            try {
+                item.binding.run(item.payload);
+                item.binding.handled.incrementAndGet();
+            } catch (Throwable ignored) {
+                item.binding.failed.incrementAndGet();
+            }
+        }
+    }
+}
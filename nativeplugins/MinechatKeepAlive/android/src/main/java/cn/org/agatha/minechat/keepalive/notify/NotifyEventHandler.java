@@ -0,0 +1,16 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+/**
+ * 服务端事件处理器，见 {@link NotifySocketManager#registerHandler}。
+ * 两个方法都在分发线程上执行，不占用 socket.io 的事件线程（心跳与收包都在那条线程上）。
+ *
+ * @param <T> 解码后的事件类型
+ */
+public interface NotifyEventHandler<T> {
+    /**
+     * 把 socket.io 收到的原始参数（JSONObject / JSONArray / String ...）转成事件对象；返回 null 表示忽略。
+     */
+    T decode(Object payload);
+
+    void handle(T event);
+}
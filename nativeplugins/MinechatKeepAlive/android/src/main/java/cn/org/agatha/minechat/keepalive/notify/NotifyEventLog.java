@@ -0,0 +1,174 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 诊断事件日志：固定大小的内存映射环形文件。
+ * <p>
+ * 文件由 {@link #SLOTS} 个定长槽组成，第 seq 条写入第 seq % SLOTS 个槽，写满后覆盖最旧的记录。
+ * 追加只是一次 UTF-8 编码加内存拷贝，不做序列化、不同步刷盘（脏页由系统回写，进程被杀也不丢）。
+ * 原生侧（NotifySocketManager / KeepAliveService）与 JS 侧（notify.js 的 logDebug）写同一份日志，按 seq 分页读取。
+ */
+public final class NotifyEventLog {
+    public static final String SOURCE_NATIVE = "native";
+    public static final String SOURCE_JS = "js";
+
+    static final int SLOTS = 512;
+    static final int SLOT_SIZE = 256;
+    static final int MAX_READ = 200;
+
+    private static final String FILE_NAME = "minechat_notify_events.log";
+    private static final int MAGIC = 0x4d434c31; // "MCL1"
+    private static final int HEADER_SIZE = 16;
+    // 槽内布局：seq(8) time(8) srcLen(1) msgLen(2) src msg
+    private static final int SLOT_HEADER = 19;
+    private static final int MAX_SOURCE_BYTES = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile NotifyEventLog instance;
+
+    private final MappedByteBuffer buf;
+    private long nextSeq;
+
+    public static NotifyEventLog get(Context context) {
+        NotifyEventLog l = instance;
+        if (l != null) return l;
+        synchronized (NotifyEventLog.class) {
+            if (instance == null) {
+                instance = open(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * 原生侧打点：日志尚未初始化（还没有任何地方拿到 Context）时直接忽略。
+     */
+    public static void log(String message) {
+        NotifyEventLog l = instance;
+        if (l == null) return;
+        l.append(SOURCE_NATIVE, message);
+    }
+
+    private static NotifyEventLog open(File file) {
+        RandomAccessFile raf = null;
+        try {
+            long size = HEADER_SIZE + (long) SLOTS * SLOT_SIZE;
+            raf = new RandomAccessFile(file, "rw");
+            boolean fresh = raf.length() != size;
+            if (fresh) raf.setLength(size);
+            // 映射建立后即可关闭文件，映射本身保持有效
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new NotifyEventLog(buf, fresh);
+        } catch (Throwable ignored) {
+            return null;
+        } finally {
+            try {
+                if (raf != null) raf.close();
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    private NotifyEventLog(MappedByteBuffer buf, boolean fresh) {
+        this.buf = buf;
+        if (fresh || buf.getInt(0) != MAGIC) {
+            reset();
+        } else {
+            nextSeq = Math.max(0L, buf.getLong(8));
+        }
+    }
+
+    public synchronized void append(String source, String message) {
+        try {
+            byte[] src = truncate((source == null ? "" : source).getBytes(UTF_8), MAX_SOURCE_BYTES);
+            byte[] msg = truncate((message == null ? "" : message).getBytes(UTF_8), SLOT_SIZE - SLOT_HEADER - src.length);
+            long seq = nextSeq++;
+            int off = slotOffset(seq);
+            buf.putLong(off, seq);
+            buf.putLong(off + 8, System.currentTimeMillis());
+            buf.put(off + 16, (byte) src.length);
+            buf.putShort(off + 17, (short) msg.length);
+            for (int i = 0; i < src.length; i++) buf.put(off + SLOT_HEADER + i, src[i]);
+            int m = off + SLOT_HEADER + src.length;
+            for (int i = 0; i < msg.length; i++) buf.put(m + i, msg[i]);
+            buf.putLong(8, nextSeq);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * 读取 seq 大于 afterSeq 的记录（从旧到新，最多 limit 条）。afterSeq 传 -1 表示从仍保留的最旧记录开始。
+     *
+     * @return {"entries":[{seq,t,src,msg}...],"nextSeq":n}；下一页把最后一条的 seq 作为 afterSeq
+     */
+    public synchronized String read(long afterSeq, int limit) {
+        try {
+            int max = limit <= 0 ? MAX_READ : Math.min(limit, MAX_READ);
+            long from = Math.max(afterSeq + 1, Math.max(0L, nextSeq - SLOTS));
+            JSONArray entries = new JSONArray();
+            for (long seq = from; seq < nextSeq && entries.length() < max; seq++) {
+                int off = slotOffset(seq);
+                if (buf.getLong(off) != seq) continue;
+                int srcLen = buf.get(off + 16) & 0xff;
+                int msgLen = buf.getShort(off + 17) & 0xffff;
+                if (SLOT_HEADER + srcLen + msgLen > SLOT_SIZE) continue;
+                byte[] src = new byte[srcLen];
+                byte[] msg = new byte[msgLen];
+                for (int i = 0; i < srcLen; i++) src[i] = buf.get(off + SLOT_HEADER + i);
+                int m = off + SLOT_HEADER + srcLen;
+                for (int i = 0; i < msgLen; i++) msg[i] = buf.get(m + i);
+
+                JSONObject e = new JSONObject();
+                e.put("seq", seq);
+                e.put("t", buf.getLong(off + 8));
+                e.put("src", new String(src, UTF_8));
+                e.put("msg", new String(msg, UTF_8));
+                entries.put(e);
+            }
+            JSONObject out = new JSONObject();
+            out.put("entries", entries);
+            out.put("nextSeq", nextSeq);
+            return out.toString();
+        } catch (Throwable ignored) {
+            return "{\"entries\":[],\"nextSeq\":0}";
+        }
+    }
+
+    public synchronized void clear() {
+        reset();
+    }
+
+    private void reset() {
+        for (int i = 0; i < HEADER_SIZE + SLOTS * SLOT_SIZE; i += 8) buf.putLong(i, 0L);
+        // 清零后槽里的 seq 都是 0，用 -1 标记空槽，避免被当成第 0 条
+        for (int s = 0; s < SLOTS; s++) buf.putLong(HEADER_SIZE + s * SLOT_SIZE, -1L);
+        buf.putInt(0, MAGIC);
+        nextSeq = 0L;
+        buf.putLong(8, 0L);
+    }
+
+    private static int slotOffset(long seq) {
+        return HEADER_SIZE + (int) (seq % SLOTS) * SLOT_SIZE;
+    }
+
+    // 截断到 max 字节，并回退到完整的 UTF-8 字符边界
+    private static byte[] truncate(byte[] bytes, int max) {
+        if (max < 0) max = 0;
+        if (bytes.length <= max) return bytes;
+        int end = max;
+        while (end > 0 && (bytes[end] & 0xc0) == 0x80) end--;
+        byte[] out = new byte[end];
+        System.arraycopy(bytes, 0, out, 0, end);
+        return out;
+    }
+}
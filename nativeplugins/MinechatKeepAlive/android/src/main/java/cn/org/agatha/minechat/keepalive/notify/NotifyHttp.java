@@ -0,0 +1,280 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.security.KeyStore;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+
+/**
+ * 通知 socket（常驻服务与补收任务）和头像下载共用的 OkHttpClient。
+ * <p>
+ * 整个进程只有一个客户端，因此也只有一个 SSLContext：重连时用缓存的 TLS 会话做简短握手，省掉一次证书交换与密钥协商；
+ * DNS 结果在重连之间缓存，网络切换后改为优先重新解析。WebSocket 调用不走 OkHttp 的 EventListener，
+ * 握手各阶段耗时在 Dns / SocketFactory / SSLSocketFactory 这一层记录，见 getNotifyStats 的 transport。
+ */
+final class NotifyHttp {
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    // 对 WebSocket 只作用于升级响应，连上后 OkHttp 会取消读超时，断线由 engine.io 心跳判断
+    private static final int READ_TIMEOUT_MS = 20_000;
+    private static final int WRITE_TIMEOUT_MS = 10_000;
+    // engine.io 自带心跳（服务端 pingInterval + pingTimeout），再叠加 WebSocket ping 只会多唤醒无线模块，显式关闭
+    private static final int WS_PING_INTERVAL_MS = 0;
+    // 空闲连接只给头像等短请求复用；WebSocket 连接不进连接池
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MS = 5 * 60_000;
+    private static final int TLS_SESSION_CACHE_SIZE = 32;
+    private static final int TLS_SESSION_TIMEOUT_S = 12 * 3600;
+    private static final long DNS_TTL_MS = 10 * 60_000;
+    private static final int DNS_MAX_HOSTS = 16;
+
+    private static volatile OkHttpClient client;
+    private static final CachingDns dns = new CachingDns();
+
+    private NotifyHttp() {}
+
+    static OkHttpClient client() {
+        OkHttpClient c = client;
+        if (c != null) return c;
+        synchronized (NotifyHttp.class) {
+            if (client == null) client = build();
+            return client;
+        }
+    }
+
+    /**
+     * 冷启动预热（在后台线程调用）：建好共用客户端，并把通知服务器的地址解析进 DNS 缓存，首次连接不再等这两步。
+     */
+    static void prewarm(String url) {
+        client();
+        try {
+            String host = url == null || url.isEmpty() ? null : new URI(url).getHost();
+            if (host != null) dns.lookup(host);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * 切换到新网络：缓存的地址可能只在旧网络上可达，之后的连接先重新解析，解析失败时才退回旧结果。
+     */
+    static void onNetworkChanged() {
+        dns.markStale();
+    }
+
+    private static OkHttpClient build() {
+        OkHttpClient.Builder b = new OkHttpClient.Builder()
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .writeTimeout(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .pingInterval(WS_PING_INTERVAL_MS, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS))
+                .dns(dns)
+                .socketFactory(new TimedSocketFactory());
+        try {
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init((KeyStore) null);
+            X509TrustManager tm = null;
+            for (TrustManager t : tmf.getTrustManagers()) {
+                if (t instanceof X509TrustManager) {
+                    tm = (X509TrustManager) t;
+                    break;
+                }
+            }
+            if (tm != null) {
+                SSLContext ctx = SSLContext.getInstance("TLS");
+                ctx.init(null, new TrustManager[]{tm}, null);
+                SSLSessionContext sessions = ctx.getClientSessionContext();
+                if (sessions != null) {
+                    sessions.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+                    sessions.setSessionTimeout(TLS_SESSION_TIMEOUT_S);
+                }
+                b.sslSocketFactory(new TimedSslSocketFactory(ctx.getSocketFactory()), tm);
+            }
+        } catch (Throwable ignored) {
+            // 退回 OkHttp 默认的 TLS 配置：同一客户端内照样复用会话，只是没有握手计时
+        }
+        return b.build();
+    }
+
+    /** 按主机缓存解析结果；过期或网络切换后重新解析，解析失败时用旧结果兜底。 */
+    private static final class CachingDns implements Dns {
+        private static final class Entry {
+            final List<InetAddress> addresses;
+            final long resolvedAt;
+            final boolean stale;
+
+            Entry(List<InetAddress> addresses, long resolvedAt, boolean stale) {
+                this.addresses = addresses;
+                this.resolvedAt = resolvedAt;
+                this.stale = stale;
+            }
+        }
+
+        // 在 this 上加锁访问
+        private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > DNS_MAX_HOSTS;
+            }
+        };
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            Entry e;
+            synchronized (this) {
+                e = cache.get(hostname);
+            }
+            long start = SystemClock.elapsedRealtime();
+            if (e != null && !e.stale && start - e.resolvedAt < DNS_TTL_MS) {
+                NotifyStats.onDnsCacheHit();
+                return e.addresses;
+            }
+            try {
+                List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+                long now = SystemClock.elapsedRealtime();
+                NotifyStats.onDnsLookup(now - start);
+                synchronized (this) {
+                    cache.put(hostname, new Entry(addresses, now, false));
+                }
+                return addresses;
+            } catch (UnknownHostException ex) {
+                if (e == null) throw ex;
+                // 刚切换网络时 DNS 往往还没就绪：先用旧地址试，连不上再交给重连策略
+                NotifyStats.onDnsStaleFallback();
+                return e.addresses;
+            }
+        }
+
+        synchronized void markStale() {
+            for (Map.Entry<String, Entry> me : cache.entrySet()) {
+                Entry e = me.getValue();
+                me.setValue(new Entry(e.addresses, e.resolvedAt, true));
+            }
+        }
+    }
+
+    /** 记录 TCP 建连耗时。 */
+    private static final class TimedSocketFactory extends SocketFactory {
+        private final SocketFactory delegate = SocketFactory.getDefault();
+
+        @Override
+        public Socket createSocket() {
+            return new Socket() {
+                @Override
+                public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                    long start = SystemClock.elapsedRealtime();
+                    super.connect(endpoint, timeout);
+                    NotifyStats.onTcpConnected(SystemClock.elapsedRealtime() - start);
+                }
+            };
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+
+    /**
+     * 记录 TLS 握手耗时，并区分完整握手与会话恢复（恢复的会话沿用最初的创建时间）。
+     * OkHttp 包装好 TCP 连接后会立即开始握手，因此从 createSocket 算起。
+     */
+    private static final class TimedSslSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+
+        TimedSslSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        private static Socket timed(Socket s) {
+            if (!(s instanceof SSLSocket)) return s;
+            final long startWall = System.currentTimeMillis();
+            final long start = SystemClock.elapsedRealtime();
+            ((SSLSocket) s).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                @Override
+                public void handshakeCompleted(HandshakeCompletedEvent event) {
+                    boolean resumed = false;
+                    try {
+                        resumed = event.getSession().getCreationTime() < startWall;
+                    } catch (Throwable ignored) {
+                    }
+                    NotifyStats.onTlsHandshake(SystemClock.elapsedRealtime() - start, resumed);
+                }
+            });
+            return s;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return timed(delegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return timed(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return timed(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return timed(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return timed(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
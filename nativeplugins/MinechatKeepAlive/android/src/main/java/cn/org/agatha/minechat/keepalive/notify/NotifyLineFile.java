@@ -0,0 +1,146 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 每行一条记录的小文件（NotifyDedupStore、NotifyOutbox 共用）：创建时由持有方同步读入，
+ * 之后的修改只调 {@link #scheduleSave}，在后台线程合并成一次整文件写入。
+ * <p>
+ * 写入时先写临时文件再改名，避免进程中途被杀留下半个文件；没有记录时直接删除文件。
+ */
+final class NotifyLineFile {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 提供要写入的全部行。在写盘线程调用，实现方自行加锁取快照；行内不能含换行。
+     */
+    interface Source {
+        List<String> snapshotLines();
+    }
+
+    private final File file;
+    private final Source source;
+    private final ExecutorService io;
+    // 已排队、尚未取快照的写盘任务；取快照前清掉，之后的修改会再排一次
+    private final AtomicBoolean saveQueued = new AtomicBoolean();
+
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            saveQueued.set(false);
+            List<String> lines;
+            try {
+                lines = source.snapshotLines();
+            } catch (Throwable ignored) {
+                return;
+            }
+            write(lines);
+        }
+    };
+
+    NotifyLineFile(File file, final String threadName, Source source) {
+        this.file = file;
+        this.source = source;
+        this.io = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * 读出全部非空行；文件不存在或读到一半出错时返回已读到的部分。
+     */
+    List<String> readLines() {
+        List<String> out = new ArrayList<>();
+        if (!file.exists()) return out;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) out.add(line);
+            }
+        } catch (Throwable ignored) {
+        } finally {
+            try {
+                if (reader != null) reader.close();
+            } catch (Throwable ignored) {
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 记录已变化：排一次写盘，已有未执行的写盘时直接返回。可在任意线程调用。
+     */
+    void scheduleSave() {
+        if (!saveQueued.compareAndSet(false, true)) return;
+        try {
+            io.execute(saveTask);
+        } catch (Throwable ignored) {
+            saveQueued.set(false);
+        }
+    }
+
+    /**
+     * 等到此前排队的写盘都执行完；超时或被中断返回 false。
+     */
+    boolean awaitSaved(long timeoutMs) {
+        try {
+            io.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (Throwable ignored) {
+            return false;
+        }
+    }
+
+    private void write(List<String> lines) {
+        if (lines.isEmpty()) {
+            file.delete();
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF_8));
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (Throwable ignored) {
+        } finally {
+            try {
+                if (writer != null) writer.close();
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.content.Context;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 没能展示的消息通知（缺少通知权限、通知被关闭、NotificationManager 抛异常）的待发箱（进程内单例）。
+ * <p>
+ * 每条消息存一条精简记录（会话、标题、截断后的正文、头像 URL、时间），条数超过 {@link #CAPACITY} 时淘汰最旧的，
+ * 超过 {@link #MAX_AGE_MS} 的记录在读写时丢弃。通知恢复可用后由 NotifySocketManager#flushOutbox 一次取出，
+ * 经 ChatNotificationAggregator 合并为每个会话一条通知。持久化同 {@link NotifyDedupStore} 用 NotifyLineFile：每行一条 JSON，后台线程合并写盘。
+ */
+public final class NotifyOutbox {
+    static final int CAPACITY = 200;
+    static final long MAX_AGE_MS = 48 * 3600_000L;
+    private static final String FILE_NAME = "minechat_notify_outbox.txt";
+
+    static final class Record {
+        final String chatId;
+        final String title;
+        final String body;
+        final String avatarUrl;
+        final long serverTimeMs;
+        final long storedAt;
+
+        Record(String chatId, String title, String body, String avatarUrl, long serverTimeMs, long storedAt) {
+            this.chatId = chatId;
+            this.title = title;
+            this.body = body;
+            this.avatarUrl = avatarUrl;
+            this.serverTimeMs = serverTimeMs;
+            this.storedAt = storedAt;
+        }
+
+        String toLine() throws Exception {
+            JSONObject o = new JSONObject();
+            if (chatId != null) o.put("c", chatId);
+            o.put("n", title);
+            o.put("b", body);
+            if (avatarUrl != null) o.put("u", avatarUrl);
+            if (serverTimeMs > 0) o.put("s", serverTimeMs);
+            o.put("t", storedAt);
+            return o.toString();
+        }
+
+        static Record fromLine(String line) throws Exception {
+            JSONObject o = new JSONObject(line);
+            return new Record(o.has("c") ? o.optString("c") : null, o.optString("n", NotifyPayloadParser.DEFAULT_TITLE),
+                    o.optString("b", ""), o.has("u") ? o.optString("u") : null, o.optLong("s", -1L), o.optLong("t", 0L));
+        }
+    }
+
+    private static volatile NotifyOutbox instance;
+
+    // 按存入顺序，最旧的在队首；在 this 上加锁访问
+    private final ArrayDeque<Record> records = new ArrayDeque<>();
+    // 供投递路径无锁判断是否需要尝试补发
+    private volatile int size;
+
+    private final NotifyLineFile store;
+
+    public static NotifyOutbox get(Context context) {
+        NotifyOutbox o = instance;
+        if (o != null) return o;
+        synchronized (NotifyOutbox.class) {
+            if (instance == null) {
+                instance = new NotifyOutbox(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            }
+            return instance;
+        }
+    }
+
+    /** 已加载的待发箱中的记录数；尚未加载时为 0。 */
+    static int pendingCount() {
+        NotifyOutbox o = instance;
+        return o == null ? 0 : o.size;
+    }
+
+    NotifyOutbox(File file) {
+        store = new NotifyLineFile(file, "minechat-notify-outbox", new NotifyLineFile.Source() {
+            @Override
+            public List<String> snapshotLines() {
+                List<Record> snapshot;
+                synchronized (NotifyOutbox.this) {
+                    snapshot = new ArrayList<>(records);
+                }
+                List<String> lines = new ArrayList<>(snapshot.size());
+                for (Record r : snapshot) {
+                    try {
+                        // JSONObject 会转义换行，一条记录始终占一行
+                        lines.add(r.toLine());
+                    } catch (Throwable ignored) {
+                    }
+                }
+                return lines;
+            }
+        });
+        long now = System.currentTimeMillis();
+        List<String> lines = store.readLines();
+        synchronized (this) {
+            for (String line : lines) {
+                try {
+                    Record r = Record.fromLine(line);
+                    if (now - r.storedAt <= MAX_AGE_MS) records.addLast(r);
+                } catch (Throwable ignored) {
+                }
+            }
+            while (records.size() > CAPACITY) records.removeFirst();
+            size = records.size();
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void add(String chatId, String title, String body, String avatarUrl, long serverTimeMs) {
+        // 正文已在解析时截断（NotifyPayloadParser#MAX_BODY_CHARS），这里不再处理
+        long now = System.currentTimeMillis();
+        Record r = new Record(chatId, title == null ? NotifyPayloadParser.DEFAULT_TITLE : title,
+                body == null ? "" : body, avatarUrl, serverTimeMs, now);
+        int evicted = 0;
+        synchronized (this) {
+            evicted += expire(now);
+            records.addLast(r);
+            while (records.size() > CAPACITY) {
+                records.removeFirst();
+                evicted++;
+            }
+            size = records.size();
+        }
+        NotifyStats.onOutboxStored(evicted);
+        store.scheduleSave();
+    }
+
+    /**
+     * 取出全部未过期的记录并清空待发箱。
+     */
+    List<Record> drain() {
+        List<Record> out;
+        int expired;
+        synchronized (this) {
+            if (records.isEmpty()) return new ArrayList<>();
+            expired = expire(System.currentTimeMillis());
+            out = new ArrayList<>(records);
+            records.clear();
+            size = 0;
+        }
+        NotifyStats.onOutboxExpired(expired);
+        store.scheduleSave();
+        return out;
+    }
+
+    /**
+     * 会话已读或被设为免打扰：它的待发记录不再需要。
+     */
+    void removeChat(String chatId) {
+        if (chatId == null || size == 0) return;
+        boolean changed = false;
+        synchronized (this) {
+            for (Iterator<Record> it = records.iterator(); it.hasNext(); ) {
+                if (chatId.equals(it.next().chatId)) {
+                    it.remove();
+                    changed = true;
+                }
+            }
+            size = records.size();
+        }
+        if (changed) store.scheduleSave();
+    }
+
+    // 调用方持有 this 的锁
+    private int expire(long now) {
+        int n = 0;
+        while (!records.isEmpty() && now - records.peekFirst().storedAt > MAX_AGE_MS) {
+            records.removeFirst();
+            n++;
+        }
+        return n;
+    }
+
+    boolean awaitSaved(long timeoutMs) {
+        return store.awaitSaved(timeoutMs);
+    }
+}
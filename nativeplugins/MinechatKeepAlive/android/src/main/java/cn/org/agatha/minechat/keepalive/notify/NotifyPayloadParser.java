@@ -0,0 +1,540 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+/**
+ * notify.message 字符串载荷的流式解析器。
+ * <p>
+ * 只扫描一遍原始文本，不构建 JSONObject：只解码通知需要的字段（chatId、chatName、chat.id、chat.name、chat.avatar、
+ * message.id、message.createdAt、message.content、message.sender.avatar、message.mentioned），
+ * 其余值（附件、富文本等）按字符跳过；标题与正文都确定后立即停止；正文在解码时就截断到 {@link #MAX_BODY_CHARS}。
+ * <p>
+ * 取值规则与原先基于 JSONObject 的实现一致：
+ * <ul>
+ *   <li>标题：chat.name 优先，其次 chatName（trim 后非空才采用），否则 "Minechat"</li>
+ *   <li>正文：message.content 为字符串时原样使用；为对象时取 text，其次 body（trim 后非空）；
+ *   为其他非空值时取其 JSON 文本</li>
+ *   <li>头像：chat.avatar 优先（群聊），其次 message.sender.avatar（私聊）</li>
+ * </ul>
+ * 区别：JSON null 视为缺省（原实现会得到字符串 "null"），正文超长时截断并追加省略号。
+ * <p>
+ * lite 为 true 时同时接受精简投影（握手 query 带 fmt={@link #LITE_FORMAT}，且服务端以 notify.format 确认后下发）：
+ * 扁平对象 {c: 会话 ID, n: 会话名, i: 消息 ID, t: 服务端时间, b: 已截断的正文, a: 头像 URL, m: 是否 @ 了本人}，
+ * 与完整载荷同时出现时以完整字段为准。没有确认的连接（老服务端忽略该参数）照旧下发完整 JSON，根上的短键按未知字段跳过。
+ * <p>
+ * 纯 Java 实现，不依赖 Android 类，便于在 JVM 上测试/压测。
+ */
+public final class NotifyPayloadParser {
+    public static final String DEFAULT_TITLE = "Minechat";
+    public static final String DEFAULT_BODY = "你有新消息";
+    public static final int MAX_BODY_CHARS = 100;
+    // 精简投影的版本号，随握手 query 发给服务端
+    public static final String LITE_FORMAT = "lite1";
+
+    private static final String ELLIPSIS = "…";
+
+    public static final class Result {
+        public final String title;
+        public final String body;
+        // 会话 ID（chatId，其次 chat.id）；缺失时为 null
+        public final String chatId;
+        // 消息 ID（message.id / message._id，其次 messageId）；用于跨通道去重，缺失时为 null
+        public final String messageId;
+        // 服务端时间戳原文（message.createdAt，其次 createdAt）；数字毫秒或 ISO 字符串，缺失时为 null
+        public final String createdAt;
+        // 通知大图标用的头像 URL；缺失时为 null
+        public final String avatarUrl;
+        // 消息是否 @ 了当前用户（服务端按接收者填写）；用于“仅 @ 提醒”规则
+        public final boolean mentioned;
+        // 收到该消息的附加账号（见 NotifyAccounts）；主账号为 null。由 NotifySocketManager 按命名空间填写，不从载荷文本解析
+        public final String account;
+
+        Result(String title, String body, String chatId, String messageId, String createdAt, String avatarUrl, boolean mentioned,
+               String account) {
+            this.title = title;
+            this.body = body;
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.createdAt = createdAt;
+            this.avatarUrl = avatarUrl;
+            this.mentioned = mentioned;
+            this.account = account;
+        }
+    }
+
+    public static final Result DEFAULT = new Result(DEFAULT_TITLE, DEFAULT_BODY, null, null, null, null, false, null);
+
+    private NotifyPayloadParser() {}
+
+    public static Result parse(String payload) {
+        return parse(payload, false);
+    }
+
+    /**
+     * @param lite 该连接是否协商了精简投影；为 false 时根上的短键 c/n/i/t/b/a/m 不参与取值
+     */
+    public static Result parse(String payload, boolean lite) {
+        if (payload == null) return DEFAULT;
+        Fields f = new Fields();
+        try {
+            new Scanner(payload, lite).parseRoot(f);
+        } catch (RuntimeException ignored) {
+            // 格式错误：保留已经解析出的字段
+        }
+        return f.toResult();
+    }
+
+    /**
+     * 截断正文到 {@link #MAX_BODY_CHARS}，不拆开代理对。供 JSONObject 载荷路径复用。
+     */
+    public static String truncateBody(String body) {
+        if (body == null || body.length() <= MAX_BODY_CHARS) return body;
+        int cut = MAX_BODY_CHARS;
+        if (Character.isHighSurrogate(body.charAt(cut - 1))) cut--;
+        return body.substring(0, cut) + ELLIPSIS;
+    }
+
+    // 布尔字段兼容 true / 1 / "true"
+    static boolean isTrue(String v) {
+        return "true".equals(v) || "1".equals(v);
+    }
+
+    private static final class Fields {
+        String chatId;
+        String chatIdFromChat;
+        String chatName;
+        String chatNameFromChat;
+        String body;
+        String messageId;
+        String messageIdFromRoot;
+        String createdAt;
+        String createdAtFromRoot;
+        String chatAvatar;
+        String senderAvatar;
+        boolean mentioned;
+        boolean messageSeen;
+
+        boolean done() {
+            // chat.name 一旦确定就不会再被覆盖；message 只出现一次。
+            // 时间也要有：message 不带 createdAt 时根上的可能排在后面，缺了它游标不会前进
+            return chatNameFromChat != null && messageSeen && (chatId != null || chatIdFromChat != null)
+                    && (messageId != null || messageIdFromRoot != null)
+                    && (createdAt != null || createdAtFromRoot != null);
+        }
+
+        Result toResult() {
+            String title = chatNameFromChat != null ? chatNameFromChat : (chatName != null ? chatName : DEFAULT_TITLE);
+            String b = body != null ? truncateBody(body) : DEFAULT_BODY;
+            return new Result(title, b, chatId != null ? chatId : chatIdFromChat,
+                    messageId != null ? messageId : messageIdFromRoot,
+                    createdAt != null ? createdAt : createdAtFromRoot,
+                    chatAvatar != null ? chatAvatar : senderAvatar, mentioned, null);
+        }
+    }
+
+    private static final class Scanner {
+        private final String s;
+        private final int len;
+        private final boolean lite;
+        private int pos;
+
+        // 最近一次 readKey 的原始范围（不含引号），以及是否包含转义
+        private int keyStart;
+        private int keyEnd;
+        private boolean keyEscaped;
+
+        Scanner(String s, boolean lite) {
+            this.s = s;
+            this.len = s.length();
+            this.lite = lite;
+        }
+
+        void parseRoot(Fields f) {
+            skipWs();
+            expect('{');
+            skipWs();
+            if (peek() == '}') return;
+            while (true) {
+                readKey();
+                skipWs();
+                expect(':');
+                skipWs();
+                if (keyIs("chatName")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty()) f.chatName = v;
+                } else if (keyIs("chatId")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty()) f.chatId = v;
+                } else if (keyIs("messageId")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty()) f.messageIdFromRoot = v;
+                } else if (keyIs("createdAt")) {
+                    String v = readScalar(64, true);
+                    if (v != null && !v.isEmpty()) f.createdAtFromRoot = v;
+                } else if (keyIs("chat") && peek() == '{') {
+                    parseChat(f);
+                } else if (keyIs("message") && peek() == '{') {
+                    parseMessage(f);
+                    f.messageSeen = true;
+                } else if (lite && keyIs("n")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty() && f.chatName == null) f.chatName = v;
+                } else if (lite && keyIs("c")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty() && f.chatId == null) f.chatId = v;
+                } else if (lite && keyIs("i")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty() && f.messageIdFromRoot == null) f.messageIdFromRoot = v;
+                } else if (lite && keyIs("t")) {
+                    String v = readScalar(64, true);
+                    if (v != null && !v.isEmpty() && f.createdAtFromRoot == null) f.createdAtFromRoot = v;
+                } else if (lite && keyIs("a")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty() && f.chatAvatar == null && f.senderAvatar == null) f.senderAvatar = v;
+                } else if (lite && keyIs("m")) {
+                    if (isTrue(readScalar(8, true))) f.mentioned = true;
+                } else if (lite && keyIs("b")) {
+                    String v = peek() == '"' ? readString(MAX_BODY_CHARS + 1, false) : readScalar(MAX_BODY_CHARS + 1, false);
+                    // message.content 优先
+                    if (v != null && !f.messageSeen) f.body = v;
+                } else {
+                    skipValue();
+                }
+                if (f.done()) return;
+                if (!nextMember()) return;
+            }
+        }
+
+        private void parseChat(Fields f) {
+            expect('{');
+            skipWs();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                readKey();
+                skipWs();
+                expect(':');
+                skipWs();
+                if (keyIs("name")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty()) f.chatNameFromChat = v;
+                } else if (keyIs("id")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty()) f.chatIdFromChat = v;
+                } else if (keyIs("avatar")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty()) f.chatAvatar = v;
+                } else {
+                    skipValue();
+                }
+                if (!nextMember()) return;
+            }
+        }
+
+        private void parseMessage(Fields f) {
+            expect('{');
+            skipWs();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                readKey();
+                skipWs();
+                expect(':');
+                skipWs();
+                if (keyIs("content")) {
+                    char c = peek();
+                    if (c == '"') {
+                        f.body = readString(MAX_BODY_CHARS + 1, false);
+                    } else if (c == '{') {
+                        String v = parseContentObject();
+                        if (v != null) f.body = v;
+                    } else {
+                        String v = readScalar(MAX_BODY_CHARS + 1, false);
+                        if (v != null) f.body = v;
+                    }
+                } else if (keyIs("id") || (f.messageId == null && keyIs("_id"))) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty()) f.messageId = v;
+                } else if (keyIs("createdAt")) {
+                    String v = readScalar(64, true);
+                    if (v != null && !v.isEmpty()) f.createdAt = v;
+                } else if (keyIs("sender") && peek() == '{') {
+                    parseSender(f);
+                } else if (keyIs("mentioned")) {
+                    if (isTrue(readScalar(8, true))) f.mentioned = true;
+                } else {
+                    skipValue();
+                }
+                if (!nextMember()) return;
+            }
+        }
+
+        private void parseSender(Fields f) {
+            expect('{');
+            skipWs();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                readKey();
+                skipWs();
+                expect(':');
+                skipWs();
+                if (keyIs("avatar")) {
+                    String v = readScalar(-1, true);
+                    if (v != null && !v.isEmpty()) f.senderAvatar = v;
+                } else {
+                    skipValue();
+                }
+                if (!nextMember()) return;
+            }
+        }
+
+        private String parseContentObject() {
+            String text = null;
+            String body = null;
+            expect('{');
+            skipWs();
+            if (peek() == '}') {
+                pos++;
+                return null;
+            }
+            while (true) {
+                readKey();
+                skipWs();
+                expect(':');
+                skipWs();
+                if (keyIs("text")) {
+                    String v = readScalar(MAX_BODY_CHARS + 1, true);
+                    if (v != null && !v.isEmpty()) text = v;
+                } else if (keyIs("body")) {
+                    String v = readScalar(MAX_BODY_CHARS + 1, true);
+                    if (v != null && !v.isEmpty()) body = v;
+                } else {
+                    skipValue();
+                }
+                if (!nextMember()) break;
+            }
+            return text != null ? text : body;
+        }
+
+        /**
+         * 读取一个值并转为字符串：字符串解码；数字/布尔取原文；null 返回 null；对象/数组取原始 JSON 文本。
+         *
+         * @param cap  最多保留的字符数（-1 不限制）
+         * @param trim 是否按 String#trim 规则去除首尾空白
+         */
+        private String readScalar(int cap, boolean trim) {
+            char c = peek();
+            if (c == '"') return readString(cap, trim);
+            int start = pos;
+            if (c == 'n' && s.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            skipValue();
+            String raw = s.substring(start, pos);
+            if (trim) raw = raw.trim();
+            if (cap > 0 && raw.length() > cap) raw = raw.substring(0, cap);
+            return raw;
+        }
+
+        private String readString(int cap, boolean trim) {
+            expect('"');
+            int start = pos;
+            int i = pos;
+            while (i < len) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') break;
+                i++;
+            }
+            if (i >= len) throw new IllegalStateException("unterminated string");
+
+            if (s.charAt(i) == '"') {
+                // 快路径：无转义，只截取需要的那一段
+                pos = i + 1;
+                int a = start;
+                int b = i;
+                if (trim) {
+                    while (a < b && s.charAt(a) <= ' ') a++;
+                    while (b > a && s.charAt(b - 1) <= ' ') b--;
+                }
+                if (cap > 0 && b - a > cap) b = a + cap;
+                return s.substring(a, b);
+            }
+
+            // 慢路径：有转义，逐字符解码；超过额度后只扫描到结尾不再保留
+            // （额外的 16 个字符留给 trim 去掉的末尾空白）
+            int limit = cap > 0 ? cap + 16 : Integer.MAX_VALUE;
+            StringBuilder sb = new StringBuilder(Math.min(cap > 0 ? limit : 64, 256));
+            boolean leading = trim;
+            while (true) {
+                if (pos >= len) throw new IllegalStateException("unterminated string");
+                char c = s.charAt(pos);
+                if (c == '"') {
+                    pos++;
+                    break;
+                }
+                char decoded;
+                if (c == '\\') {
+                    decoded = readEscape();
+                } else {
+                    decoded = c;
+                    pos++;
+                }
+                if (leading && decoded <= ' ') continue;
+                leading = false;
+                sb.append(decoded);
+                if (sb.length() >= limit) {
+                    skipStringRest();
+                    break;
+                }
+            }
+            String out = sb.toString();
+            if (trim) out = out.trim();
+            if (cap > 0 && out.length() > cap) out = out.substring(0, cap);
+            return out;
+        }
+
+        private void skipStringRest() {
+            while (pos < len) {
+                char c = s.charAt(pos++);
+                if (c == '\\') {
+                    pos++;
+                } else if (c == '"') {
+                    return;
+                }
+            }
+            throw new IllegalStateException("unterminated string");
+        }
+
+        private char readEscape() {
+            // 当前位于反斜杠
+            pos++;
+            if (pos >= len) throw new IllegalStateException("bad escape");
+            char e = s.charAt(pos++);
+            switch (e) {
+                case '"':
+                case '\\':
+                case '/':
+                    return e;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    if (pos + 4 > len) throw new IllegalStateException("bad unicode escape");
+                    char u = (char) Integer.parseInt(s.substring(pos, pos + 4), 16);
+                    pos += 4;
+                    return u;
+                default:
+                    throw new IllegalStateException("bad escape");
+            }
+        }
+
+        private void readKey() {
+            skipWs();
+            expect('"');
+            keyStart = pos;
+            keyEscaped = false;
+            while (true) {
+                if (pos >= len) throw new IllegalStateException("unterminated key");
+                char c = s.charAt(pos);
+                if (c == '\\') {
+                    keyEscaped = true;
+                    pos += 2;
+                } else if (c == '"') {
+                    keyEnd = pos;
+                    pos++;
+                    return;
+                } else {
+                    pos++;
+                }
+            }
+        }
+
+        private boolean keyIs(String name) {
+            if (keyEscaped) {
+                // 罕见：键名含转义，退化为解码后比较
+                int save = pos;
+                pos = keyStart - 1;
+                String k = readString(-1, false);
+                pos = save;
+                return name.equals(k);
+            }
+            int n = keyEnd - keyStart;
+            return n == name.length() && s.regionMatches(keyStart, name, 0, n);
+        }
+
+        /**
+         * 跳过一个完整的 JSON 值（不分配对象）。
+         */
+        private void skipValue() {
+            skipWs();
+            char c = peek();
+            if (c == '"') {
+                pos++;
+                skipStringRest();
+                return;
+            }
+            if (c == '{' || c == '[') {
+                int depth = 0;
+                while (pos < len) {
+                    char d = s.charAt(pos++);
+                    if (d == '"') {
+                        skipStringRest();
+                    } else if (d == '{' || d == '[') {
+                        depth++;
+                    } else if (d == '}' || d == ']') {
+                        depth--;
+                        if (depth == 0) return;
+                    }
+                }
+                throw new IllegalStateException("unterminated container");
+            }
+            // 数字 / true / false / null
+            int start = pos;
+            while (pos < len) {
+                char d = s.charAt(pos);
+                if (d == ',' || d == '}' || d == ']' || d <= ' ') break;
+                pos++;
+            }
+            if (pos == start) throw new IllegalStateException("unexpected char at " + pos);
+        }
+
+        /**
+         * 处理成员之间的分隔符：遇到逗号返回 true，遇到对象结束返回 false。
+         */
+        private boolean nextMember() {
+            skipWs();
+            char c = peek();
+            pos++;
+            if (c == ',') return true;
+            if (c == '}') return false;
+            throw new IllegalStateException("expected , or } at " + (pos - 1));
+        }
+
+        private void skipWs() {
+            while (pos < len && s.charAt(pos) <= ' ') pos++;
+        }
+
+        private char peek() {
+            if (pos >= len) throw new IllegalStateException("unexpected end");
+            return s.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (peek() != c) throw new IllegalStateException("expected " + c + " at " + pos);
+            pos++;
+        }
+    }
+}
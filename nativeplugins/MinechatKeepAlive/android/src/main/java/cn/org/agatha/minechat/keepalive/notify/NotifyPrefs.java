@@ -3,12 +3,113 @@ package cn.org.agatha.minechat.keepalive.notify;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public final class NotifyPrefs {
     private static final String PREFS = "minechat_keepalive";
 
     public static final String KEY_WS_BASE = "notify.wsBase";
     public static final String KEY_SOCKET_PATH = "notify.socketPath";
     public static final String KEY_TOKEN = "notify.token";
+    public static final String KEY_CURSOR_MESSAGE_ID = "notify.cursor.messageId";
+    public static final String KEY_CURSOR_CREATED_AT = "notify.cursor.createdAt";
+
+    public static final String DEFAULT_SOCKET_PATH = "/api/notify";
+
+    /**
+     * 通知配置的不可变快照。字段均已 trim，socketPath 为空时已回落到默认值。
+     * version 只在内容真正变化时递增，调用方比较 version 即可判断是否需要重连。
+     */
+    public static final class Config {
+        public final String wsBase;
+        public final String socketPath;
+        public final String token;
+        public final long version;
+
+        Config(String wsBase, String socketPath, String token, long version) {
+            this.wsBase = wsBase;
+            this.socketPath = socketPath;
+            this.token = token;
+            this.version = version;
+        }
+
+        public boolean hasWsBase() {
+            return !wsBase.isEmpty();
+        }
+
+        public boolean hasToken() {
+            return !token.isEmpty();
+        }
+
+        boolean sameValues(String wsBase, String socketPath, String token) {
+            return this.wsBase.equals(wsBase) && this.socketPath.equals(socketPath) && this.token.equals(token);
+        }
+    }
+
+    /**
+     * 投递游标：最后一条已处理的 notify.message 的 ID / 服务端时间，重连后发给服务端用于补发断线期间的消息。
+     */
+    public static final class Cursor {
+        public final String messageId;
+        public final String createdAt;
+
+        Cursor(String messageId, String createdAt) {
+            this.messageId = messageId == null ? "" : messageId;
+            // 精简投影的 t 是毫秒数字：统一成 ISO，resume 时发出的 lastMessageAt 只有一种形式
+            this.createdAt = createdAt == null ? "" : NotifyStats.normalizeServerTime(createdAt);
+        }
+
+        public boolean isEmpty() {
+            return messageId.isEmpty() && createdAt.isEmpty();
+        }
+
+        /**
+         * 是否比 current 新：先比服务端时间（数字毫秒/秒或 ISO 字符串均可），时间相同或缺失时比消息 ID（先比长度再按字典序，
+         * 适用于自增数字与 ObjectId）。无法判断先后时不推进，宁可多补发也不让游标后退。
+         */
+        boolean isAfter(Cursor current) {
+            if (current.isEmpty()) return true;
+            long at = NotifyStats.parseServerTime(createdAt);
+            long cur = NotifyStats.parseServerTime(current.createdAt);
+            if (at >= 0 && cur >= 0 && at != cur) return at > cur;
+            // 只有一方带时间：带时间的算新
+            if ((at >= 0) != (cur >= 0)) return at >= 0;
+            if (messageId.isEmpty() || current.messageId.isEmpty()) return false;
+            if (messageId.length() != current.messageId.length()) return messageId.length() > current.messageId.length();
+            return messageId.compareTo(current.messageId) > 0;
+        }
+    }
+
+    /**
+     * 配置快照变化回调。会在写入方线程（JS 模块线程或主线程）同步触发，实现方只应投递任务。
+     */
+    public interface Listener {
+        void onConfigChanged(Config config);
+    }
+
+    private static final Object LOCK = new Object();
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static volatile Config snapshot;
+    private static volatile Cursor cursor;
+    private static long nextVersion = 1;
+
+    // SharedPreferences 只弱引用监听器，这里用静态字段持有；用于感知非本类写入（例如其他代码直接 edit）
+    private static final SharedPreferences.OnSharedPreferenceChangeListener PREFS_LISTENER =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences p, String key) {
+                    if (!KEY_WS_BASE.equals(key) && !KEY_SOCKET_PATH.equals(key) && !KEY_TOKEN.equals(key)) return;
+                    try {
+                        publish(
+                                p.getString(KEY_WS_BASE, ""),
+                                p.getString(KEY_SOCKET_PATH, DEFAULT_SOCKET_PATH),
+                                p.getString(KEY_TOKEN, "")
+                        );
+                    } catch (Throwable ignored) {
+                    }
+                }
+            };
 
     private NotifyPrefs() {}
 
@@ -16,29 +117,141 @@ public final class NotifyPrefs {
         return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
     }
 
+    /**
+     * 返回内存中的配置快照；首次调用时从 SharedPreferences 加载并开始监听变化。
+     */
+    public static Config getConfig(Context context) {
+        Config c = snapshot;
+        if (c != null) return c;
+        synchronized (LOCK) {
+            if (snapshot == null) {
+                SharedPreferences p = prefs(context.getApplicationContext());
+                snapshot = new Config(
+                        normalize(p.getString(KEY_WS_BASE, "")),
+                        normalizePath(p.getString(KEY_SOCKET_PATH, DEFAULT_SOCKET_PATH)),
+                        normalize(p.getString(KEY_TOKEN, "")),
+                        nextVersion++
+                );
+                p.registerOnSharedPreferenceChangeListener(PREFS_LISTENER);
+            }
+            return snapshot;
+        }
+    }
+
+    public static void addListener(Context context, Listener listener) {
+        if (listener == null) return;
+        getConfig(context);
+        LISTENERS.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
     public static String getWsBase(Context context) {
-        return prefs(context).getString(KEY_WS_BASE, "");
+        return getConfig(context).wsBase;
     }
 
     public static String getSocketPath(Context context) {
-        return prefs(context).getString(KEY_SOCKET_PATH, "/api/notify");
+        return getConfig(context).socketPath;
     }
 
     public static String getToken(Context context) {
-        return prefs(context).getString(KEY_TOKEN, "");
+        return getConfig(context).token;
     }
 
     public static void setConfig(Context context, String wsBase, String socketPath) {
-        SharedPreferences.Editor editor = prefs(context).edit();
-        if (wsBase != null) editor.putString(KEY_WS_BASE, wsBase);
-        if (socketPath != null) editor.putString(KEY_SOCKET_PATH, socketPath);
-        editor.apply();
+        Config next;
+        // 读当前快照、写盘、换快照在同一把锁里完成，并发的 setToken 不会用旧快照覆盖这里的改动
+        synchronized (LOCK) {
+            Config current = getConfig(context);
+            SharedPreferences.Editor editor = prefs(context).edit();
+            if (wsBase != null) editor.putString(KEY_WS_BASE, wsBase);
+            if (socketPath != null) editor.putString(KEY_SOCKET_PATH, socketPath);
+            editor.apply();
+            next = swap(
+                    wsBase != null ? wsBase : current.wsBase,
+                    socketPath != null ? socketPath : current.socketPath,
+                    current.token
+            );
+        }
+        fire(next);
     }
 
     public static void setToken(Context context, String token) {
-        SharedPreferences.Editor editor = prefs(context).edit();
-        if (token == null) token = "";
-        editor.putString(KEY_TOKEN, token);
-        editor.apply();
+        Config next;
+        synchronized (LOCK) {
+            Config current = getConfig(context);
+            if (token == null) token = "";
+            prefs(context).edit().putString(KEY_TOKEN, token).apply();
+            next = swap(current.wsBase, current.socketPath, token);
+        }
+        fire(next);
+    }
+
+    public static Cursor getCursor(Context context) {
+        Cursor c = cursor;
+        if (c != null) return c;
+        SharedPreferences p = prefs(context.getApplicationContext());
+        c = new Cursor(p.getString(KEY_CURSOR_MESSAGE_ID, ""), p.getString(KEY_CURSOR_CREATED_AT, ""));
+        cursor = c;
+        return c;
+    }
+
+    /**
+     * 推进投递游标。ID 与时间都缺失、或不比当前游标新（例如晚于实时消息处理的 notify.replay 旧消息）时不移动游标。
+     */
+    public static void setCursor(Context context, String messageId, String createdAt) {
+        Cursor next = new Cursor(messageId, createdAt);
+        if (next.isEmpty()) return;
+        synchronized (LOCK) {
+            if (!next.isAfter(getCursor(context))) return;
+            cursor = next;
+            // apply 只会把最新的内存状态写盘，突发消息不会产生成串的磁盘写
+            prefs(context).edit()
+                    .putString(KEY_CURSOR_MESSAGE_ID, next.messageId)
+                    .putString(KEY_CURSOR_CREATED_AT, next.createdAt)
+                    .apply();
+        }
+    }
+
+    private static void publish(String wsBase, String socketPath, String token) {
+        Config next;
+        synchronized (LOCK) {
+            next = swap(wsBase, socketPath, token);
+        }
+        fire(next);
+    }
+
+    // 调用方持有 LOCK；内容没变时返回 null
+    private static Config swap(String wsBase, String socketPath, String token) {
+        Config current = snapshot;
+        wsBase = normalize(wsBase);
+        socketPath = normalizePath(socketPath);
+        token = normalize(token);
+        if (current != null && current.sameValues(wsBase, socketPath, token)) return null;
+        Config next = new Config(wsBase, socketPath, token, nextVersion++);
+        snapshot = next;
+        return next;
+    }
+
+    // 在锁外回调，监听方里再读配置不会和写入方互相等待
+    private static void fire(Config next) {
+        if (next == null) return;
+        for (Listener l : LISTENERS) {
+            try {
+                l.onConfigChanged(next);
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    private static String normalize(String s) {
+        return s == null ? "" : s.trim();
+    }
+
+    private static String normalizePath(String s) {
+        String v = normalize(s);
+        return v.isEmpty() ? DEFAULT_SOCKET_PATH : v;
     }
 }
@@ -0,0 +1,248 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 通知过滤规则（免打扰会话、仅 @ 提醒的会话、免打扰时段）的不可变快照，与 NotifyPrefs 存在同一个 SharedPreferences 里。
+ * <p>
+ * 每次连上以及规则变化时通过 notify.filter 发给服务端，支持的服务端直接不下发被过滤的消息；
+ * 本地在展示前用 {@link #allows} 再判断一次，兼容不支持过滤的服务端。
+ * 附加账号（NotifyAccounts）的会话写作 "accountId/chatId"：主连接只收到不带 "/" 的会话，
+ * 每个附加账号的命名空间只收到自己的会话（去掉前缀），见 {@link #toWireJson}。
+ * version 只在内容真正变化时递增，服务端可据此忽略重复或过期的规则。
+ */
+public final class NotifyRules {
+    public static final String KEY_RULES = "notify.rules";
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * 规则变化回调。会在写入方线程（JS 模块线程）同步触发，实现方只应投递任务。
+     */
+    public interface Listener {
+        void onRulesChanged(NotifyRules rules);
+    }
+
+    public final long version;
+    private final Set<String> muted;
+    private final Set<String> mentionsOnly;
+    // 免打扰时段：本地时间当天第几分钟，start == end 表示未设置，start > end 表示跨午夜
+    private final int quietStart;
+    private final int quietEnd;
+
+    private static final Object LOCK = new Object();
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile NotifyRules snapshot;
+
+    private NotifyRules(long version, Set<String> muted, Set<String> mentionsOnly, int quietStart, int quietEnd) {
+        this.version = version;
+        this.muted = muted;
+        this.mentionsOnly = mentionsOnly;
+        this.quietStart = quietStart;
+        this.quietEnd = quietEnd;
+    }
+
+    /**
+     * 返回内存中的规则快照；首次调用时从 SharedPreferences 加载。
+     */
+    public static NotifyRules get(Context context) {
+        NotifyRules r = snapshot;
+        if (r != null) return r;
+        synchronized (LOCK) {
+            if (snapshot == null) {
+                NotifyRules loaded = null;
+                try {
+                    String raw = NotifyPrefs.prefs(context.getApplicationContext()).getString(KEY_RULES, "");
+                    if (raw != null && !raw.isEmpty()) {
+                        JSONObject o = new JSONObject(raw);
+                        loaded = fromJson(o, o.optLong("v", 0L));
+                    }
+                } catch (Throwable ignored) {
+                }
+                snapshot = loaded != null ? loaded : new NotifyRules(0L, Collections.<String>emptySet(), Collections.<String>emptySet(), 0, 0);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 替换规则。json 形如 {muted: [chatId], mentionsOnly: [chatId], quietHours: {start: "23:00", end: "07:00"}}，
+     * 缺省的字段视为空；附加账号的会话写作 "accountId/chatId"。格式错误返回 false，规则不变。
+     */
+    public static boolean set(Context context, String json) {
+        NotifyRules next;
+        synchronized (LOCK) {
+            NotifyRules current = get(context);
+            try {
+                next = fromJson(new JSONObject(json == null || json.trim().isEmpty() ? "{}" : json), current.version + 1);
+            } catch (Throwable ignored) {
+                return false;
+            }
+            if (next.sameValues(current)) return true;
+            snapshot = next;
+            try {
+                NotifyPrefs.prefs(context.getApplicationContext()).edit().putString(KEY_RULES, next.toJson().toString()).apply();
+            } catch (Throwable ignored) {
+            }
+        }
+        for (Listener l : LISTENERS) {
+            try {
+                l.onRulesChanged(next);
+            } catch (Throwable ignored) {
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 当前规则的 JSON 文本（与 {@link #set} 的格式相同，另带 v）。
+     */
+    public static String getJson(Context context) {
+        try {
+            return get(context).toJson().toString();
+        } catch (Throwable ignored) {
+            return "{}";
+        }
+    }
+
+    public static void addListener(Listener listener) {
+        if (listener != null) LISTENERS.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * 本地过滤：该会话的这条消息是否应该提醒。只做两次集合查找，设置了免打扰时段时再算一次本地时间。
+     *
+     * @param chatId 附加账号的会话为 "accountId/chatId"
+     */
+    public boolean allows(String chatId, boolean mentioned, long nowMs) {
+        if (chatId != null) {
+            if (muted.contains(chatId)) return false;
+            if (!mentioned && mentionsOnly.contains(chatId)) return false;
+        }
+        return !inQuietHours(nowMs);
+    }
+
+    boolean isEmpty() {
+        return muted.isEmpty() && mentionsOnly.isEmpty() && quietStart == quietEnd;
+    }
+
+    private boolean inQuietHours(long nowMs) {
+        if (quietStart == quietEnd) return false;
+        long local = nowMs + TimeZone.getDefault().getOffset(nowMs);
+        int minute = (int) (((local / 60_000L) % MINUTES_PER_DAY + MINUTES_PER_DAY) % MINUTES_PER_DAY);
+        if (quietStart < quietEnd) return minute >= quietStart && minute < quietEnd;
+        return minute >= quietStart || minute < quietEnd;
+    }
+
+    /** 持久化/返回给 JS 的格式。 */
+    JSONObject toJson() throws Exception {
+        return toJson(muted, mentionsOnly, false);
+    }
+
+    /**
+     * 发给一条连接的规则：只带该连接上的会话，免打扰时段附带当前时区，供服务端换算。
+     *
+     * @param account 附加账号的命名空间；主连接为 null
+     */
+    JSONObject toWireJson(String account) throws Exception {
+        return toJson(forAccount(muted, account), forAccount(mentionsOnly, account), true);
+    }
+
+    private static Set<String> forAccount(Set<String> ids, String account) {
+        if (ids.isEmpty()) return ids;
+        Set<String> out = new HashSet<>();
+        String prefix = account == null ? null : account + "/";
+        for (String id : ids) {
+            if (prefix == null) {
+                if (id.indexOf('/') < 0) out.add(id);
+            } else if (id.startsWith(prefix) && id.length() > prefix.length()) {
+                out.add(id.substring(prefix.length()));
+            }
+        }
+        return out;
+    }
+
+    private JSONObject toJson(Set<String> mutedIds, Set<String> mentionsOnlyIds, boolean wire) throws Exception {
+        JSONObject o = new JSONObject();
+        o.put("v", version);
+        o.put("muted", new JSONArray(mutedIds));
+        o.put("mentionsOnly", new JSONArray(mentionsOnlyIds));
+        if (quietStart != quietEnd) {
+            JSONObject q = new JSONObject();
+            q.put("start", formatMinute(quietStart));
+            q.put("end", formatMinute(quietEnd));
+            if (wire) {
+                TimeZone tz = TimeZone.getDefault();
+                q.put("tz", tz.getID());
+                q.put("tzOffsetMin", tz.getOffset(System.currentTimeMillis()) / 60_000);
+            }
+            o.put("quietHours", q);
+        }
+        return o;
+    }
+
+    private boolean sameValues(NotifyRules o) {
+        return muted.equals(o.muted) && mentionsOnly.equals(o.mentionsOnly) && quietStart == o.quietStart && quietEnd == o.quietEnd;
+    }
+
+    static NotifyRules fromJson(JSONObject o, long version) {
+        int start = 0;
+        int end = 0;
+        JSONObject q = o.optJSONObject("quietHours");
+        if (q != null) {
+            start = parseMinute(q.opt("start"));
+            end = parseMinute(q.opt("end"));
+            if (start < 0 || end < 0) throw new IllegalArgumentException("bad quietHours");
+        }
+        return new NotifyRules(version, readIds(o.optJSONArray("muted")), readIds(o.optJSONArray("mentionsOnly")), start, end);
+    }
+
+    private static Set<String> readIds(JSONArray a) {
+        if (a == null || a.length() == 0) return Collections.emptySet();
+        Set<String> out = new HashSet<>();
+        for (int i = 0; i < a.length(); i++) {
+            if (a.isNull(i)) continue;
+            String id = String.valueOf(a.opt(i)).trim();
+            if (!id.isEmpty()) out.add(id);
+        }
+        return Collections.unmodifiableSet(out);
+    }
+
+    // "HH:mm" 或当天第几分钟；非法返回 -1
+    private static int parseMinute(Object v) {
+        try {
+            if (v instanceof Number) {
+                int m = ((Number) v).intValue();
+                return m >= 0 && m < MINUTES_PER_DAY ? m : -1;
+            }
+            String s = String.valueOf(v).trim();
+            int colon = s.indexOf(':');
+            if (colon < 0) return -1;
+            int h = Integer.parseInt(s.substring(0, colon));
+            int m = Integer.parseInt(s.substring(colon + 1));
+            if (h < 0 || h > 23 || m < 0 || m > 59) return -1;
+            return h * 60 + m;
+        } catch (Throwable ignored) {
+            return -1;
+        }
+    }
+
+    private static String formatMinute(int minute) {
+        int h = minute / 60;
+        int m = minute % 60;
+        return (h < 10 ? "0" : "") + h + ":" + (m < 10 ? "0" : "") + m;
+    }
+}
@@ -1,57 +1,338 @@
 package cn.org.agatha.minechat.keepalive.notify;
 
-import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import io.socket.client.Ack;
 import io.socket.client.IO;
 import io.socket.client.Socket;
 import io.socket.emitter.Emitter;
+import okhttp3.OkHttpClient;
 
 public final class NotifySocketManager {
     private static final String CHANNEL_ID = "minechat_notify";
-    private static final int NOTIFICATION_ID_BASE = 20300;
 
-    private Socket socket;
-    private String lastWsBase = "";
-    private String lastPath = "";
-    private String lastToken = "";
+    // 连接建立后上报投递游标（客户端 -> 服务端），服务端把断线期间的消息通过 EVENT_REPLAY 一次性补发
+    static final String EVENT_RESUME = "notify.resume";
+    static final String EVENT_REPLAY = "notify.replay";
 
-    private volatile String state = "init";
+    static final String EVENT_MESSAGE = "notify.message";
+    // 会话未读数变化 {chatId, unread}：归零说明在其他设备读完了
+    static final String EVENT_UNREAD = "notify.unread";
+    // 已读回执 {chatId, messageId}
+    static final String EVENT_READ = "notify.read";
+    // 会话改名/免打扰 {chatId, name, muted}
+    static final String EVENT_CHAT_UPDATE = "chat.update";
+    // 在现有连接上换 token（客户端 -> 服务端，带 ack）：{token}，服务端应答 {ok} 或 true
+    static final String EVENT_AUTH = "notify.auth";
+    // 通知过滤规则（客户端 -> 服务端，带 ack）：见 NotifyRules#toJson，服务端应答 {ok, v} 或 true
+    static final String EVENT_FILTER = "notify.filter";
+    // 服务端确认本连接改发精简投影（服务端 -> 客户端，连上后、任何消息之前）：{fmt}；没有确认的连接按完整载荷解析
+    static final String EVENT_FORMAT = "notify.format";
+
+    // 附加账号的命名空间前缀（见 NotifyAccounts）；这些命名空间上的事件在入队前带上 KEY_ACCOUNT
+    static final String ACCOUNT_NSP_PREFIX = "/account/";
+    static final String KEY_ACCOUNT = "account";
+
+    // 首次建连时才会加载的类（Manager/engine.io Socket/WebSocket 传输/解析器），预热时提前加载并初始化
+    private static final String[] PREWARM_CLASSES = {
+            "io.socket.client.Manager",
+            "io.socket.client.Socket",
+            "io.socket.engineio.client.Socket",
+            "io.socket.engineio.client.transports.WebSocket",
+            "io.socket.parser.IOParser",
+    };
+
+    // 重新认证等待 ack 的时间；不认识 EVENT_AUTH 的服务端不会应答，超时后按完整重连处理
+    private static final long REAUTH_TIMEOUT_MS = 5_000;
+
+    // socket.io 在主动 disconnect() 时给出的断开原因；这种断开不需要重连
+    private static final String REASON_CLIENT_DISCONNECT = "io client disconnect";
+
+    // refresh/stop 在 this 上加锁写入；emit 从 JS 线程无锁读取
+    private volatile Socket socket;
+    // 当前 socket 所使用的配置快照版本（见 NotifyPrefs.Config#version）
+    private long appliedVersion = -1L;
+    // 当前 socket 所使用的配置与连接参数；换 token 时改 options.query，之后的自动重连直接带新 token 握手
+    private NotifyPrefs.Config appliedConfig;
+    private IO.Options options;
+    // 正在等 ack 的重新认证所用的配置（null 表示没有）；被服务端拒绝或超时的版本改走完整重连
+    private NotifyPrefs.Config reauthConfig;
+    private long reauthRejectedVersion = -1L;
+    // 附加账号 -> 主连接 Manager 上的命名空间 socket；在 this 上加锁访问
+    private final Map<String, AccountChannel> accountChannels = new HashMap<>();
+    // 已确认精简投影的连接：主连接记 socket 实例，附加账号记账号 ID；都只在 socket 事件线程上改
+    private volatile Socket liteSocket;
+    private final Set<String> liteAccounts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // 分发队列丢弃过消息的账号（主账号记 ""）：游标停在丢弃前，直到按它重新请求补发，见 onMessageDropped
+    private final Set<String> cursorHeld = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // 精简投影连接上的 notify.message / notify.replay 载荷，入队时包一层，解析时才接受短键
+    private static final class LitePayload {
+        final Object payload;
+
+        LitePayload(Object payload) {
+            this.payload = payload;
+        }
+    }
+
+    private static final class AccountChannel {
+        final String token;
+        final Socket socket;
+
+        AccountChannel(String token, Socket socket) {
+            this.token = token;
+            this.socket = socket;
+        }
+    }
+
+    // 连接状态只经由 NotifyConnectionState 的 CAS 转换修改，socket 回调线程之间不需要加锁
+    private final NotifyConnectionState connState = new NotifyConnectionState();
     private volatile String lastError = "";
     private volatile long lastEventAt = 0L;
 
+    // 省电模式下停放：不建立连接，也不重连，直到 unpark
+    private volatile boolean parked;
+
+    private final Handler handler;
+    private volatile Context appContext;
+    private final NotifyEventDispatcher dispatcher = new NotifyEventDispatcher("minechat-notify-dispatch");
+    private final Object aggregatorLock = new Object();
+    private volatile ChatNotificationAggregator aggregator;
+
+    private volatile ReconnectPolicy reconnectPolicy = new BackoffReconnectPolicy();
+    // 已有一次重连排在 handler 上；保证每次断开只向策略申请一次延迟
+    private final AtomicBoolean reconnectPending = new AtomicBoolean();
+    // 每个进程只预热一次，见 prewarm
+    private static final AtomicBoolean prewarmed = new AtomicBoolean();
+
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            reconnectNow(false);
+        }
+    };
+
+    private final Runnable forceReconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            reconnectNow(true);
+        }
+    };
+
+    private final Runnable reauthTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            onReauthTimeout();
+        }
+    };
+
+    // 以下两个回调在 JS 模块线程上同步触发，切到 handler 线程再取 this 的监视器
+    private final NotifyRules.Listener rulesListener = new NotifyRules.Listener() {
+        @Override
+        public void onRulesChanged(final NotifyRules rules) {
+            runOnHandler(new Runnable() {
+                @Override
+                public void run() {
+                    pushRulesToAll(rules);
+                }
+            });
+        }
+    };
+
+    private final NotifyAccounts.Listener accountsListener = new NotifyAccounts.Listener() {
+        @Override
+        public void onAccountsChanged(final Map<String, String> accounts) {
+            runOnHandler(new Runnable() {
+                @Override
+                public void run() {
+                    syncAccounts(accounts);
+                }
+            });
+        }
+    };
+
+    /**
+     * @param handler 用于批量发布消息通知的后台线程；为 null 时每条消息立即发布
+     */
+    public NotifySocketManager(Handler handler) {
+        this.handler = handler;
+        registerBuiltinHandlers();
+        dispatcher.setDropListener(new NotifyEventDispatcher.DropListener() {
+            @Override
+            public void onDropped(String event, Object payload) {
+                String scope = droppedCursorScope(event, payload);
+                if (scope != null) onMessageDropped(scope);
+            }
+        });
+        NotifyStats.attachDispatcher(dispatcher);
+        NotifyRules.addListener(rulesListener);
+        NotifyAccounts.addListener(accountsListener);
+        connState.addListener(new NotifyConnectionState.Listener() {
+            @Override
+            public void onStateChanged(NotifyConnectionState.Snapshot from, NotifyConnectionState.Snapshot to) {
+                NotifyEventLog.log("state " + from.state.wireName + " -> " + to.state.wireName);
+                NotifyEventBridge.dispatch(NotifyEventBridge.EVENT_STATE, to.state.wireName);
+            }
+        });
+    }
+
+    /**
+     * 冷启动预热：在独立线程上加载配置与过滤规则、加载 socket.io/engine.io 的类、建好共用 OkHttpClient 并预解析服务器地址，
+     * 与主线程上的服务创建、前台通知并行进行，worker 上的首次 refresh 直接从建 socket 开始。每个进程只执行一次。
+     */
+    public static void prewarm(Context context) {
+        if (context == null || !prewarmed.compareAndSet(false, true)) return;
+        final Context app = context.getApplicationContext();
+        try {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long started = NotifyStartupTrace.start(NotifyStartupTrace.Phase.PREWARM);
+                    try {
+                        long configStarted = NotifyStartupTrace.start(NotifyStartupTrace.Phase.CONFIG);
+                        NotifyPrefs.Config config = NotifyPrefs.getConfig(app);
+                        NotifyStartupTrace.end(NotifyStartupTrace.Phase.CONFIG, configStarted);
+                        NotifyPrefs.getCursor(app);
+                        NotifyRules.get(app);
+                        NotifyAccounts.get(app);
+                        NotifyDedupStore.get(app);
+                        ClassLoader loader = NotifySocketManager.class.getClassLoader();
+                        for (String name : PREWARM_CLASSES) Class.forName(name, true, loader);
+                        // 没登录时不会连接，不必解析
+                        NotifyHttp.prewarm(config.hasWsBase() && config.hasToken() ? config.wsBase : null);
+                    } catch (Throwable ignored) {
+                    }
+                    NotifyStartupTrace.end(NotifyStartupTrace.Phase.PREWARM, started);
+                }
+            }, "minechat-notify-prewarm");
+            t.setDaemon(true);
+            t.start();
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * 订阅连接状态转换，见 {@link NotifyConnectionState.Listener}。
+     */
+    public void addStateListener(NotifyConnectionState.Listener listener) {
+        connState.addListener(listener);
+    }
+
+    public void removeStateListener(NotifyConnectionState.Listener listener) {
+        connState.removeListener(listener);
+    }
+
+    /**
+     * 当前连接状态及进入时间；无锁，可在任意线程调用。
+     */
+    public NotifyConnectionState.Snapshot getState() {
+        return connState.get();
+    }
+
+    /**
+     * 注册（或替换）服务端事件处理器。处理在独立的分发线程上进行；该事件待处理数超过 capacity 时
+     * 按 keepLatest 丢弃最旧（true）或最新（false）的一条，丢弃数见 getNotifyStats 的 handlers。
+     */
+    public <T> void registerHandler(String event, int capacity, boolean keepLatest, NotifyEventHandler<T> h) {
+        dispatcher.register(event, capacity, keepLatest ? NotifyEventDispatcher.Overflow.DROP_OLDEST : NotifyEventDispatcher.Overflow.DROP_NEWEST, h);
+        Socket s = socket;
+        if (s != null) listen(s, event);
+    }
+
+    /**
+     * 替换重连策略；传 null 恢复默认的 {@link BackoffReconnectPolicy}。
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        reconnectPolicy = policy != null ? policy : new BackoffReconnectPolicy();
+    }
+
+    /**
+     * 网络可用性变化。断网时暂停重连；恢复或切换到新网络时立即重连（切换时即使仍显示已连接也重建，
+     * 旧连接绑定在之前的网络上，只会在心跳超时后才断开）。
+     */
+    public void onNetworkChanged(boolean available, boolean switched) {
+        boolean now = false;
+        try {
+            now = reconnectPolicy.onNetworkChanged(available);
+        } catch (Throwable ignored) {
+        }
+        if (switched) NotifyHttp.onNetworkChanged();
+        if (handler == null) return;
+        handler.removeCallbacks(reconnectTask);
+        handler.removeCallbacks(forceReconnectTask);
+        reconnectPending.set(false);
+        if (!available) return;
+        if (now) {
+            handler.post(switched ? forceReconnectTask : reconnectTask);
+        } else {
+            // 额度用尽：按策略排期
+            scheduleReconnect();
+        }
+    }
+
     public synchronized void refresh(Context context) {
         if (context == null) return;
+        appContext = context.getApplicationContext();
 
-        String wsBase = safeTrim(NotifyPrefs.getWsBase(context));
-        String path = safeTrim(NotifyPrefs.getSocketPath(context));
-        String token = safeTrim(NotifyPrefs.getToken(context));
+        if (parked) {
+            connState.restart(NotifyConnectionState.State.PARKED);
+            return;
+        }
+
+        long configStarted = NotifyStartupTrace.start(NotifyStartupTrace.Phase.CONFIG);
+        NotifyPrefs.Config config = NotifyPrefs.getConfig(context);
+        NotifyStartupTrace.end(NotifyStartupTrace.Phase.CONFIG, configStarted);
+        boolean same = config.version == appliedVersion;
+
+        // 快路径：配置版本未变且连接正常，无需读取/比较任何配置
+        if (same && socket != null && socket.connected()) {
+            // 覆盖在 CONNECTED 上的投递失败状态不受影响，只在权限/开关已经恢复时撤掉
+            connState.moveTo(NotifyConnectionState.State.CONNECTED);
+            if (connState.get().state.isDeliveryError() && notifyBlocked(context) == null) clearDeliveryError(false);
+            return;
+        }
 
-        boolean hasWsBase = !wsBase.isEmpty();
-        boolean hasToken = !token.isEmpty();
-        boolean same = wsBase.equals(lastWsBase) && path.equals(lastPath) && token.equals(lastToken);
+        // 配置未变但已断开：重连由 ReconnectPolicy 驱动，这里不重建 socket（否则会绕过退避），只确保有一次重连在排队
+        if (same && socket != null && handler != null) {
+            if (connState.get().state != NotifyConnectionState.State.CONNECTING) scheduleReconnect();
+            return;
+        }
+
+        // 只换了 token 且连接正常：在现有连接上重新认证，省掉一次完整握手，也不会在换 token 期间断流
+        if (!same && canReauth(config)) {
+            if (reauthConfig == null || reauthConfig.version != config.version) startReauth(config);
+            return;
+        }
 
-        if (!hasWsBase) {
-            state = "disabled";
+        if (!config.hasWsBase()) {
+            connState.restart(NotifyConnectionState.State.DISABLED);
             lastError = "missing wsBase";
             lastEventAt = System.currentTimeMillis();
             stop();
             return;
         }
 
-        if (!hasToken) {
-            state = "waiting_token";
+        if (!config.hasToken()) {
+            connState.restart(NotifyConnectionState.State.WAITING_TOKEN);
             lastError = "missing token";
             lastEventAt = System.currentTimeMillis();
             stop();
@@ -59,237 +340,942 @@ public final class NotifySocketManager {
             return;
         }
 
-        if (same && socket != null && socket.connected()) {
-            state = "connected";
-            return;
-        }
-
         stop();
-        lastWsBase = wsBase;
-        lastPath = path.isEmpty() ? "/api/notify" : path;
-        lastToken = token;
+        appliedVersion = config.version;
+        appliedConfig = config;
 
-        state = "connecting";
+        connState.restart(NotifyConnectionState.State.CONNECTING);
         lastError = "";
         lastEventAt = System.currentTimeMillis();
 
         ensureChannel(context);
-        startSocket(context, wsBase, lastPath, token);
+        startSocket(context, config.wsBase, config.socketPath, config.token);
     }
 
-    public String getStatusText(Context context) {
-        String s = state;
-        if (s == null) s = "unknown";
-        if ("connected".equals(s)) return "通知:已连接";
-        if ("connecting".equals(s)) return "通知:连接中";
-        if ("disconnected".equals(s)) return "通知:已断开";
-        if ("connect_error".equals(s)) return "通知:连接失败";
-        if ("no_permission".equals(s)) return "通知:无权限";
-        if ("disabled".equals(s)) return "通知:未配置";
-        if ("waiting_token".equals(s)) return "通知:未登录";
-        if ("notifications_disabled".equals(s)) return "通知:已关闭";
-        return "通知:" + s;
+    public String getStatusText() {
+        return connState.get().state.statusText;
+    }
+
+    public boolean isConnected() {
+        return connState.get().state == NotifyConnectionState.State.CONNECTED;
     }
 
     public String getLastError() {
         return lastError;
     }
 
+    /**
+     * 通过当前 socket 发送事件；未连接时返回 false。可在任意线程调用。
+     */
+    public boolean emit(String event, Object payload) {
+        Socket s = socket;
+        if (s == null || !s.connected()) return false;
+        try {
+            if (payload == null) {
+                s.emit(event);
+            } else {
+                s.emit(event, payload);
+            }
+            return true;
+        } catch (Throwable ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * 停放 socket（Doze/省电模式）：断开连接并停止重连，期间的消息由 NotifySyncJobService 批量补收。
+     */
+    public synchronized void park() {
+        parked = true;
+        stop();
+        connState.restart(NotifyConnectionState.State.PARKED);
+    }
+
+    /**
+     * 结束停放；调用方随后 refresh 重新连接。
+     */
+    public synchronized void unpark() {
+        parked = false;
+    }
+
+    public boolean isParked() {
+        return parked;
+    }
+
+    /**
+     * 服务销毁时调用：断开连接并结束分发线程。
+     */
+    public synchronized void shutdown() {
+        stop();
+        NotifyRules.removeListener(rulesListener);
+        NotifyAccounts.removeListener(accountsListener);
+        dispatcher.shutdown();
+        NotifyStats.detachDispatcher(dispatcher);
+    }
+
+    /**
+     * 立即发布批处理窗口中还没发布的消息通知（在调用方线程）。handler 线程退出前调用。
+     */
+    public void flushNotifications() {
+        ChatNotificationAggregator a = aggregator;
+        if (a != null) a.flushNow();
+    }
+
     public synchronized void stop() {
+        if (handler != null) {
+            handler.removeCallbacks(reconnectTask);
+            handler.removeCallbacks(forceReconnectTask);
+            handler.removeCallbacks(reauthTimeoutTask);
+        }
+        reconnectPending.set(false);
+        reauthConfig = null;
+        closeAccounts();
+        if (socket != null) NotifyStats.onStopped();
         try {
             if (socket != null) {
                 socket.off();
+                socket.offAnyIncoming();
                 socket.disconnect();
                 socket.close();
             }
         } catch (Throwable ignored) {
         }
         socket = null;
+        options = null;
     }
 
     private void startSocket(Context context, String wsBase, String path, String token) {
+        long buildStarted = NotifyStartupTrace.start(NotifyStartupTrace.Phase.SOCKET_BUILD);
         try {
             IO.Options options = new IO.Options();
+            this.options = options;
             options.path = path;
-            options.reconnection = true;
+            // 有 handler 时由 ReconnectPolicy 接管重连；没有时退回 socket.io 自带的固定退避
+            options.reconnection = handler == null;
             options.reconnectionAttempts = Integer.MAX_VALUE;
             options.reconnectionDelay = 1000;
             options.reconnectionDelayMax = 5000;
             options.timeout = 20000;
             options.transports = new String[]{"websocket"};
+            // 共用一个客户端：重连复用 TLS 会话与 DNS 缓存，不再每次新建传输层
+            OkHttpClient http = NotifyHttp.client();
+            options.webSocketFactory = http;
+            options.callFactory = http;
 
-            // token 同时放 query，兼容后端
-            try {
-                String q = "token=" + URLEncoder.encode(token, "UTF-8");
-                options.query = q;
-            } catch (Throwable ignored) {
-                options.query = "token=" + token;
-            }
+            options.query = query(token);
 
             socket = IO.socket(Uri.parse(wsBase).toString(), options);
+            NotifyStartupTrace.end(NotifyStartupTrace.Phase.SOCKET_BUILD, buildStarted);
         } catch (Throwable ignored) {
             socket = null;
+            this.options = null;
             return;
         }
 
         if (socket == null) return;
+        final Socket s = socket;
+        NotifyStats.onConnectAttempt();
 
-        socket.on(Socket.EVENT_CONNECT, new Emitter.Listener() {
+        s.on(Socket.EVENT_CONNECT, new Emitter.Listener() {
             @Override
             public void call(Object... args) {
-                state = "connected";
+                // 先读快照再确认 socket：确认之后发生的 refresh/stop 会换掉快照，使这次转换失败
+                NotifyConnectionState.Snapshot cur = connState.get();
+                if (s != socket) return;
+                // 每次连上重新协商：服务端随后的 notify.format 决定这条连接的载荷格式
+                if (liteSocket == s) liteSocket = null;
+                connState.moveFrom(cur, NotifyConnectionState.State.CONNECTED);
                 lastError = "";
                 lastEventAt = System.currentTimeMillis();
+                NotifyStats.onConnected();
+                NotifyStartupTrace.mark(NotifyStartupTrace.Phase.CONNECTED);
+                try {
+                    reconnectPolicy.onConnected();
+                } catch (Throwable ignored) {
+                }
+                // 先于 resume：补发的消息也按新规则过滤
+                pushRules(s, NotifyRules.get(context), null);
+                resume(s, null);
+                // 这两步要 this 的监视器，切到 handler 线程
+                runOnHandler(new Runnable() {
+                    @Override
+                    public void run() {
+                        onReauthHandshake(s);
+                        syncAccounts(NotifyAccounts.get(context));
+                    }
+                });
             }
         });
 
-        socket.on(Socket.EVENT_CONNECT_ERROR, new Emitter.Listener() {
+        s.on(Socket.EVENT_CONNECT_ERROR, new Emitter.Listener() {
             @Override
             public void call(Object... args) {
-                state = "connect_error";
+                NotifyConnectionState.Snapshot cur = connState.get();
+                if (s != socket) return;
+                connState.moveFrom(cur, NotifyConnectionState.State.CONNECT_ERROR);
                 lastEventAt = System.currentTimeMillis();
+                NotifyStats.onConnectError();
                 try {
                     if (args != null && args.length > 0 && args[0] != null) {
                         lastError = String.valueOf(args[0]);
                     }
                 } catch (Throwable ignored) {
                 }
+                NotifyEventLog.log("socket connect_error: " + lastError);
+                scheduleReconnect();
             }
         });
 
-        socket.on(Socket.EVENT_DISCONNECT, new Emitter.Listener() {
+        s.on(Socket.EVENT_DISCONNECT, new Emitter.Listener() {
             @Override
             public void call(Object... args) {
-                state = "disconnected";
+                // reconnectNow 主动断开后已进入 CONNECTING，这里迟到的断开不会再把状态改回 DISCONNECTED
+                NotifyConnectionState.Snapshot cur = connState.get();
+                if (s != socket) return;
+                connState.moveFrom(cur, NotifyConnectionState.State.DISCONNECTED);
                 lastEventAt = System.currentTimeMillis();
+                Object reason = (args != null && args.length > 0) ? args[0] : null;
+                NotifyStats.onDisconnected(reason);
+                NotifyEventLog.log("socket disconnect: " + reason);
+                if (!REASON_CLIENT_DISCONNECT.equals(reason)) scheduleReconnect();
             }
         });
 
-        socket.on("notify.message", new Emitter.Listener() {
+        s.on(EVENT_FORMAT, new Emitter.Listener() {
             @Override
             public void call(Object... args) {
-                try {
-                    Object payload = (args != null && args.length > 0) ? args[0] : null;
-                    showPayloadNotification(context, payload);
-                } catch (Throwable ignored) {
+                if (isLiteFormat(args)) {
+                    liteSocket = s;
+                } else if (liteSocket == s) {
+                    liteSocket = null;
                 }
             }
         });
 
+        for (String event : dispatcher.events()) listen(s, event);
+
+        // 所有服务端事件转发给 JS（App 前台且 JS 注册了监听时），JS 侧不必再开一条 socket
+        s.onAnyIncoming(new Emitter.Listener() {
+            @Override
+            public void call(Object... args) {
+                if (!NotifyEventBridge.isForwarding() || args == null || args.length == 0) return;
+                NotifyEventBridge.dispatch(String.valueOf(args[0]), args.length > 1 ? args[1] : null);
+            }
+        });
+
         try {
             socket.connect();
         } catch (Throwable ignored) {
         }
     }
 
-    private void showPayloadNotification(Context context, Object payload) {
-        // Android 13+：缺少 POST_NOTIFICATIONS 时会直接抛 SecurityException；这里避免静默失败
+    // token 同时放 query，兼容后端；fmt 请求精简投影，不认识的服务端会忽略
+    private static String query(String token) {
+        String fmt = "&fmt=" + NotifyPayloadParser.LITE_FORMAT;
+        try {
+            return "token=" + URLEncoder.encode(token, "UTF-8") + fmt;
+        } catch (Throwable ignored) {
+            return "token=" + token + fmt;
+        }
+    }
+
+    private boolean canReauth(NotifyPrefs.Config config) {
+        NotifyPrefs.Config cur = appliedConfig;
+        Socket s = socket;
+        return handler != null && s != null && s.connected() && options != null && cur != null
+                && config.hasToken() && config.version != reauthRejectedVersion
+                && cur.wsBase.equals(config.wsBase) && cur.socketPath.equals(config.socketPath)
+                && !cur.token.equals(config.token);
+    }
+
+    private void startReauth(final NotifyPrefs.Config config) {
+        final Socket s = socket;
+        reauthConfig = config;
+        options.query = query(config.token);
+        NotifyStats.onReauthAttempt();
+        NotifyEventLog.log("reauth in-band");
+        handler.removeCallbacks(reauthTimeoutTask);
+        handler.postDelayed(reauthTimeoutTask, REAUTH_TIMEOUT_MS);
         try {
-            if (Build.VERSION.SDK_INT >= 33) {
-                int granted = context.checkSelfPermission("android.permission.POST_NOTIFICATIONS");
-                if (granted != PackageManager.PERMISSION_GRANTED) {
-                    state = "no_permission";
-                    lastError = "POST_NOTIFICATIONS not granted";
-                    lastEventAt = System.currentTimeMillis();
-                    return;
+            JSONObject req = new JSONObject();
+            req.put("token", config.token);
+            s.emit(EVENT_AUTH, new Object[]{req}, new Ack() {
+                @Override
+                public void call(Object... args) {
+                    final boolean ok = isAccepted(args);
+                    runOnHandler(new Runnable() {
+                        @Override
+                        public void run() {
+                            onReauthResult(s, config, ok);
+                        }
+                    });
                 }
+            });
+        } catch (Throwable ignored) {
+            onReauthResult(s, config, false);
+        }
+    }
+
+    private static boolean isAccepted(Object[] args) {
+        Object r = (args != null && args.length > 0) ? args[0] : null;
+        if (r instanceof Boolean) return (Boolean) r;
+        if (r instanceof JSONObject) return ((JSONObject) r).optBoolean("ok", false);
+        return false;
+    }
+
+    private synchronized void onReauthResult(Socket s, NotifyPrefs.Config config, boolean ok) {
+        // 已被新的 refresh/stop 取代
+        if (s != socket || config != reauthConfig) return;
+        if (ok) {
+            NotifyStats.onReauthAccepted();
+            NotifyEventLog.log("reauth ok");
+            finishReauth();
+            return;
+        }
+        NotifyStats.onReauthRejected();
+        NotifyEventLog.log("reauth rejected, reconnecting");
+        fallBackFromReauth();
+    }
+
+    /**
+     * 等 ack 期间连接断开又重连：重连握手已经带上新 token（options.query 已更新），视为认证完成。
+     */
+    private synchronized void onReauthHandshake(Socket s) {
+        if (s != socket || reauthConfig == null) return;
+        NotifyStats.onReauthAccepted();
+        NotifyEventLog.log("reauth via handshake");
+        finishReauth();
+    }
+
+    private synchronized void onReauthTimeout() {
+        if (reauthConfig == null) return;
+        NotifyStats.onReauthTimedOut();
+        NotifyEventLog.log("reauth timed out, reconnecting");
+        fallBackFromReauth();
+    }
+
+    private void finishReauth() {
+        if (handler != null) handler.removeCallbacks(reauthTimeoutTask);
+        appliedVersion = reauthConfig.version;
+        appliedConfig = reauthConfig;
+        reauthConfig = null;
+    }
+
+    private void fallBackFromReauth() {
+        if (handler != null) handler.removeCallbacks(reauthTimeoutTask);
+        reauthRejectedVersion = reauthConfig.version;
+        reauthConfig = null;
+        Context c = appContext;
+        if (c != null) refresh(c);
+    }
+
+    /**
+     * 在 handler 线程上执行；没有 handler 或投递失败时就地执行。用于 socket 事件线程上需要 this 监视器的工作：
+     * this 的监视器在 refresh/stop 期间被持有，socket 事件线程不应等待它。
+     */
+    private void runOnHandler(Runnable r) {
+        if (handler == null || !handler.post(r)) r.run();
+    }
+
+    private void scheduleReconnect() {
+        if (handler == null) return;
+        if (!reconnectPending.compareAndSet(false, true)) return;
+        long delay = ReconnectPolicy.STOP;
+        try {
+            delay = reconnectPolicy.nextDelayMs();
+        } catch (Throwable ignored) {
+        }
+        if (delay < 0 || !handler.postDelayed(reconnectTask, delay)) {
+            // 无网络：等 onNetworkChanged 再重连
+            reconnectPending.set(false);
+            NotifyEventLog.log("reconnect paused");
+            return;
+        }
+        NotifyEventLog.log("reconnect in " + delay + "ms");
+    }
+
+    private synchronized void reconnectNow(boolean force) {
+        reconnectPending.set(false);
+        Socket s = socket;
+        if (s == null) return;
+        try {
+            if (s.connected()) {
+                if (!force) return;
+                s.disconnect();
             }
+            connState.restart(NotifyConnectionState.State.CONNECTING);
+            lastEventAt = System.currentTimeMillis();
+            NotifyStats.onConnectAttempt();
+            s.connect();
         } catch (Throwable ignored) {
         }
+    }
+
+    /**
+     * 按已处理到的游标请求补发。先读游标再解除冻结：解除之后处理的消息不会让这次请求越过被丢弃的那条。
+     *
+     * @param account 附加账号；主连接为 null
+     */
+    private void resume(Socket s, String account) {
+        Context ctx = appContext;
+        if (ctx == null) return;
+        NotifyPrefs.Cursor cursor = account == null ? NotifyPrefs.getCursor(ctx) : NotifyAccounts.getCursor(ctx, account);
+        cursorHeld.remove(account == null ? "" : account);
+        sendResume(s, cursor, account == null ? "" : " " + account);
+    }
+
+    /**
+     * 受游标约束的事件被丢弃时返回其账号（主账号为 ""），其他事件返回 null。
+     * notify.message 按 DROP_OLDEST、notify.replay 按 DROP_NEWEST 丢弃，丢弃后若继续推进游标，下次补发会从它之后开始。
+     */
+    static String droppedCursorScope(String event, Object payload) {
+        if (!EVENT_MESSAGE.equals(event) && !EVENT_REPLAY.equals(event)) return null;
+        if (payload instanceof LitePayload) payload = ((LitePayload) payload).payload;
+        String account = payload instanceof JSONObject ? optString((JSONObject) payload, KEY_ACCOUNT, null) : null;
+        return account == null ? "" : account;
+    }
+
+    /**
+     * 消息在分发队列里被丢弃：冻结该账号的游标（之后的消息照常展示，但不再推进游标），
+     * 并在 handler 线程上按冻结的游标重新请求补发；连接断开时由下次连上的 resume 补上。
+     */
+    private void onMessageDropped(final String scope) {
+        if (!cursorHeld.add(scope)) return;
+        NotifyEventLog.log("message dropped, resume" + (scope.isEmpty() ? "" : " " + scope));
+        runOnHandler(new Runnable() {
+            @Override
+            public void run() {
+                resumeAfterDrop(scope);
+            }
+        });
+    }
+
+    private synchronized void resumeAfterDrop(String scope) {
+        Socket s;
+        if (scope.isEmpty()) {
+            s = socket;
+        } else {
+            AccountChannel c = accountChannels.get(scope);
+            s = c != null ? c.socket : null;
+        }
+        if (s == null || !s.connected()) return;
+        resume(s, scope.isEmpty() ? null : scope);
+    }
 
+    private void sendResume(Socket s, NotifyPrefs.Cursor cursor, String label) {
         try {
-            NotificationManager nm0 = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-            if (nm0 != null && Build.VERSION.SDK_INT >= 24 && !nm0.areNotificationsEnabled()) {
-                state = "notifications_disabled";
-                lastError = "NotificationManager.areNotificationsEnabled=false";
-                lastEventAt = System.currentTimeMillis();
-                return;
+            // 首次连接没有游标：不请求补发，避免把历史消息全部推下来
+            if (cursor.isEmpty()) return;
+            JSONObject req = new JSONObject();
+            req.put("lastMessageId", cursor.messageId);
+            req.put("lastMessageAt", cursor.createdAt);
+            s.emit(EVENT_RESUME, req);
+            NotifyEventLog.log("resume" + label + " after " + cursor.messageId + " @" + cursor.createdAt);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * 让附加账号的命名空间与 NotifyAccounts 一致：移除的账号断开命名空间，新增或换了 token 的账号重新打开。
+     * 只在主连接已连上时打开新命名空间（否则 Socket.open 会绕过 ReconnectPolicy 直接拉起连接）；
+     * 已打开的命名空间随主连接的 Manager 断开与重连，不需要逐个处理。
+     */
+    private synchronized void syncAccounts(Map<String, String> accounts) {
+        final Socket main = socket;
+        if (main == null || !main.connected()) return;
+        Iterator<Map.Entry<String, AccountChannel>> it = accountChannels.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, AccountChannel> e = it.next();
+            if (e.getValue().token.equals(accounts.get(e.getKey()))) continue;
+            closeChannel(e.getValue().socket);
+            liteAccounts.remove(e.getKey());
+            it.remove();
+            NotifyEventLog.log("account " + e.getKey() + " detached");
+        }
+        for (Map.Entry<String, String> e : accounts.entrySet()) {
+            if (accountChannels.containsKey(e.getKey())) continue;
+            Socket a = openAccount(main, e.getKey(), e.getValue());
+            if (a != null) accountChannels.put(e.getKey(), new AccountChannel(e.getValue(), a));
+        }
+    }
+
+    private Socket openAccount(Socket main, final String account, String token) {
+        final Socket a;
+        try {
+            IO.Options o = new IO.Options();
+            Map<String, String> auth = new HashMap<>();
+            auth.put("token", token);
+            o.auth = auth;
+            // 直接构造而不是 Manager.socket()：后者按命名空间缓存 socket，换 token 后仍会拿到带旧 auth 的实例
+            a = new Socket(main.io(), ACCOUNT_NSP_PREFIX + account, o);
+        } catch (Throwable ignored) {
+            return null;
+        }
+        a.on(Socket.EVENT_CONNECT, new Emitter.Listener() {
+            @Override
+            public void call(Object... args) {
+                liteAccounts.remove(account);
+                NotifyStats.onAccountAttached(account);
+                Context ctx = appContext;
+                if (ctx == null) return;
+                pushRules(a, NotifyRules.get(ctx), account);
+                resume(a, account);
+            }
+        });
+        a.on(Socket.EVENT_CONNECT_ERROR, new Emitter.Listener() {
+            @Override
+            public void call(Object... args) {
+                NotifyStats.onAccountRejected(account);
+                NotifyEventLog.log("account " + account + " connect_error: " + (args != null && args.length > 0 ? args[0] : null));
             }
+        });
+        a.onAnyIncoming(new Emitter.Listener() {
+            @Override
+            public void call(Object... args) {
+                if (args == null || args.length == 0) return;
+                String event = String.valueOf(args[0]);
+                Object payload = args.length > 1 ? tagAccount(account, args[1]) : null;
+                if (EVENT_FORMAT.equals(event)) {
+                    if (isLiteFormat(new Object[]{payload})) {
+                        liteAccounts.add(account);
+                    } else {
+                        liteAccounts.remove(account);
+                    }
+                }
+                if (NotifyEventBridge.isForwarding()) NotifyEventBridge.dispatch(event, payload);
+                dispatcher.offer(event, liteAccounts.contains(account) ? asLite(event, payload) : payload);
+            }
+        });
+        try {
+            a.connect();
         } catch (Throwable ignored) {
         }
+        return a;
+    }
 
-        ensureChannel(context);
+    private void closeAccounts() {
+        for (AccountChannel c : accountChannels.values()) closeChannel(c.socket);
+        accountChannels.clear();
+        liteAccounts.clear();
+    }
 
-        String title = "Minechat";
-        String body = "你有新消息";
+    private static void closeChannel(Socket a) {
+        try {
+            a.off();
+            a.offAnyIncoming();
+            a.disconnect();
+        } catch (Throwable ignored) {
+        }
+    }
 
+    /**
+     * 附加账号命名空间上的载荷带上 account：对象直接加字段，数组（notify.replay）包成 {items, account}。
+     */
+    private static Object tagAccount(String account, Object payload) {
         try {
-            JSONObject json = null;
+            if (payload instanceof String) {
+                String text = ((String) payload).trim();
+                payload = text.startsWith("[") ? new JSONArray(text) : new JSONObject(text);
+            }
             if (payload instanceof JSONObject) {
-                json = (JSONObject) payload;
-            } else if (payload instanceof String) {
-                json = new JSONObject((String) payload);
+                ((JSONObject) payload).put(KEY_ACCOUNT, account);
+            } else if (payload instanceof JSONArray) {
+                JSONObject wrapped = new JSONObject();
+                wrapped.put("items", payload);
+                wrapped.put(KEY_ACCOUNT, account);
+                payload = wrapped;
             }
+        } catch (Throwable ignored) {
+        }
+        return payload;
+    }
+
+    // 附加账号的会话在通知与聚合里单独成组，不与主账号（或其他账号）的同名会话合并
+    private static String scope(String account, String chatId) {
+        return account == null || chatId == null ? chatId : account + "/" + chatId;
+    }
 
-            if (json != null) {
-                if (json.has("chatName")) title = optString(json, "chatName", title);
-                if (json.has("chat")) {
-                    JSONObject chat = json.optJSONObject("chat");
-                    if (chat != null && chat.has("name")) title = optString(chat, "name", title);
+    /**
+     * 规则变化：发给主连接和每个已连上的附加账号命名空间。
+     */
+    private synchronized void pushRulesToAll(NotifyRules rules) {
+        Socket s = socket;
+        if (s != null && s.connected()) pushRules(s, rules, null);
+        for (Map.Entry<String, AccountChannel> e : accountChannels.entrySet()) {
+            Socket a = e.getValue().socket;
+            if (a.connected()) pushRules(a, rules, e.getKey());
+        }
+    }
+
+    /**
+     * 把过滤规则发给服务端。每个连接（命名空间）都要发一次，服务端按连接保存，
+     * 附加账号的命名空间只带该账号的会话（NotifyRules#toWireJson）；从未设置过规则时不发。
+     *
+     * @param account 附加账号；主连接为 null
+     */
+    private void pushRules(Socket s, final NotifyRules rules, String account) {
+        if (rules.version == 0L) return;
+        try {
+            NotifyStats.onRulesPushed(rules.version);
+            s.emit(EVENT_FILTER, new Object[]{rules.toWireJson(account)}, new Ack() {
+                @Override
+                public void call(Object... args) {
+                    if (isAccepted(args)) NotifyStats.onRulesAcked(rules.version);
+                }
+            });
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private void listen(final Socket s, final String event) {
+        // 同一事件只挂一个监听，重复注册处理器时不会重复入队
+        s.off(event);
+        s.on(event, new Emitter.Listener() {
+            @Override
+            public void call(Object... args) {
+                // socket.io 事件线程：只入队，不做任何解析/通知
+                Object payload = (args != null && args.length > 0) ? args[0] : null;
+                dispatcher.offer(event, liteSocket == s ? asLite(event, payload) : payload);
+            }
+        });
+    }
+
+    private static boolean isLiteFormat(Object[] args) {
+        JSONObject o = (args != null && args.length > 0) ? asObject(args[0]) : null;
+        return o != null && NotifyPayloadParser.LITE_FORMAT.equals(optString(o, "fmt", null));
+    }
+
+    // 只有消息载荷有精简投影；其他事件原样入队
+    private static Object asLite(String event, Object payload) {
+        if (payload == null || !(EVENT_MESSAGE.equals(event) || EVENT_REPLAY.equals(event))) return payload;
+        return new LitePayload(payload);
+    }
+
+    /**
+     * 把已确认的精简投影连接补发给刚注册的 JS 监听（它错过了连接时的 notify.format），载荷同服务端下发的形状。
+     */
+    void forwardFormats() {
+        try {
+            Socket s = socket;
+            if (s != null && liteSocket == s) NotifyEventBridge.dispatch(EVENT_FORMAT, formatPayload(null));
+            for (String account : liteAccounts) NotifyEventBridge.dispatch(EVENT_FORMAT, formatPayload(account));
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private static JSONObject formatPayload(String account) throws Exception {
+        JSONObject o = new JSONObject();
+        o.put("fmt", NotifyPayloadParser.LITE_FORMAT);
+        if (account != null) o.put(KEY_ACCOUNT, account);
+        return o;
+    }
+
+    private void registerBuiltinHandlers() {
+        // 消息只丢最旧的：积压时优先展示最新的消息
+        dispatcher.register(EVENT_MESSAGE, 256, NotifyEventDispatcher.Overflow.DROP_OLDEST, new NotifyEventHandler<NotifyPayloadParser.Result>() {
+            @Override
+            public NotifyPayloadParser.Result decode(Object payload) {
+                return parsePayload(payload);
+            }
+
+            @Override
+            public void handle(NotifyPayloadParser.Result event) {
+                Context ctx = appContext;
+                if (ctx != null) deliver(ctx, event);
+            }
+        });
+
+        /*
+         * 服务端补发的断线期间消息：数组，或 {items: [...]} / {messages: [...]}，每项与 notify.message 载荷相同。
+         * 全部交给聚合器，在同一个批处理窗口内发布，因此每个会话只更新一次通知而不是 N 条。
+         */
+        dispatcher.register(EVENT_REPLAY, 4, NotifyEventDispatcher.Overflow.DROP_NEWEST, new NotifyEventHandler<JSONArray>() {
+            @Override
+            public JSONArray decode(Object payload) {
+                try {
+                    boolean lite = payload instanceof LitePayload;
+                    if (lite) payload = ((LitePayload) payload).payload;
+                    JSONArray items = null;
+                    String account = null;
+                    if (payload instanceof JSONArray) {
+                        items = (JSONArray) payload;
+                    } else if (payload instanceof String && ((String) payload).trim().startsWith("[")) {
+                        items = new JSONArray((String) payload);
+                    } else {
+                        JSONObject obj = asObject(payload);
+                        if (obj == null) return null;
+                        items = obj.optJSONArray("items");
+                        if (items == null) items = obj.optJSONArray("messages");
+                        account = optString(obj, KEY_ACCOUNT, null);
+                    }
+                    if (items == null || (account == null && !lite)) return items;
+                    for (int i = 0; i < items.length(); i++) {
+                        Object item = account != null ? tagAccount(account, items.opt(i)) : items.opt(i);
+                        items.put(i, lite ? new LitePayload(item) : item);
+                    }
+                    return items;
+                } catch (Throwable ignored) {
+                    return null;
                 }
+            }
 
-                JSONObject msg = json.optJSONObject("message");
-                if (msg != null) {
-                    Object content = msg.opt("content");
-                    if (content instanceof String) {
-                        body = (String) content;
-                    } else if (content instanceof JSONObject) {
-                        JSONObject c = (JSONObject) content;
-                        body = optString(c, "text", optString(c, "body", body));
-                    } else if (content != null) {
-                        body = String.valueOf(content);
+            @Override
+            public void handle(JSONArray items) {
+                Context ctx = appContext;
+                if (ctx == null) return;
+                NotifyEventLog.log("replay " + items.length() + " items");
+                for (int i = 0; i < items.length(); i++) {
+                    try {
+                        deliver(ctx, parsePayload(items.opt(i)));
+                    } catch (Throwable ignored) {
                     }
                 }
             }
+        });
+
+        dispatcher.register(EVENT_UNREAD, 64, NotifyEventDispatcher.Overflow.DROP_OLDEST, new NotifyEventHandler<JSONObject>() {
+            @Override
+            public JSONObject decode(Object payload) {
+                return asObject(payload);
+            }
+
+            @Override
+            public void handle(JSONObject event) {
+                String chatId = scope(optString(event, KEY_ACCOUNT, null), optString(event, "chatId", null));
+                long unread = event.optLong("unread", event.optLong("count", -1L));
+                if (chatId != null && unread == 0L) cancelChat(chatId);
+            }
+        });
+
+        dispatcher.register(EVENT_READ, 64, NotifyEventDispatcher.Overflow.DROP_OLDEST, new NotifyEventHandler<JSONObject>() {
+            @Override
+            public JSONObject decode(Object payload) {
+                return asObject(payload);
+            }
+
+            @Override
+            public void handle(JSONObject event) {
+                String chatId = scope(optString(event, KEY_ACCOUNT, null), optString(event, "chatId", null));
+                if (chatId != null) cancelChat(chatId);
+            }
+        });
+
+        dispatcher.register(EVENT_CHAT_UPDATE, 32, NotifyEventDispatcher.Overflow.DROP_OLDEST, new NotifyEventHandler<JSONObject>() {
+            @Override
+            public JSONObject decode(Object payload) {
+                JSONObject obj = asObject(payload);
+                if (obj == null) return null;
+                // 兼容 {chat: {...}} 包一层的写法
+                JSONObject chat = obj.optJSONObject("chat");
+                if (chat == null) return obj;
+                try {
+                    if (obj.has(KEY_ACCOUNT)) chat.put(KEY_ACCOUNT, obj.opt(KEY_ACCOUNT));
+                } catch (Throwable ignored) {
+                }
+                return chat;
+            }
+
+            @Override
+            public void handle(JSONObject event) {
+                Context ctx = appContext;
+                if (ctx == null) return;
+                String chatId = scope(optString(event, KEY_ACCOUNT, null), optString(event, "chatId", optString(event, "id", null)));
+                if (chatId == null) return;
+                ChatNotificationAggregator a = ensureAggregator(ctx);
+                String name = optString(event, "name", null);
+                if (name != null) a.rename(chatId, name);
+                if (event.has("muted")) {
+                    boolean muted = event.optBoolean("muted", false);
+                    a.setMuted(chatId, muted);
+                    if (muted) NotifyOutbox.get(ctx).removeChat(chatId);
+                }
+            }
+        });
+    }
+
+    private void cancelChat(String chatId) {
+        Context ctx = appContext;
+        if (ctx == null) return;
+        ensureAggregator(ctx).cancel(chatId);
+        NotifyOutbox.get(ctx).removeChat(chatId);
+    }
+
+    private static NotifyPayloadParser.Result parsePayload(Object payload) {
+        boolean lite = payload instanceof LitePayload;
+        if (lite) payload = ((LitePayload) payload).payload;
+        if (payload instanceof JSONObject) {
+            // socket.io 已经把对象载荷解析成 JSONObject，直接取字段即可
+            return parseJsonPayload((JSONObject) payload, lite);
+        }
+        if (payload instanceof String) {
+            // 字符串载荷流式提取，不再完整构建 JSONObject
+            return NotifyPayloadParser.parse((String) payload, lite);
+        }
+        return NotifyPayloadParser.DEFAULT;
+    }
+
+    private static JSONObject asObject(Object payload) {
+        try {
+            if (payload instanceof JSONObject) return (JSONObject) payload;
+            if (payload instanceof String) return new JSONObject((String) payload);
         } catch (Throwable ignored) {
         }
+        return null;
+    }
 
-        Intent launchIntent = null;
+    private void deliver(Context context, NotifyPayloadParser.Result parsed) {
+        NotifyStats.onMessageReceived();
+        NotifyStartupTrace.mark(NotifyStartupTrace.Phase.FIRST_MESSAGE);
+        String account = parsed.account;
+        if (account != null) NotifyStats.onAccountMessage(account);
+
+        // 消息已送达本机：无论能否展示都推进游标，重连时只补发之后的消息；丢弃过消息时游标冻结，等补发
         try {
-            PackageManager pm = context.getPackageManager();
-            launchIntent = pm.getLaunchIntentForPackage(context.getPackageName());
+            if (!cursorHeld.contains(account == null ? "" : account)) {
+                if (account == null) {
+                    NotifyPrefs.setCursor(context, parsed.messageId, parsed.createdAt);
+                } else {
+                    NotifyAccounts.setCursor(context, account, parsed.messageId, parsed.createdAt);
+                }
+            }
         } catch (Throwable ignored) {
         }
 
-        PendingIntent pi = null;
-        if (launchIntent != null) {
-            int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) flags |= PendingIntent.FLAG_IMMUTABLE;
-            pi = PendingIntent.getActivity(context, 0, launchIntent, flags);
+        // 同一条消息可能已经由 JS socket / UniPush 展示过；附加账号的消息按账号区分
+        try {
+            String dedupKey = account == null || parsed.messageId == null ? parsed.messageId : account + ":" + parsed.messageId;
+            if (!NotifyDedupStore.get(context).markSeen(dedupKey)) {
+                NotifyStats.onMessageDeduped();
+                return;
+            }
+        } catch (Throwable ignored) {
         }
 
-        Notification notification;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            Notification.Builder builder = new Notification.Builder(context, CHANNEL_ID)
-                    .setContentTitle(title)
-                    .setContentText(body)
-                    .setSmallIcon(android.R.drawable.stat_notify_chat)
-                    .setAutoCancel(true);
-            if (pi != null) builder.setContentIntent(pi);
-            notification = builder.build();
-        } else {
-            Notification.Builder builder = new Notification.Builder(context)
-                    .setContentTitle(title)
-                    .setContentText(body)
-                    .setSmallIcon(android.R.drawable.stat_notify_chat)
-                    .setAutoCancel(true);
-            if (pi != null) builder.setContentIntent(pi);
-            notification = builder.build();
+        // 服务端不支持 notify.filter 或规则还没送达时的兜底；附加账号的会话按 "accountId/chatId" 匹配
+        String chatId = scope(account, parsed.chatId);
+        if (!NotifyRules.get(context).allows(chatId, parsed.mentioned, System.currentTimeMillis())) {
+            NotifyStats.onFilteredLocally();
+            return;
+        }
+
+        long serverTime = NotifyStats.parseServerTime(parsed.createdAt);
+        NotifyConnectionState.State blocked = notifyBlocked(context);
+        if (blocked != null) {
+            if (blocked == NotifyConnectionState.State.NO_PERMISSION) {
+                NotifyStats.onDroppedNoPermission();
+                lastError = "POST_NOTIFICATIONS not granted";
+            } else {
+                NotifyStats.onDroppedDisabled();
+                lastError = "NotificationManager.areNotificationsEnabled=false";
+            }
+            connState.moveTo(blocked);
+            lastEventAt = System.currentTimeMillis();
+            // 存入待发箱：授权或重新打开通知后由 flushOutbox 按会话合并补发
+            NotifyOutbox.get(context).add(chatId, parsed.title, parsed.body, parsed.avatarUrl, serverTime);
+            return;
         }
 
+        ensureChannel(context);
+        if (account != null) NotifyStats.onAccountShown(account);
+        ChatNotificationAggregator a = ensureAggregator(context);
+        // 通知已经能发了：先把之前没发出去的并入同一批
+        NotifyOutbox outbox = NotifyOutbox.get(context);
+        if (!outbox.isEmpty()) drainOutbox(outbox, a);
+        a.add(chatId, parsed.title, parsed.body, parsed.avatarUrl, serverTime);
+    }
+
+    /**
+     * 通知恢复可用（用户授予了通知权限、App 回到前台）时调用：把待发箱里的消息按会话合并补发，每个会话一条通知。
+     * 通知仍不可用时保留待发箱。可在任意线程调用。
+     *
+     * @return 补发的消息条数
+     */
+    public int flushOutbox(Context context) {
+        if (context == null) return 0;
+        Context app = context.getApplicationContext();
+        if (notifyBlocked(app) != null) return 0;
+        // 权限/开关已恢复；NOTIFY_ERROR 等补发的通知真正发出后再撤
+        clearDeliveryError(false);
+        NotifyOutbox outbox = NotifyOutbox.get(app);
+        if (outbox.isEmpty()) return 0;
+        ensureChannel(app);
+        return drainOutbox(outbox, ensureAggregator(app));
+    }
+
+    private static int drainOutbox(NotifyOutbox outbox, ChatNotificationAggregator a) {
+        List<NotifyOutbox.Record> records = outbox.drain();
+        // 全部在一个批处理窗口内加入，聚合器按会话合并发布
+        for (NotifyOutbox.Record r : records) a.add(r.chatId, r.title, r.body, r.avatarUrl, r.serverTimeMs);
+        NotifyStats.onOutboxFlushed(records.size());
+        if (!records.isEmpty()) NotifyEventLog.log("outbox flushed " + records.size());
+        return records.size();
+    }
+
+    /**
+     * 撤掉覆盖在 CONNECTED 上的投递失败状态（见 NotifyConnectionState#clearDeliveryError）。
+     *
+     * @param rendered 通知确实发出去了（聚合器回调）；false 表示只是权限/开关恢复
+     */
+    private void clearDeliveryError(boolean rendered) {
+        Socket s = socket;
+        if (s != null && s.connected()) connState.clearDeliveryError(rendered);
+    }
+
+    /**
+     * 通知当前发不出去的原因；能发时返回 null。
+     * Android 13+ 缺少 POST_NOTIFICATIONS 时 notify 会直接抛 SecurityException，这里提前判断避免静默失败。
+     */
+    private static NotifyConnectionState.State notifyBlocked(Context context) {
+        try {
+            if (Build.VERSION.SDK_INT >= 33
+                    && context.checkSelfPermission("android.permission.POST_NOTIFICATIONS") != PackageManager.PERMISSION_GRANTED) {
+                return NotifyConnectionState.State.NO_PERMISSION;
+            }
+        } catch (Throwable ignored) {
+        }
         try {
             NotificationManager nm = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-            if (nm != null) {
-                int id = NOTIFICATION_ID_BASE + (int) (System.currentTimeMillis() % 1000);
-                nm.notify(id, notification);
+            if (nm != null && Build.VERSION.SDK_INT >= 24 && !nm.areNotificationsEnabled()) {
+                return NotifyConnectionState.State.NOTIFICATIONS_DISABLED;
             }
         } catch (Throwable ignored) {
-            try {
-                state = "notify_error";
-                lastError = String.valueOf(ignored);
-                lastEventAt = System.currentTimeMillis();
-            } catch (Throwable ignored2) {
+        }
+        return null;
+    }
+
+    // 不用 this 加锁：this 的监视器在 refresh/stop 期间被持有，socket 事件线程不应等待它
+    private ChatNotificationAggregator ensureAggregator(final Context context) {
+        ChatNotificationAggregator a = aggregator;
+        if (a != null) return a;
+        synchronized (aggregatorLock) {
+            if (aggregator == null) {
+                aggregator = new ChatNotificationAggregator(context, CHANNEL_ID, handler, new ChatNotificationAggregator.Callback() {
+                    @Override
+                    public void onNotifyError(Throwable error) {
+                        NotifyStats.onNotifyError();
+                        connState.moveTo(NotifyConnectionState.State.NOTIFY_ERROR);
+                        lastError = String.valueOf(error);
+                        NotifyEventLog.log("notify error: " + lastError);
+                        lastEventAt = System.currentTimeMillis();
+                    }
+
+                    @Override
+                    public void onRendered() {
+                        clearDeliveryError(true);
+                    }
+
+                    @Override
+                    public void onUndelivered(String chatKey, String title, String avatarUrl, List<String> lines, long[] serverTimes) {
+                        NotifyOutbox outbox = NotifyOutbox.get(context);
+                        // lines 是最后几条新消息，serverTimes 对应全部新消息
+                        int offset = serverTimes.length - lines.size();
+                        for (int i = 0; i < lines.size(); i++) {
+                            outbox.add(chatKey, title, lines.get(i), avatarUrl, i + offset >= 0 ? serverTimes[i + offset] : -1L);
+                        }
+                    }
+                });
             }
+            return aggregator;
         }
     }
 
@@ -309,12 +1295,68 @@ public final class NotifySocketManager {
         }
     }
 
-    private static String safeTrim(String s) {
-        return s == null ? "" : s.trim();
+    // 包内可见：bench/ 下的基准测试直接调用
+    static NotifyPayloadParser.Result parseJsonPayload(JSONObject json) {
+        return parseJsonPayload(json, false);
+    }
+
+    // lite：该连接确认了精简投影，根上的短键才参与取值（同 NotifyPayloadParser#parse(String, boolean)）
+    static NotifyPayloadParser.Result parseJsonPayload(JSONObject json, boolean lite) {
+        String title = NotifyPayloadParser.DEFAULT_TITLE;
+        String body = NotifyPayloadParser.DEFAULT_BODY;
+        String chatId = null;
+        String messageId = null;
+        String createdAt = null;
+        String avatarUrl = null;
+        boolean mentioned = false;
+        String account = null;
+        try {
+            account = optString(json, KEY_ACCOUNT, null);
+            // 精简投影的短键（见 NotifyPayloadParser），完整字段随后覆盖
+            messageId = optString(json, "messageId", lite ? optString(json, "i", null) : null);
+            createdAt = optString(json, "createdAt", lite ? optString(json, "t", null) : null);
+            title = optString(json, "chatName", lite ? optString(json, "n", title) : title);
+            chatId = optString(json, "chatId", lite ? optString(json, "c", null) : null);
+            if (json.has("chat")) {
+                JSONObject chat = json.optJSONObject("chat");
+                if (chat != null && chat.has("name")) title = optString(chat, "name", title);
+                if (chat != null && chatId == null) chatId = optString(chat, "id", null);
+                if (chat != null) avatarUrl = optString(chat, "avatar", null);
+            }
+
+            JSONObject msg = json.optJSONObject("message");
+            if (lite && msg == null && !json.isNull("b")) body = String.valueOf(json.opt("b"));
+            if (msg != null) {
+                String id = optString(msg, "id", optString(msg, "_id", null));
+                if (id != null) messageId = id;
+                String at = optString(msg, "createdAt", null);
+                if (at != null) createdAt = at;
+                JSONObject sender = msg.optJSONObject("sender");
+                if (avatarUrl == null && sender != null) avatarUrl = optString(sender, "avatar", null);
+                mentioned = NotifyPayloadParser.isTrue(optString(msg, "mentioned", null));
+            }
+            if (lite && !mentioned) mentioned = NotifyPayloadParser.isTrue(optString(json, "m", null));
+            if (lite && avatarUrl == null) avatarUrl = optString(json, "a", null);
+            if (msg != null && !msg.isNull("content")) {
+                Object content = msg.opt("content");
+                if (content instanceof String) {
+                    body = (String) content;
+                } else if (content instanceof JSONObject) {
+                    JSONObject c = (JSONObject) content;
+                    body = optString(c, "text", optString(c, "body", body));
+                } else if (content != null) {
+                    body = String.valueOf(content);
+                }
+            }
+        } catch (Throwable ignored) {
+        }
+        return new NotifyPayloadParser.Result(title, NotifyPayloadParser.truncateBody(body), chatId, messageId, createdAt, avatarUrl, mentioned, account);
     }
 
     private static String optString(JSONObject obj, String key, String def) {
         try {
+            // 与 NotifyPayloadParser 保持一致：JSON null 视为缺省
+            if (obj.isNull(key)) return def;
             String v = obj.optString(key, "");
             if (v == null) return def;
             v = v.trim();
@@ -0,0 +1,118 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.os.SystemClock;
+
+import org.json.JSONObject;
+
+/**
+ * 冷启动（开机广播或进程被系统重建）到第一条 socket 连上、第一条消息到达的分阶段耗时。
+ * <p>
+ * 每次启动由 {@link #begin} 开一条新的记录，各阶段只记第一次到达：相对起点的时刻 atMs，以及有起止的阶段自身的耗时 tookMs。
+ * 没有进行中的记录或阶段已经记过时，{@link #start}/{@link #mark} 只有一次 volatile 读，可以留在 refresh 等热路径上。
+ * 结果见 getNotifyStats 的 startup。
+ */
+public final class NotifyStartupTrace {
+
+    public enum Phase {
+        RECEIVER("receiver"),
+        SERVICE_CREATE("serviceCreate"),
+        CHANNEL("channel"),
+        CONFIG("config"),
+        PREWARM("prewarm"),
+        SOCKET_BUILD("socketBuild"),
+        CONNECTED("connected"),
+        FIRST_MESSAGE("firstMessage");
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final long[] TO_CONNECTED_BOUNDS_MS = {250, 500, 1_000, 2_000, 5_000, 10_000, 30_000, 60_000};
+    // 开机广播之后这么久还没创建服务（或上一次始终没连上），再 begin 时按新的一次启动计
+    private static final long STALE_MS = 5 * 60_000;
+
+    private static final Object LOCK = new Object();
+    private static final int PHASES = Phase.values().length;
+    // 以下在 LOCK 上加锁访问；pendingMask 是尚未到达的阶段，供无锁快路径判断
+    private static long origin;
+    private static String trigger = "";
+    private static int traces;
+    private static final long[] at = new long[PHASES];
+    private static final long[] took = new long[PHASES];
+    private static volatile int pendingMask;
+    private static final NotifyStats.Histogram toConnected = new NotifyStats.Histogram(TO_CONNECTED_BOUNDS_MS);
+
+    private NotifyStartupTrace() {}
+
+    /**
+     * 开始一次启动记录。上一次记录还没到 CONNECTED 且不久前才开始时（开机广播之后创建服务）沿用它。
+     *
+     * @param source boot / service
+     */
+    public static void begin(String source) {
+        synchronized (LOCK) {
+            long now = SystemClock.elapsedRealtime();
+            if (origin != 0L && at[Phase.CONNECTED.ordinal()] < 0 && now - origin < STALE_MS) return;
+            origin = now;
+            trigger = source == null ? "" : source;
+            traces++;
+            for (int i = 0; i < PHASES; i++) {
+                at[i] = -1L;
+                took[i] = -1L;
+            }
+            pendingMask = (1 << PHASES) - 1;
+        }
+    }
+
+    /**
+     * 阶段开始；该阶段不需要记录时返回 0，{@link #end} 会忽略它。
+     */
+    public static long start(Phase phase) {
+        return (pendingMask & (1 << phase.ordinal())) == 0 ? 0L : SystemClock.elapsedRealtime();
+    }
+
+    public static void end(Phase phase, long startedAt) {
+        if (startedAt == 0L) return;
+        record(phase, startedAt);
+    }
+
+    /** 没有自身耗时的时间点（收到广播、连上、第一条消息）。 */
+    public static void mark(Phase phase) {
+        if ((pendingMask & (1 << phase.ordinal())) == 0) return;
+        record(phase, 0L);
+    }
+
+    private static void record(Phase phase, long startedAt) {
+        int bit = 1 << phase.ordinal();
+        synchronized (LOCK) {
+            if ((pendingMask & bit) == 0) return;
+            long now = SystemClock.elapsedRealtime();
+            at[phase.ordinal()] = now - origin;
+            if (startedAt != 0L) took[phase.ordinal()] = now - startedAt;
+            pendingMask &= ~bit;
+            if (phase == Phase.CONNECTED) toConnected.record(now - origin);
+        }
+    }
+
+    static JSONObject toJson() throws Exception {
+        JSONObject o = new JSONObject();
+        synchronized (LOCK) {
+            o.put("trigger", trigger);
+            o.put("traces", traces);
+            JSONObject phases = new JSONObject();
+            for (Phase p : Phase.values()) {
+                if (origin == 0L || at[p.ordinal()] < 0) continue;
+                JSONObject ph = new JSONObject();
+                ph.put("atMs", at[p.ordinal()]);
+                if (took[p.ordinal()] >= 0) ph.put("tookMs", took[p.ordinal()]);
+                phases.put(p.key, ph);
+            }
+            o.put("phases", phases);
+        }
+        o.put("timeToConnectedMs", toConnected.toJson());
+        return o;
+    }
+}
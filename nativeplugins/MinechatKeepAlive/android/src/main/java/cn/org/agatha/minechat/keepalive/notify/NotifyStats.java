@@ -0,0 +1,601 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.os.SystemClock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 原生通知连接与投递的进程内统计。
+ * <p>
+ * 热路径上只有原子计数器自增和固定分桶直方图的一次查找，不分配对象；
+ * {@link #toJson()} 在读取时才拼装快照，供 JS 通过 getNotifyStats 上报。
+ */
+public final class NotifyStats {
+    // 直方图桶上界（毫秒，含），最后一个桶收纳超出最大上界的样本
+    private static final long[] CONNECT_BOUNDS_MS = {100, 250, 500, 1_000, 2_000, 5_000, 10_000, 20_000};
+    private static final long[] PHASE_BOUNDS_MS = {10, 25, 50, 100, 250, 500, 1_000, 2_000, 5_000};
+    private static final long[] LATENCY_BOUNDS_MS = {50, 100, 250, 500, 1_000, 2_000, 5_000, 10_000, 30_000, 60_000, 300_000};
+
+    // socket.io 的断开原因是有限的几种；异常值超过上限后计入 other，防止表无限增长
+    private static final int MAX_DISCONNECT_REASONS = 16;
+    private static final String OTHER_REASON = "other";
+    // 附加账号最多 NotifyAccounts.MAX_ACCOUNTS 个，但会增删；历史账号超过上限后同样计入 other
+    private static final int MAX_ACCOUNT_STATS = 16;
+
+    static final class Histogram {
+        private final long[] bounds;
+        private final AtomicLongArray counts;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) i++;
+            counts.incrementAndGet(i);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+        }
+
+        JSONObject toJson() throws Exception {
+            JSONObject o = new JSONObject();
+            JSONArray b = new JSONArray();
+            for (long v : bounds) b.put(v);
+            JSONArray c = new JSONArray();
+            for (int i = 0; i < counts.length(); i++) c.put(counts.get(i));
+            o.put("bounds", b);
+            o.put("counts", c);
+            o.put("count", count.get());
+            o.put("sum", sum.get());
+            return o;
+        }
+    }
+
+    private static final AtomicLong connectAttempts = new AtomicLong();
+    private static final AtomicLong connectSuccesses = new AtomicLong();
+    private static final AtomicLong connectFailures = new AtomicLong();
+    private static final Histogram timeToConnect = new Histogram(CONNECT_BOUNDS_MS);
+    private static final ConcurrentHashMap<String, AtomicLong> disconnectReasons = new ConcurrentHashMap<>();
+
+    private static final AtomicLong messagesReceived = new AtomicLong();
+    private static final AtomicLong messagesRendered = new AtomicLong();
+    private static final AtomicLong messagesDeduped = new AtomicLong();
+    private static final AtomicLong droppedNoPermission = new AtomicLong();
+    private static final AtomicLong droppedDisabled = new AtomicLong();
+    private static final AtomicLong notifyErrors = new AtomicLong();
+    private static final Histogram deliveryLatency = new Histogram(LATENCY_BOUNDS_MS);
+
+    private static final AtomicLong avatarMemoryHits = new AtomicLong();
+    private static final AtomicLong avatarDiskHits = new AtomicLong();
+    private static final AtomicLong avatarFetched = new AtomicLong();
+    private static final AtomicLong avatarFailed = new AtomicLong();
+    private static final AtomicLong avatarCoalesced = new AtomicLong();
+    private static final AtomicLong avatarDeferred = new AtomicLong();
+    private static final AtomicLong avatarReposted = new AtomicLong();
+
+    // 建连各阶段（见 NotifyHttp）：DNS、TCP、TLS；TLS 按完整握手与会话恢复分开统计
+    private static final AtomicLong dnsCacheHits = new AtomicLong();
+    private static final AtomicLong dnsStaleFallbacks = new AtomicLong();
+    private static final Histogram dnsLookup = new Histogram(PHASE_BOUNDS_MS);
+    private static final Histogram tcpConnect = new Histogram(PHASE_BOUNDS_MS);
+    private static final Histogram tlsFull = new Histogram(PHASE_BOUNDS_MS);
+    private static final Histogram tlsResumed = new Histogram(PHASE_BOUNDS_MS);
+
+    private static final AtomicLong reauthAttempts = new AtomicLong();
+    private static final AtomicLong reauthAccepted = new AtomicLong();
+    private static final AtomicLong reauthRejected = new AtomicLong();
+    private static final AtomicLong reauthTimedOut = new AtomicLong();
+
+    private static final AtomicLong filterPushed = new AtomicLong();
+    private static final AtomicLong filterAcked = new AtomicLong();
+    private static final AtomicLong filterPushedVersion = new AtomicLong();
+    private static final AtomicLong filterAckedVersion = new AtomicLong();
+    private static final AtomicLong filteredLocally = new AtomicLong();
+
+    // 附加账号（NotifyAccounts）各自的计数：命名空间连上/被拒次数，收到/交给通知栏的消息数
+    private static final class AccountCounters {
+        final AtomicLong attached = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong shown = new AtomicLong();
+    }
+
+    private static final ConcurrentHashMap<String, AccountCounters> accounts = new ConcurrentHashMap<>();
+
+    // 待发箱（NotifyOutbox）：存入、因容量淘汰、过期丢弃、恢复后补发的条数
+    private static final AtomicLong outboxStored = new AtomicLong();
+    private static final AtomicLong outboxEvicted = new AtomicLong();
+    private static final AtomicLong outboxExpired = new AtomicLong();
+    private static final AtomicLong outboxFlushed = new AtomicLong();
+
+    private static final AtomicLong foregroundPublished = new AtomicLong();
+    private static final AtomicLong foregroundSkipped = new AtomicLong();
+
+    // 常驻服务与补收任务各有一个分发器，统计输出最早挂上的那个（常驻服务的）
+    private static final CopyOnWriteArrayList<NotifyEventDispatcher> dispatchers = new CopyOnWriteArrayList<>();
+
+    // 连接时长统计，连接/断开频率很低，直接在类上加锁
+    private static long attemptStartedAt;
+    private static long trackingSince;
+    private static long connectedSince;
+    private static long connectedTotalMs;
+
+    private NotifyStats() {}
+
+    static void attachDispatcher(NotifyEventDispatcher d) {
+        dispatchers.addIfAbsent(d);
+    }
+
+    static void detachDispatcher(NotifyEventDispatcher d) {
+        dispatchers.remove(d);
+    }
+
+    static void onConnectAttempt() {
+        connectAttempts.incrementAndGet();
+        synchronized (NotifyStats.class) {
+            long now = SystemClock.elapsedRealtime();
+            attemptStartedAt = now;
+            if (trackingSince == 0L) trackingSince = now;
+        }
+    }
+
+    static void onConnected() {
+        connectSuccesses.incrementAndGet();
+        synchronized (NotifyStats.class) {
+            long now = SystemClock.elapsedRealtime();
+            if (attemptStartedAt != 0L) timeToConnect.record(now - attemptStartedAt);
+            attemptStartedAt = 0L;
+            if (connectedSince == 0L) connectedSince = now;
+        }
+    }
+
+    static void onConnectError() {
+        connectFailures.incrementAndGet();
+        synchronized (NotifyStats.class) {
+            attemptStartedAt = 0L;
+        }
+    }
+
+    static void onDisconnected(Object reason) {
+        String key = reason == null ? "unknown" : String.valueOf(reason);
+        AtomicLong c = disconnectReasons.get(key);
+        if (c == null) {
+            if (disconnectReasons.size() >= MAX_DISCONNECT_REASONS) key = OTHER_REASON;
+            AtomicLong created = new AtomicLong();
+            c = disconnectReasons.putIfAbsent(key, created);
+            if (c == null) c = created;
+        }
+        c.incrementAndGet();
+        closeConnectedSpan();
+    }
+
+    /**
+     * 主动断开（stop/重建）同样结束在线时长，但不计入断开原因。
+     */
+    static void onStopped() {
+        closeConnectedSpan();
+    }
+
+    static void onMessageReceived() {
+        messagesReceived.incrementAndGet();
+    }
+
+    static void onMessageDeduped() {
+        messagesDeduped.incrementAndGet();
+    }
+
+    static void onDroppedNoPermission() {
+        droppedNoPermission.incrementAndGet();
+    }
+
+    static void onDroppedDisabled() {
+        droppedDisabled.incrementAndGet();
+    }
+
+    static void onNotifyError() {
+        notifyErrors.incrementAndGet();
+    }
+
+    /**
+     * 一条消息已经交给 NotificationManager。
+     *
+     * @param serverTimeMs 载荷中的服务端时间（epoch 毫秒），未知时传小于等于 0 的值
+     */
+    static void onMessageRendered(long serverTimeMs) {
+        messagesRendered.incrementAndGet();
+        if (serverTimeMs > 0) deliveryLatency.record(System.currentTimeMillis() - serverTimeMs);
+    }
+
+    static void onAvatarMemoryHit() {
+        avatarMemoryHits.incrementAndGet();
+    }
+
+    static void onAvatarDiskHit() {
+        avatarDiskHits.incrementAndGet();
+    }
+
+    static void onAvatarFetched() {
+        avatarFetched.incrementAndGet();
+    }
+
+    static void onAvatarFailed() {
+        avatarFailed.incrementAndGet();
+    }
+
+    /** 同一头像已在加载中，本次请求复用它。 */
+    static void onAvatarCoalesced() {
+        avatarCoalesced.incrementAndGet();
+    }
+
+    /** 发布通知时头像还没加载好，通知先不带大图标发出。 */
+    static void onAvatarDeferred() {
+        avatarDeferred.incrementAndGet();
+    }
+
+    /** 头像加载完成后，把先发出的会话通知带上大图标静默更新了一次。 */
+    static void onAvatarReposted() {
+        avatarReposted.incrementAndGet();
+    }
+
+    static void onDnsCacheHit() {
+        dnsCacheHits.incrementAndGet();
+    }
+
+    static void onDnsLookup(long ms) {
+        dnsLookup.record(ms);
+    }
+
+    /** 重新解析失败，退回网络切换前缓存的地址。 */
+    static void onDnsStaleFallback() {
+        dnsStaleFallbacks.incrementAndGet();
+    }
+
+    static void onTcpConnected(long ms) {
+        tcpConnect.record(ms);
+    }
+
+    static void onTlsHandshake(long ms, boolean resumed) {
+        (resumed ? tlsResumed : tlsFull).record(ms);
+    }
+
+    static void onReauthAttempt() {
+        reauthAttempts.incrementAndGet();
+    }
+
+    static void onReauthAccepted() {
+        reauthAccepted.incrementAndGet();
+    }
+
+    /** 服务端拒绝了新 token，改走完整重连。 */
+    static void onReauthRejected() {
+        reauthRejected.incrementAndGet();
+    }
+
+    /** 服务端没有应答（多半不支持 notify.auth），改走完整重连。 */
+    static void onReauthTimedOut() {
+        reauthTimedOut.incrementAndGet();
+    }
+
+    static void onRulesPushed(long version) {
+        filterPushed.incrementAndGet();
+        filterPushedVersion.set(version);
+    }
+
+    static void onRulesAcked(long version) {
+        filterAcked.incrementAndGet();
+        filterAckedVersion.set(version);
+    }
+
+    /** 消息到了本机才按规则过滤掉：服务端不支持过滤，或规则还没送达。 */
+    static void onFilteredLocally() {
+        filteredLocally.incrementAndGet();
+    }
+
+    static void onAccountAttached(String account) {
+        account(account).attached.incrementAndGet();
+    }
+
+    static void onAccountRejected(String account) {
+        account(account).rejected.incrementAndGet();
+    }
+
+    static void onAccountMessage(String account) {
+        account(account).received.incrementAndGet();
+    }
+
+    static void onAccountShown(String account) {
+        account(account).shown.incrementAndGet();
+    }
+
+    private static AccountCounters account(String key) {
+        AccountCounters c = accounts.get(key);
+        if (c != null) return c;
+        if (accounts.size() >= MAX_ACCOUNT_STATS) key = OTHER_REASON;
+        AccountCounters created = new AccountCounters();
+        c = accounts.putIfAbsent(key, created);
+        return c != null ? c : created;
+    }
+
+    static void onOutboxStored(int evicted) {
+        outboxStored.incrementAndGet();
+        if (evicted > 0) outboxEvicted.addAndGet(evicted);
+    }
+
+    static void onOutboxExpired(int n) {
+        if (n > 0) outboxExpired.addAndGet(n);
+    }
+
+    static void onOutboxFlushed(int n) {
+        if (n > 0) outboxFlushed.addAndGet(n);
+    }
+
+    public static void onForegroundPublished() {
+        foregroundPublished.incrementAndGet();
+    }
+
+    public static void onForegroundSkipped() {
+        foregroundSkipped.incrementAndGet();
+    }
+
+    public static String toJson() {
+        try {
+            JSONObject root = new JSONObject();
+
+            JSONObject connect = new JSONObject();
+            connect.put("attempts", connectAttempts.get());
+            connect.put("successes", connectSuccesses.get());
+            connect.put("failures", connectFailures.get());
+            connect.put("timeToConnectMs", timeToConnect.toJson());
+            root.put("connect", connect);
+
+            JSONObject reasons = new JSONObject();
+            for (Map.Entry<String, AtomicLong> e : disconnectReasons.entrySet()) {
+                reasons.put(e.getKey(), e.getValue().get());
+            }
+            root.put("disconnects", reasons);
+
+            long tracked;
+            long connected;
+            synchronized (NotifyStats.class) {
+                long now = SystemClock.elapsedRealtime();
+                tracked = trackingSince == 0L ? 0L : now - trackingSince;
+                connected = connectedTotalMs + (connectedSince == 0L ? 0L : now - connectedSince);
+            }
+            JSONObject uptime = new JSONObject();
+            uptime.put("trackedMs", tracked);
+            uptime.put("connectedMs", connected);
+            uptime.put("ratio", tracked <= 0 ? 0d : Math.min(1d, connected / (double) tracked));
+            root.put("uptime", uptime);
+
+            JSONObject messages = new JSONObject();
+            messages.put("received", messagesReceived.get());
+            messages.put("rendered", messagesRendered.get());
+            messages.put("deduped", messagesDeduped.get());
+            messages.put("droppedNoPermission", droppedNoPermission.get());
+            messages.put("droppedDisabled", droppedDisabled.get());
+            messages.put("notifyErrors", notifyErrors.get());
+            root.put("messages", messages);
+
+            root.put("latencyMs", deliveryLatency.toJson());
+
+            for (NotifyEventDispatcher d : dispatchers) {
+                root.put("handlers", d.toJson());
+                break;
+            }
+
+            JSONObject avatars = new JSONObject();
+            avatars.put("memoryHits", avatarMemoryHits.get());
+            avatars.put("diskHits", avatarDiskHits.get());
+            avatars.put("fetched", avatarFetched.get());
+            avatars.put("failed", avatarFailed.get());
+            avatars.put("coalesced", avatarCoalesced.get());
+            avatars.put("deferred", avatarDeferred.get());
+            avatars.put("reposted", avatarReposted.get());
+            root.put("avatars", avatars);
+
+            JSONObject dns = new JSONObject();
+            dns.put("cacheHits", dnsCacheHits.get());
+            dns.put("staleFallbacks", dnsStaleFallbacks.get());
+            dns.put("lookupMs", dnsLookup.toJson());
+            JSONObject tls = new JSONObject();
+            tls.put("fullMs", tlsFull.toJson());
+            tls.put("resumedMs", tlsResumed.toJson());
+            JSONObject transport = new JSONObject();
+            transport.put("dns", dns);
+            transport.put("tcpConnectMs", tcpConnect.toJson());
+            transport.put("tls", tls);
+            root.put("transport", transport);
+
+            JSONObject reauth = new JSONObject();
+            reauth.put("attempts", reauthAttempts.get());
+            reauth.put("accepted", reauthAccepted.get());
+            reauth.put("rejected", reauthRejected.get());
+            reauth.put("timedOut", reauthTimedOut.get());
+            root.put("reauth", reauth);
+
+            JSONObject filter = new JSONObject();
+            filter.put("pushed", filterPushed.get());
+            filter.put("acked", filterAcked.get());
+            filter.put("pushedVersion", filterPushedVersion.get());
+            filter.put("ackedVersion", filterAckedVersion.get());
+            filter.put("filteredLocally", filteredLocally.get());
+            root.put("filter", filter);
+
+            JSONObject perAccount = new JSONObject();
+            for (Map.Entry<String, AccountCounters> e : accounts.entrySet()) {
+                AccountCounters c = e.getValue();
+                JSONObject a = new JSONObject();
+                a.put("attached", c.attached.get());
+                a.put("rejected", c.rejected.get());
+                a.put("received", c.received.get());
+                a.put("shown", c.shown.get());
+                perAccount.put(e.getKey(), a);
+            }
+            root.put("accounts", perAccount);
+
+            root.put("startup", NotifyStartupTrace.toJson());
+
+            JSONObject outbox = new JSONObject();
+            outbox.put("stored", outboxStored.get());
+            outbox.put("evicted", outboxEvicted.get());
+            outbox.put("expired", outboxExpired.get());
+            outbox.put("flushed", outboxFlushed.get());
+            outbox.put("pending", NotifyOutbox.pendingCount());
+            root.put("outbox", outbox);
+
+            JSONObject foreground = new JSONObject();
+            foreground.put("published", foregroundPublished.get());
+            foreground.put("skipped", foregroundSkipped.get());
+            root.put("foreground", foreground);
+
+            return root.toString();
+        } catch (Throwable ignored) {
+            return "{}";
+        }
+    }
+
+    /**
+     * 解析载荷里的服务端时间：epoch 秒/毫秒数字，或 ISO-8601（yyyy-MM-ddTHH:mm:ss[.SSS](Z|±HH:mm)）。
+     *
+     * @return epoch 毫秒；无法识别时返回 -1
+     */
+    static long parseServerTime(String s) {
+        if (s == null) return -1L;
+        int n = s.length();
+        if (n == 0) return -1L;
+        try {
+            if (isDigits(s, 0, n)) {
+                long v = Long.parseLong(s);
+                // 小于 1e11 的只可能是秒
+                return v < 100_000_000_000L ? v * 1000L : v;
+            }
+            if (n < 19 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(13) != ':' || s.charAt(16) != ':') return -1L;
+            int year = num(s, 0, 4);
+            int month = num(s, 5, 7);
+            int day = num(s, 8, 10);
+            int hour = num(s, 11, 13);
+            int minute = num(s, 14, 16);
+            int second = num(s, 17, 19);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0) return -1L;
+
+            int i = 19;
+            long millis = 0;
+            if (i < n && s.charAt(i) == '.') {
+                i++;
+                int start = i;
+                while (i < n && Character.isDigit(s.charAt(i))) i++;
+                if (i == start) return -1L;
+                int end = Math.min(i, start + 3);
+                millis = num(s, start, end);
+                for (int k = end - start; k < 3; k++) millis *= 10;
+            }
+
+            long offsetMs = 0;
+            if (i < n) {
+                char z = s.charAt(i);
+                if (z == 'Z' || z == 'z') {
+                    i++;
+                } else if ((z == '+' || z == '-') && i + 6 <= n && s.charAt(i + 3) == ':') {
+                    int oh = num(s, i + 1, i + 3);
+                    int om = num(s, i + 4, i + 6);
+                    if (oh < 0 || om < 0) return -1L;
+                    offsetMs = (oh * 60L + om) * 60_000L * (z == '+' ? 1 : -1);
+                    i += 6;
+                }
+            }
+            if (i != n) return -1L;
+
+            long days = daysFromCivil(year, month, day);
+            return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + millis - offsetMs;
+        } catch (Throwable ignored) {
+            return -1L;
+        }
+    }
+
+    /**
+     * 数字形式的服务端时间（精简投影的 t 是 epoch 毫秒）统一成 ISO-8601 UTC（yyyy-MM-ddTHH:mm:ss.SSSZ），
+     * 其余原样返回。游标与 notify.resume 的 lastMessageAt 因此不随连接协商的格式变化。
+     */
+    static String normalizeServerTime(String s) {
+        if (s == null || !isDigits(s, 0, s.length())) return s;
+        long ms = parseServerTime(s);
+        return ms < 0 ? s : formatServerTime(ms);
+    }
+
+    static String formatServerTime(long ms) {
+        // Math.floorDiv 要到 API 24
+        long days = ms / 86_400_000L;
+        long rem = ms % 86_400_000L;
+        if (rem < 0) {
+            rem += 86_400_000L;
+            days--;
+        }
+        // 1970-01-01 起的天数 -> 公历日期（Howard Hinnant 的 civil_from_days）
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long d = doy - (153 * mp + 2) / 5 + 1;
+        long m = mp < 10 ? mp + 3 : mp - 9;
+        long y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+        StringBuilder sb = new StringBuilder(24);
+        pad(sb, y, 4).append('-');
+        pad(sb, m, 2).append('-');
+        pad(sb, d, 2).append('T');
+        pad(sb, rem / 3_600_000L, 2).append(':');
+        pad(sb, rem / 60_000L % 60, 2).append(':');
+        pad(sb, rem / 1000L % 60, 2).append('.');
+        pad(sb, rem % 1000L, 3).append('Z');
+        return sb.toString();
+    }
+
+    private static StringBuilder pad(StringBuilder sb, long v, int width) {
+        String digits = Long.toString(v);
+        for (int i = digits.length(); i < width; i++) sb.append('0');
+        return sb.append(digits);
+    }
+
+    private static void closeConnectedSpan() {
+        synchronized (NotifyStats.class) {
+            if (connectedSince == 0L) return;
+            connectedTotalMs += SystemClock.elapsedRealtime() - connectedSince;
+            connectedSince = 0L;
+        }
+    }
+
+    private static boolean isDigits(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isDigit(s.charAt(i))) return false;
+        }
+        return to > from;
+    }
+
+    private static int num(String s, int from, int to) {
+        if (!isDigits(s, from, to)) return -1;
+        return Integer.parseInt(s.substring(from, to));
+    }
+
+    // 公历日期 -> 1970-01-01 起的天数（Howard Hinnant 的 days_from_civil）
+    private static long daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153L * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+}
@@ -0,0 +1,27 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+/**
+ * 原生通知 socket 的重连策略。socket.io 自带的重连已关闭，断开/连接失败后由 {@link NotifySocketManager}
+ * 询问策略决定何时重连。实现需线程安全：会在 socket.io 事件线程、worker 线程和主线程（网络回调）上调用。
+ */
+public interface ReconnectPolicy {
+    /** {@link #nextDelayMs()} 返回该值表示暂不重连（例如当前无网络），等待 {@link #onNetworkChanged(boolean)}。 */
+    long STOP = -1L;
+
+    /**
+     * 一次连接失败或意外断开后调用，每次调用计为一次重连尝试。
+     *
+     * @return 距下一次重连的毫秒数，或 {@link #STOP}
+     */
+    long nextDelayMs();
+
+    /** 连接成功，重置退避。 */
+    void onConnected();
+
+    /**
+     * 网络可用性变化（含网络切换）。
+     *
+     * @return true 表示应立即重连
+     */
+    boolean onNetworkChanged(boolean available);
+}
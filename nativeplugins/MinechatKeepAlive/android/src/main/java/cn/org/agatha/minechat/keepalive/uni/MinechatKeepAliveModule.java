@@ -5,14 +5,25 @@ import android.content.Intent;
 import android.os.Build;
 
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
 
 import cn.org.agatha.minechat.keepalive.KeepAliveService;
+import cn.org.agatha.minechat.keepalive.notify.NotifyAccounts;
+import cn.org.agatha.minechat.keepalive.notify.NotifyDedupStore;
+import cn.org.agatha.minechat.keepalive.notify.NotifyEventBridge;
+import cn.org.agatha.minechat.keepalive.notify.NotifyEventLog;
 import cn.org.agatha.minechat.keepalive.notify.NotifyPrefs;
+import cn.org.agatha.minechat.keepalive.notify.NotifyRules;
+import cn.org.agatha.minechat.keepalive.notify.NotifyStats;
 import io.dcloud.feature.uniapp.annotation.UniJSMethod;
 import io.dcloud.feature.uniapp.common.UniModule;
 
 public class MinechatKeepAliveModule extends UniModule {
 
+	// 转发给 JS 的全局事件名；JS 侧用 uni.requireNativePlugin('globalEvent').addEventListener 监听
+	private static final String GLOBAL_EVENT_NOTIFY = "minechatNotifyEvent";
+
 	private Context getContextSafe() {
 		try {
 			if (mUniSDKInstance != null) {
@@ -48,6 +59,12 @@ public class MinechatKeepAliveModule extends UniModule {
 		}
 	}
 
+	private NotifyEventLog getEventLog() {
+		Context ctx = getContextSafe();
+		if (ctx == null) return null;
+		return NotifyEventLog.get(ctx.getApplicationContext());
+	}
+
 	@UniJSMethod(uiThread = false)
 	public boolean setNotifyConfig(String wsBase, String socketPath) {
 		try {
@@ -73,4 +90,199 @@ public class MinechatKeepAliveModule extends UniModule {
 			return false;
 		}
 	}
+
+	/**
+	 * 添加/更新附加账号（主账号之外同时接收通知的账号），token 传空字符串时移除。
+	 * 附加账号与主账号共用一条连接（每个账号一个 socket.io 命名空间），不会增加连接数。
+	 * accountId 只能含字母、数字、_ 与 -；非法或超过账号上限时返回 false。
+	 */
+	@UniJSMethod(uiThread = false)
+	public boolean setNotifyAccount(String accountId, String token) {
+		try {
+			Context ctx = getContextSafe();
+			if (ctx == null) return false;
+			return NotifyAccounts.set(ctx.getApplicationContext(), accountId, token);
+		} catch (Throwable ignored) {
+			return false;
+		}
+	}
+
+	/**
+	 * 当前附加账号 ID 列表（JSON 数组字符串，不含 token）。
+	 */
+	@UniJSMethod(uiThread = false)
+	public String getNotifyAccounts() {
+		try {
+			Context ctx = getContextSafe();
+			if (ctx == null) return "[]";
+			return NotifyAccounts.getIdsJson(ctx.getApplicationContext());
+		} catch (Throwable ignored) {
+			return "[]";
+		}
+	}
+
+	/**
+	 * 设置通知过滤规则（JSON 字符串）：{muted: [chatId], mentionsOnly: [chatId], quietHours: {start: "23:00", end: "07:00"}}。
+	 * 规则会发给服务端在推送前过滤，原生侧展示前也会再判断一次。格式错误返回 false。
+	 */
+	@UniJSMethod(uiThread = false)
+	public boolean setNotifyRules(String json) {
+		try {
+			Context ctx = getContextSafe();
+			if (ctx == null) return false;
+			return NotifyRules.set(ctx.getApplicationContext(), json);
+		} catch (Throwable ignored) {
+			return false;
+		}
+	}
+
+	@UniJSMethod(uiThread = false)
+	public String getNotifyRules() {
+		try {
+			Context ctx = getContextSafe();
+			if (ctx == null) return "{}";
+			return NotifyRules.getJson(ctx.getApplicationContext());
+		} catch (Throwable ignored) {
+			return "{}";
+		}
+	}
+
+	/**
+	 * 标记消息已通知（与原生 socket 共用去重表）。
+	 * 返回 true 表示第一次见到该消息，调用方应展示通知；false 表示其他通道已展示过。
+	 */
+	@UniJSMethod(uiThread = false)
+	public boolean markNotifySeen(String messageId) {
+		try {
+			Context ctx = getContextSafe();
+			if (ctx == null) return true;
+			return NotifyDedupStore.get(ctx.getApplicationContext()).markSeen(messageId);
+		} catch (Throwable ignored) {
+			return true;
+		}
+	}
+
+	@UniJSMethod(uiThread = false)
+	public boolean isNotifySeen(String messageId) {
+		try {
+			Context ctx = getContextSafe();
+			if (ctx == null) return false;
+			return NotifyDedupStore.get(ctx.getApplicationContext()).contains(messageId);
+		} catch (Throwable ignored) {
+			return false;
+		}
+	}
+
+	/**
+	 * 原生通知连接/投递统计（JSON 字符串）：连接次数与耗时分布、断开原因、在线比例、
+	 * 消息收到/展示/去重/丢弃计数、服务端时间到展示的延迟分布、前台通知发布次数。
+	 */
+	@UniJSMethod(uiThread = false)
+	public String getNotifyStats() {
+		try {
+			return NotifyStats.toJson();
+		} catch (Throwable ignored) {
+			return "{}";
+		}
+	}
+
+	/**
+	 * 追加一条诊断日志（与原生事件写入同一个环形日志文件）。
+	 */
+	@UniJSMethod(uiThread = false)
+	public boolean appendNotifyLog(String message) {
+		try {
+			NotifyEventLog log = getEventLog();
+			if (log == null) return false;
+			log.append(NotifyEventLog.SOURCE_JS, message);
+			return true;
+		} catch (Throwable ignored) {
+			return false;
+		}
+	}
+
+	/**
+	 * 分页读取诊断日志：返回 seq 大于 afterSeq 的记录（JSON 字符串），afterSeq 传 -1 从最旧的开始。
+	 */
+	@UniJSMethod(uiThread = false)
+	public String readNotifyLog(long afterSeq, int limit) {
+		try {
+			NotifyEventLog log = getEventLog();
+			if (log == null) return "{\"entries\":[],\"nextSeq\":0}";
+			return log.read(afterSeq, limit);
+		} catch (Throwable ignored) {
+			return "{\"entries\":[],\"nextSeq\":0}";
+		}
+	}
+
+	@UniJSMethod(uiThread = false)
+	public boolean clearNotifyLog() {
+		try {
+			NotifyEventLog log = getEventLog();
+			if (log == null) return false;
+			log.clear();
+			return true;
+		} catch (Throwable ignored) {
+			return false;
+		}
+	}
+
+	/**
+	 * 开/关原生 socket 事件转发。开启后每个服务端事件以全局事件 minechatNotifyEvent 发给 JS，
+	 * 参数 { event, payload }（payload 为 JSON 文本）。JS 应在 onAppShow 时开启、onAppHide 时关闭。
+	 */
+	@UniJSMethod(uiThread = false)
+	public boolean setNotifyForwarding(boolean enabled) {
+		try {
+			if (!enabled) {
+				NotifyEventBridge.setListener(null);
+				return true;
+			}
+			final Object instance = mUniSDKInstance;
+			if (instance == null) return false;
+			final Method fire = instance.getClass().getMethod("fireGlobalEventCallback", String.class, Map.class);
+			NotifyEventBridge.setListener(new NotifyEventBridge.Listener() {
+				@Override
+				public void onEvent(String event, String payloadJson) {
+					try {
+						Map<String, Object> params = new HashMap<>();
+						params.put("event", event);
+						params.put("payload", payloadJson);
+						fire.invoke(instance, GLOBAL_EVENT_NOTIFY, params);
+					} catch (Throwable ignored) {
+					}
+				}
+			});
+			return true;
+		} catch (Throwable ignored) {
+			return false;
+		}
+	}
+
+	/**
+	 * 补发因缺少通知权限或通知被关闭而没能展示的消息，每个会话合并为一条通知。
+	 * 通知仍不可用时不做任何事。返回补发的消息条数。JS 应在授予通知权限后、回到前台时调用。
+	 */
+	@UniJSMethod(uiThread = false)
+	public int flushNotifyOutbox() {
+		try {
+			Context ctx = getContextSafe();
+			if (ctx == null) return 0;
+			return NotifyEventBridge.flushOutbox(ctx.getApplicationContext());
+		} catch (Throwable ignored) {
+			return 0;
+		}
+	}
+
+	/**
+	 * 通过原生 socket 发送事件。payloadJson 为 JSON 文本；原生 socket 未连接时返回 false。
+	 */
+	@UniJSMethod(uiThread = false)
+	public boolean emitNotifyEvent(String event, String payloadJson) {
+		try {
+			return NotifyEventBridge.emit(event, payloadJson);
+		} catch (Throwable ignored) {
+			return false;
+		}
+	}
 }
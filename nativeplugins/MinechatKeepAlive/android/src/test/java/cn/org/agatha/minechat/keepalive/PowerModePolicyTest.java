@@ -0,0 +1,133 @@
+package cn.org.agatha.minechat.keepalive;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 停放/实时的调度决策（PowerModePolicy），以及切换模式、补收结束时各步骤的顺序。
+ */
+public class PowerModePolicyTest {
+
+    /** 记录被调用的步骤；名字在 failing 里的步骤抛异常。 */
+    static final class Recorder implements PowerModePolicy.Actions, PowerModePolicy.SyncFinish {
+        final List<String> calls = new ArrayList<>();
+        final List<String> failing = new ArrayList<>();
+
+        private void call(String step) {
+            calls.add(step);
+            if (failing.contains(step)) throw new IllegalStateException(step);
+        }
+
+        @Override
+        public void park() {
+            call("park");
+        }
+
+        @Override
+        public void unpark() {
+            call("unpark");
+        }
+
+        @Override
+        public void scheduleSync() {
+            call("schedule");
+        }
+
+        @Override
+        public void cancelSync() {
+            call("cancel");
+        }
+
+        @Override
+        public void shutdownSocket() {
+            call("shutdown");
+        }
+
+        @Override
+        public void flushNotifications() {
+            call("flush");
+        }
+
+        @Override
+        public void quitThread() {
+            call("quit");
+        }
+
+        @Override
+        public void jobFinished() {
+            call("jobFinished");
+        }
+    }
+
+    @Test
+    public void interactiveIsAlwaysLive() {
+        assertEquals(PowerModePolicy.Mode.LIVE, PowerModePolicy.decide(false, true));
+        assertEquals(PowerModePolicy.Mode.LIVE, PowerModePolicy.decide(true, true));
+    }
+
+    @Test
+    public void parksOnlyInDoze() {
+        assertEquals(PowerModePolicy.Mode.PARKED, PowerModePolicy.decide(true, false));
+        // 息屏但未进入 Doze（包括只开了省电模式）：仍保持实时连接，不把消息推迟到周期补收
+        assertEquals(PowerModePolicy.Mode.LIVE, PowerModePolicy.decide(false, false));
+    }
+
+    @Test
+    public void updateReportsOnlyTransitions() {
+        PowerModePolicy policy = new PowerModePolicy();
+        assertEquals(PowerModePolicy.Mode.LIVE, policy.current());
+        // 息屏
+        assertNull(policy.update(false, false));
+        // 进入 Doze
+        assertEquals(PowerModePolicy.Mode.PARKED, policy.update(true, false));
+        assertNull(policy.update(true, false));
+        assertEquals(PowerModePolicy.Mode.PARKED, policy.current());
+        // 维护窗口结束前亮屏
+        assertEquals(PowerModePolicy.Mode.LIVE, policy.update(true, true));
+        assertNull(policy.update(false, true));
+    }
+
+    @Test
+    public void parkingParksSocketThenSchedulesSync() {
+        Recorder r = new Recorder();
+        PowerModePolicy.apply(PowerModePolicy.Mode.PARKED, r);
+        assertEquals(Arrays.asList("park", "schedule"), r.calls);
+    }
+
+    @Test
+    public void goingLiveCancelsSyncBeforeReconnecting() {
+        Recorder r = new Recorder();
+        PowerModePolicy.apply(PowerModePolicy.Mode.LIVE, r);
+        assertEquals(Arrays.asList("cancel", "unpark"), r.calls);
+    }
+
+    @Test
+    public void syncJobFlushesNotificationsBeforeFinishing() {
+        Recorder r = new Recorder();
+        PowerModePolicy.finishSync(r, true);
+        assertEquals(Arrays.asList("shutdown", "flush", "quit", "jobFinished"), r.calls);
+    }
+
+    @Test
+    public void failedStepDoesNotSkipTheRest() {
+        Recorder r = new Recorder();
+        r.failing.add("shutdown");
+        r.failing.add("flush");
+        PowerModePolicy.finishSync(r, true);
+        assertEquals(Arrays.asList("shutdown", "flush", "quit", "jobFinished"), r.calls);
+    }
+
+    @Test
+    public void stoppedJobDoesNotReportFinished() {
+        // onStopJob：系统已收回任务，不再调用 jobFinished，但补发通知照样发布
+        Recorder r = new Recorder();
+        PowerModePolicy.finishSync(r, false);
+        assertEquals(Arrays.asList("shutdown", "flush", "quit"), r.calls);
+    }
+}
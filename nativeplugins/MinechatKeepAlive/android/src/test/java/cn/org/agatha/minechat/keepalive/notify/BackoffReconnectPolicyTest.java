@@ -0,0 +1,120 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 指数退避 + 全抖动的重连策略（BackoffReconnectPolicy），时间源与随机数都用可控的替身。
+ */
+public class BackoffReconnectPolicyTest {
+
+    static final class FakeClock implements BackoffReconnectPolicy.Clock {
+        long now;
+
+        @Override
+        public long nowMs() {
+            return now;
+        }
+    }
+
+    /** nextDouble 固定返回 value。 */
+    static final class FixedRandom extends Random {
+        double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+
+    private static final double ALMOST_ONE = 0.99999;
+
+    @Test
+    public void fullJitterStaysWithinDoublingCeiling() {
+        BackoffReconnectPolicy p = new BackoffReconnectPolicy(1_000, 1_000_000, 1_000, new FakeClock(), new Random(42));
+        for (int round = 0; round < 50; round++) {
+            long ceiling = 1_000;
+            for (int i = 0; i < 8; i++) {
+                long d = p.nextDelayMs();
+                assertTrue("delay " + d + " ceiling " + ceiling, d >= 0 && d < ceiling);
+                ceiling <<= 1;
+            }
+            p.onConnected();
+        }
+
+        FixedRandom low = new FixedRandom(0);
+        p = new BackoffReconnectPolicy(1_000, 1_000_000, 1_000, new FakeClock(), low);
+        assertEquals(0, p.nextDelayMs());
+        assertEquals(0, p.nextDelayMs());
+    }
+
+    @Test
+    public void ceilingIsCappedAtMaxDelay() {
+        BackoffReconnectPolicy p = new BackoffReconnectPolicy(1_000, 8_000, 1_000, new FakeClock(), new FixedRandom(ALMOST_ONE));
+        long[] expected = {999, 1_999, 3_999, 7_999, 7_999, 7_999};
+        for (long e : expected) assertEquals(e, p.nextDelayMs());
+        // 失败次数很多时也不会溢出
+        for (int i = 0; i < 200; i++) assertTrue(p.nextDelayMs() < 8_000);
+    }
+
+    @Test
+    public void connectedAndNetworkBackResetBackoff() {
+        BackoffReconnectPolicy p = new BackoffReconnectPolicy(1_000, 60_000, 1_000, new FakeClock(), new FixedRandom(ALMOST_ONE));
+        p.nextDelayMs();
+        p.nextDelayMs();
+        p.nextDelayMs();
+        assertEquals(3, p.getFailureCount());
+        p.onConnected();
+        assertEquals(0, p.getFailureCount());
+        assertEquals(999, p.nextDelayMs());
+
+        p.nextDelayMs();
+        assertTrue(p.onNetworkChanged(true));
+        assertEquals(0, p.getFailureCount());
+        assertEquals(999, p.nextDelayMs());
+    }
+
+    @Test
+    public void stopsWhileOffline() {
+        BackoffReconnectPolicy p = new BackoffReconnectPolicy(1_000, 60_000, 1_000, new FakeClock(), new FixedRandom(ALMOST_ONE));
+        p.nextDelayMs();
+        assertFalse(p.onNetworkChanged(false));
+        assertEquals(ReconnectPolicy.STOP, p.nextDelayMs());
+        assertEquals(ReconnectPolicy.STOP, p.nextDelayMs());
+        // 暂停期间不计失败
+        assertEquals(1, p.getFailureCount());
+        assertTrue(p.onNetworkChanged(true));
+        assertEquals(999, p.nextDelayMs());
+    }
+
+    @Test
+    public void hourlyBudgetDefersToOldestAttemptPlusOneHour() {
+        FakeClock clock = new FakeClock();
+        clock.now = 10_000;
+        BackoffReconnectPolicy p = new BackoffReconnectPolicy(1_000, 60_000,
+                BackoffReconnectPolicy.DEFAULT_MAX_ATTEMPTS_PER_HOUR, clock, new FixedRandom(0));
+        long oldest = clock.now;
+        for (int i = 0; i < BackoffReconnectPolicy.DEFAULT_MAX_ATTEMPTS_PER_HOUR; i++) {
+            assertEquals(0, p.nextDelayMs());
+            clock.now += 1_000;
+        }
+        // 第 31 次：顺延到最早一次满一小时
+        long d = p.nextDelayMs();
+        assertEquals(oldest + BackoffReconnectPolicy.HOUR_MS - clock.now, d);
+        // 网络恢复的立即重连同样受额度限制
+        assertFalse(p.onNetworkChanged(true));
+
+        // 一小时之后最早的几次移出窗口，额度恢复
+        clock.now = oldest + BackoffReconnectPolicy.HOUR_MS + 1_500;
+        assertTrue(p.onNetworkChanged(true));
+    }
+}
@@ -0,0 +1,227 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Handler;
+import android.service.notification.StatusBarNotification;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 会话通知的批处理发布（ChatNotificationAggregator）。
+ */
+public class ChatNotificationAggregatorTest {
+
+    /** 只记下延迟任务、从不执行，模拟批处理窗口尚未结束（或 handler 线程已退出）。 */
+    static final class HeldHandler extends Handler {
+        final List<Runnable> delayed = new ArrayList<>();
+
+        @Override
+        public boolean postDelayed(Runnable r, long delayMillis) {
+            delayed.add(r);
+            return true;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            delayed.remove(r);
+        }
+    }
+
+    static final class RecordingNotificationManager extends NotificationManager {
+        final List<String> tags = new ArrayList<>();
+        final List<Notification> posted = new ArrayList<>();
+        // 之后这么多次会话通知抛异常（模拟 binder 异常等）
+        int failures;
+
+        @Override
+        public synchronized void notify(String tag, int id, Notification notification) {
+            if (failures > 0) {
+                failures--;
+                throw new RuntimeException("notify failed");
+            }
+            tags.add(tag);
+            posted.add(notification);
+        }
+
+        // 发过的会话通知都视为仍在通知栏
+        @Override
+        public synchronized StatusBarNotification[] getActiveNotifications() {
+            Set<String> active = new LinkedHashSet<>(tags);
+            List<StatusBarNotification> out = new ArrayList<>();
+            for (final String tag : active) {
+                out.add(new StatusBarNotification() {
+                    @Override
+                    public String getTag() {
+                        return tag;
+                    }
+
+                    @Override
+                    public int getId() {
+                        return ChatNotificationAggregator.CHAT_NOTIFICATION_ID;
+                    }
+                });
+            }
+            return out.toArray(new StatusBarNotification[0]);
+        }
+
+        synchronized int size() {
+            return posted.size();
+        }
+
+        synchronized Notification last() {
+            return posted.get(posted.size() - 1);
+        }
+    }
+
+    static final class TestContext extends Context {
+        final RecordingNotificationManager nm = new RecordingNotificationManager();
+
+        @Override
+        public Object getSystemService(String name) {
+            return NOTIFICATION_SERVICE.equals(name) ? nm : null;
+        }
+    }
+
+    @Test
+    public void flushNowPublishesBatchWithoutWaitingForWindow() {
+        TestContext ctx = new TestContext();
+        HeldHandler handler = new HeldHandler();
+        ChatNotificationAggregator a = new ChatNotificationAggregator(ctx, "ch", handler, null);
+
+        a.add("c_1", "A", "one", null, -1L);
+        a.add("c_2", "B", "two", null, -1L);
+        a.add("c_1", "A", "three", null, -1L);
+        assertEquals(1, handler.delayed.size());
+        assertTrue(ctx.nm.tags.isEmpty());
+
+        // 补收任务结束、线程退出前
+        a.flushNow();
+        assertTrue(handler.delayed.isEmpty());
+        assertEquals(2, ctx.nm.tags.size());
+        assertTrue(ctx.nm.tags.contains("chat:c_1"));
+        assertTrue(ctx.nm.tags.contains("chat:c_2"));
+
+        // 没有新消息时不重复发布
+        a.flushNow();
+        assertEquals(2, ctx.nm.tags.size());
+    }
+
+    @Test
+    public void undeliveredBatchIsRolledBackBeforeOutboxReplay() {
+        TestContext ctx = new TestContext();
+        HeldHandler handler = new HeldHandler();
+        final List<String> undelivered = new ArrayList<>();
+        ChatNotificationAggregator a = new ChatNotificationAggregator(ctx, "ch", handler, new ChatNotificationAggregator.Callback() {
+            @Override
+            public void onNotifyError(Throwable error) {
+            }
+
+            @Override
+            public void onRendered() {
+            }
+
+            @Override
+            public void onUndelivered(String chatKey, String title, String avatarUrl, List<String> lines, long[] serverTimes) {
+                undelivered.addAll(lines);
+            }
+        });
+
+        // 会话已有一条通知在通知栏里
+        a.add("c_1", "A", "zero", null, -1L);
+        a.flushNow();
+        assertEquals(1, ctx.nm.size());
+
+        a.add("c_1", "A", "one", null, -1L);
+        a.add("c_1", "A", "two", null, -1L);
+        ctx.nm.failures = 1;
+        a.flushNow();
+        assertEquals(1, ctx.nm.size());
+        assertEquals(2, undelivered.size());
+
+        // 待发箱补发：同样的两条重新进入聚合，不应与失败那批叠加
+        for (String line : new ArrayList<>(undelivered)) a.add("c_1", "A", line, null, -1L);
+        a.flushNow();
+        assertEquals(2, ctx.nm.size());
+        assertEquals(3, ctx.nm.last().number);
+        assertEquals("two", String.valueOf(ctx.nm.last().text));
+    }
+
+    @Test
+    public void flushDoesNotWaitForSlowAvatarAndRepostsWhenLoaded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                    byte[] png = pngHeader(256, 256);
+                    exchange.sendResponseHeaders(200, png.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(png);
+                    out.close();
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/avatar-" + System.nanoTime() + ".png";
+            TestContext ctx = new TestContext();
+            // 没有 handler：同步发布，头像回调就地补发
+            ChatNotificationAggregator a = new ChatNotificationAggregator(ctx, "ch", null, null);
+
+            long started = System.nanoTime();
+            a.add("c_1", "A", "one", url, -1L);
+            assertTrue("flush 不应等头像", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 1000);
+            assertEquals(1, ctx.nm.size());
+            assertNull(ctx.nm.last().largeIcon);
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (ctx.nm.size() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(2, ctx.nm.size());
+            assertEquals("chat:c_1", ctx.nm.tags.get(1));
+            assertNotNull(ctx.nm.last().largeIcon);
+            assertEquals(ctx.nm.posted.get(0).when, ctx.nm.last().when);
+
+            // 之后的消息直接带上内存里的头像
+            a.add("c_1", "A", "two", url, -1L);
+            assertEquals(3, ctx.nm.size());
+            assertNotNull(ctx.nm.last().largeIcon);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    // 只含签名与 IHDR 的 PNG：bench 的 BitmapFactory stub 只读宽高
+    private static byte[] pngHeader(int width, int height) {
+        byte[] out = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R',
+                0, 0, 0, 0, 0, 0, 0, 0, 8, 6, 0, 0, 0, 0, 0, 0, 0};
+        for (int i = 0; i < 4; i++) {
+            out[16 + i] = (byte) (width >>> (24 - 8 * i));
+            out[20 + i] = (byte) (height >>> (24 - 8 * i));
+        }
+        return out;
+    }
+}
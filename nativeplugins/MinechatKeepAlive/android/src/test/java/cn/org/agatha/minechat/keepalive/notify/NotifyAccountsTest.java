@@ -0,0 +1,91 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 附加账号列表（NotifyAccounts）的加载与增删规则：accountId 只能做命名空间名，最多 MAX_ACCOUNTS 个，空 token 即移除。
+ */
+public class NotifyAccountsTest {
+
+    @Test
+    public void parseDropsInvalidEntries() throws Exception {
+        Map<String, String> m = NotifyAccounts.parse(new JSONObject()
+                .put("a1", " t1 ")
+                .put("a_2-x", "t2")
+                .put("bad/id", "t3")
+                .put("sp ace", "t4")
+                .put("a3", "  ")
+                .toString());
+        assertEquals(2, m.size());
+        assertEquals("t1", m.get("a1"));
+        assertEquals("t2", m.get("a_2-x"));
+
+        assertTrue(NotifyAccounts.parse(null).isEmpty());
+        assertTrue(NotifyAccounts.parse("").isEmpty());
+        assertTrue(NotifyAccounts.parse("not json").isEmpty());
+    }
+
+    @Test
+    public void parseKeepsAtMostMaxAccounts() throws Exception {
+        JSONObject o = new JSONObject();
+        for (int i = 0; i < NotifyAccounts.MAX_ACCOUNTS + 3; i++) o.put("a" + i, "t" + i);
+        assertEquals(NotifyAccounts.MAX_ACCOUNTS, NotifyAccounts.parse(o.toString()).size());
+    }
+
+    @Test
+    public void withAddsUpdatesAndRemoves() {
+        Map<String, String> empty = Collections.emptyMap();
+        Map<String, String> one = NotifyAccounts.with(empty, "a1", "t1");
+        assertEquals(Collections.singletonMap("a1", "t1"), one);
+
+        Map<String, String> two = NotifyAccounts.with(one, "a2", "t2");
+        assertEquals(2, two.size());
+        // 更新 token 不改变顺序
+        Map<String, String> updated = NotifyAccounts.with(two, "a1", "t1b");
+        assertEquals("[a1, a2]", updated.keySet().toString());
+        assertEquals("t1b", updated.get("a1"));
+        assertEquals("{a2=t2}", NotifyAccounts.with(updated, "a1", "").toString());
+
+        // 没有变化：原样返回，调用方据此跳过写盘与回调
+        assertSame(two, NotifyAccounts.with(two, "a2", "t2"));
+        assertSame(two, NotifyAccounts.with(two, "a9", ""));
+        // 快照不可修改
+        try {
+            two.put("a3", "t3");
+            throw new AssertionError("snapshot is mutable");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void withRejectsInvalidIdAndFullList() {
+        Map<String, String> m = Collections.emptyMap();
+        assertNull(NotifyAccounts.with(m, "", "t"));
+        assertNull(NotifyAccounts.with(m, "a/b", "t"));
+        StringBuilder longId = new StringBuilder();
+        for (int i = 0; i < 65; i++) longId.append('x');
+        assertNull(NotifyAccounts.with(m, longId.toString(), "t"));
+
+        for (int i = 0; i < NotifyAccounts.MAX_ACCOUNTS; i++) m = NotifyAccounts.with(m, "a" + i, "t");
+        assertNull(NotifyAccounts.with(m, "extra", "t"));
+        // 已满时仍可更新、移除已有账号
+        assertEquals("t2", NotifyAccounts.with(m, "a0", "t2").get("a0"));
+        assertEquals(NotifyAccounts.MAX_ACCOUNTS - 1, NotifyAccounts.with(m, "a0", "").size());
+    }
+
+    @Test
+    public void savedListLoadsBack() {
+        Map<String, String> m = NotifyAccounts.with(Collections.<String, String>emptyMap(), "a1", "t1");
+        m = NotifyAccounts.with(m, "a2", "t2");
+        assertEquals(m, NotifyAccounts.parse(new JSONObject(m).toString()));
+    }
+}
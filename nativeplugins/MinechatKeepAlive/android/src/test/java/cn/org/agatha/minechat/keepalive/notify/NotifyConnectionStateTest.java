@@ -0,0 +1,106 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 连接状态机（NotifyConnectionState）：过期事件被拒绝，投递失败状态只在通知发出或权限恢复时撤掉。
+ */
+public class NotifyConnectionStateTest {
+
+    private static NotifyConnectionState connected() {
+        NotifyConnectionState s = new NotifyConnectionState();
+        assertNotNull(s.restart(NotifyConnectionState.State.CONNECTING));
+        assertNotNull(s.moveTo(NotifyConnectionState.State.CONNECTED));
+        return s;
+    }
+
+    @Test
+    public void healthCheckDoesNotWipeDeliveryError() {
+        NotifyConnectionState s = connected();
+        s.moveTo(NotifyConnectionState.State.NO_PERMISSION);
+
+        // refresh 快路径每次都会 moveTo(CONNECTED)
+        assertNull(s.moveTo(NotifyConnectionState.State.CONNECTED));
+        assertNull(s.moveFrom(s.get(), NotifyConnectionState.State.CONNECTED));
+        assertEquals(NotifyConnectionState.State.NO_PERMISSION, s.get().state);
+
+        s.moveTo(NotifyConnectionState.State.NOTIFY_ERROR);
+        assertNull(s.moveTo(NotifyConnectionState.State.CONNECTED));
+        assertEquals(NotifyConnectionState.State.NOTIFY_ERROR, s.get().state);
+    }
+
+    @Test
+    public void permissionBackClearsOnlyBlockedStates() {
+        NotifyConnectionState s = connected();
+        s.moveTo(NotifyConnectionState.State.NOTIFICATIONS_DISABLED);
+        assertNotNull(s.clearDeliveryError(false));
+        assertEquals(NotifyConnectionState.State.CONNECTED, s.get().state);
+
+        // 发送本身失败：权限恢复不算数，要等通知真正发出
+        s.moveTo(NotifyConnectionState.State.NOTIFY_ERROR);
+        assertNull(s.clearDeliveryError(false));
+        assertEquals(NotifyConnectionState.State.NOTIFY_ERROR, s.get().state);
+        assertNotNull(s.clearDeliveryError(true));
+        assertEquals(NotifyConnectionState.State.CONNECTED, s.get().state);
+
+        // 不在投递失败状态时什么也不做
+        assertNull(s.clearDeliveryError(true));
+        s.restart(NotifyConnectionState.State.PARKED);
+        assertNull(s.clearDeliveryError(true));
+        assertEquals(NotifyConnectionState.State.PARKED, s.get().state);
+    }
+
+    @Test
+    public void disconnectStillLeavesDeliveryError() {
+        NotifyConnectionState s = connected();
+        s.moveTo(NotifyConnectionState.State.NO_PERMISSION);
+        assertNotNull(s.moveTo(NotifyConnectionState.State.DISCONNECTED));
+        // 断开后重连照常回到 CONNECTED，由下一次投递重新判断权限
+        assertNotNull(s.moveTo(NotifyConnectionState.State.CONNECTED));
+    }
+
+    @Test
+    public void staleEventsAreRejected() {
+        NotifyConnectionState s = connected();
+        NotifyConnectionState.Snapshot old = s.get();
+        // 换了新 socket：旧 socket 的 disconnect 晚到
+        s.restart(NotifyConnectionState.State.CONNECTING);
+        s.moveTo(NotifyConnectionState.State.CONNECTED);
+        assertNull(s.moveFrom(old, NotifyConnectionState.State.DISCONNECTED));
+        assertEquals(NotifyConnectionState.State.CONNECTED, s.get().state);
+
+        // 停放之后才到的 connect
+        s.restart(NotifyConnectionState.State.PARKED);
+        assertNull(s.moveTo(NotifyConnectionState.State.CONNECTED));
+        assertNull(s.moveTo(NotifyConnectionState.State.INIT));
+    }
+
+    @Test
+    public void restartInvalidatesSnapshotWithoutFiring() {
+        NotifyConnectionState s = new NotifyConnectionState();
+        final List<String> fired = new ArrayList<>();
+        s.addListener(new NotifyConnectionState.Listener() {
+            @Override
+            public void onStateChanged(NotifyConnectionState.Snapshot from, NotifyConnectionState.Snapshot to) {
+                fired.add(from.state.wireName + ">" + to.state.wireName);
+            }
+        });
+        s.restart(NotifyConnectionState.State.CONNECTING);
+        NotifyConnectionState.Snapshot before = s.get();
+        NotifyConnectionState.Snapshot again = s.restart(NotifyConnectionState.State.CONNECTING);
+        assertEquals(before.seq + 1, again.seq);
+        assertEquals(before.sinceMs, again.sinceMs);
+        assertNull(s.moveFrom(before, NotifyConnectionState.State.CONNECT_ERROR));
+        assertNotNull(s.moveFrom(again, NotifyConnectionState.State.CONNECT_ERROR));
+        assertEquals(2, fired.size());
+        assertEquals("init>connecting", fired.get(0));
+        assertEquals("connecting>connect_error", fired.get(1));
+    }
+}
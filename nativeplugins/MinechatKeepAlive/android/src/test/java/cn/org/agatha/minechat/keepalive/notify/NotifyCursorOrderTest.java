@@ -0,0 +1,68 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 投递游标只前进不后退（NotifyPrefs.Cursor#isAfter）。
+ */
+public class NotifyCursorOrderTest {
+
+    private static NotifyPrefs.Cursor c(String id, String at) {
+        return new NotifyPrefs.Cursor(id, at);
+    }
+
+    @Test
+    public void anyCursorAdvancesFromEmpty() {
+        assertTrue(c("m1", "").isAfter(c("", "")));
+        assertTrue(c("", "2024-03-05T10:20:30.123Z").isAfter(c(null, null)));
+    }
+
+    @Test
+    public void newerServerTimeAdvances() {
+        NotifyPrefs.Cursor live = c("m_200", "2024-03-05T10:20:30.123Z");
+        assertTrue(c("m_201", "2024-03-05T10:20:31.000Z").isAfter(live));
+        // 晚于实时消息才处理的补发旧消息
+        assertFalse(c("m_150", "2024-03-05T10:19:00.000Z").isAfter(live));
+        assertFalse(live.isAfter(live));
+    }
+
+    @Test
+    public void millisAndIsoCompareByInstant() {
+        // 1709634030123 == 2024-03-05T10:20:30.123Z
+        NotifyPrefs.Cursor iso = c("m_1", "2024-03-05T10:20:30.123Z");
+        assertFalse(c("m_0", "1709634030000").isAfter(iso));
+        assertTrue(c("m_2", "1709634031000").isAfter(iso));
+        assertTrue(c("m_2", "2024-03-05T18:20:31.000+08:00").isAfter(c("m_1", "1709634030123")));
+    }
+
+    @Test
+    public void numericTimeIsStoredAsIso() {
+        // 精简投影的 t 是毫秒数字；游标（以及 resume 的 lastMessageAt）统一成 ISO
+        assertEquals("2024-03-05T10:20:30.123Z", c("m_1", "1709634030123").createdAt);
+        assertEquals("2024-03-05T10:20:30.000Z", c("m_1", "1709634030").createdAt);
+        assertEquals("1970-01-01T00:00:00.000Z", c("m_1", "0").createdAt);
+        assertEquals("2024-02-29T23:59:59.999Z", c("m_1", "1709251199999").createdAt);
+        assertEquals("2024-03-05T18:20:30.123+08:00", c("m_1", "2024-03-05T18:20:30.123+08:00").createdAt);
+        assertEquals("", c("m_1", null).createdAt);
+    }
+
+    @Test
+    public void sameTimeFallsBackToIdOrder() {
+        String at = "2024-03-05T10:20:30.123Z";
+        assertTrue(c("m_10", at).isAfter(c("m_9", at)));
+        assertFalse(c("m_9", at).isAfter(c("m_10", at)));
+        assertTrue(c("65e6f1a2b3c4d5e6f7a8b9c1", at).isAfter(c("65e6f1a2b3c4d5e6f7a8b9c0", at)));
+    }
+
+    @Test
+    public void missingTimeNeverOvertakesTimedCursor() {
+        assertFalse(c("m_999", "").isAfter(c("m_1", "2024-03-05T10:20:30.123Z")));
+        assertTrue(c("m_1", "2024-03-05T10:20:30.123Z").isAfter(c("m_999", "")));
+        assertTrue(c("m_3", "").isAfter(c("m_2", "")));
+        assertFalse(c("", "").isAfter(c("m_2", "")));
+    }
+}
@@ -0,0 +1,54 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 去重表（NotifyDedupStore）：重复 ID 只展示一次，进程重启后仍能识别，容量满时保留最新的 ID。
+ */
+public class NotifyDedupStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void dedupIdsSurviveRestart() throws Exception {
+        File file = new File(tmp.getRoot(), "dedup.txt");
+        NotifyDedupStore s = new NotifyDedupStore(file);
+        assertTrue(s.markSeen("m1"));
+        assertFalse(s.markSeen(" m1 "));
+        assertTrue(s.markSeen("m2"));
+        // 空 ID 与带换行的 ID 不记录，总是展示
+        assertTrue(s.markSeen(""));
+        assertTrue(s.markSeen("a\nb"));
+        assertTrue(s.markSeen("a\nb"));
+        assertTrue(s.awaitSaved(5_000));
+
+        NotifyDedupStore reopened = new NotifyDedupStore(file);
+        assertEquals(2, reopened.size());
+        assertFalse(reopened.markSeen("m1"));
+        assertFalse(reopened.markSeen("m2"));
+        assertTrue(reopened.markSeen("m3"));
+    }
+
+    @Test
+    public void dedupKeepsNewestIdsAcrossRestart() throws Exception {
+        File file = new File(tmp.getRoot(), "dedup.txt");
+        NotifyDedupStore s = new NotifyDedupStore(file);
+        for (int i = 0; i < NotifyDedupStore.CAPACITY + 10; i++) s.markSeen("m" + i);
+        assertTrue(s.awaitSaved(5_000));
+
+        NotifyDedupStore reopened = new NotifyDedupStore(file);
+        assertEquals(NotifyDedupStore.CAPACITY, reopened.size());
+        assertFalse(reopened.contains("m9"));
+        assertTrue(reopened.contains("m10"));
+        assertTrue(reopened.contains("m" + (NotifyDedupStore.CAPACITY + 9)));
+    }
+}
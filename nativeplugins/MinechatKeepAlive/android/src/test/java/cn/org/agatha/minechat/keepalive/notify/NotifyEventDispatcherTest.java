@@ -0,0 +1,146 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分发队列的按事件上限与溢出策略（NotifyEventDispatcher），以及被丢弃的消息如何影响游标（NotifySocketManager）。
+ */
+public class NotifyEventDispatcherTest {
+
+    /** 第一条事件在 handle 里阻塞到 release，后面的事件只能排队。 */
+    static final class BlockingHandler implements NotifyEventHandler<String> {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> handled = new ArrayList<>();
+        final CountDownLatch done;
+
+        BlockingHandler(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public String decode(Object payload) {
+            return (String) payload;
+        }
+
+        @Override
+        public void handle(String event) {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            synchronized (handled) {
+                handled.add(event);
+            }
+            done.countDown();
+        }
+    }
+
+    static final class RecordingDropListener implements NotifyEventDispatcher.DropListener {
+        final List<Object> dropped = new ArrayList<>();
+
+        @Override
+        public synchronized void onDropped(String event, Object payload) {
+            dropped.add(event + ":" + payload);
+        }
+    }
+
+    private static NotifyEventDispatcher fill(String event, NotifyEventDispatcher.Overflow overflow, BlockingHandler h,
+                                              RecordingDropListener drops) throws Exception {
+        NotifyEventDispatcher d = new NotifyEventDispatcher("test-dispatch");
+        d.register(event, 2, overflow, h);
+        d.setDropListener(drops);
+        assertTrue(d.offer(event, "p0"));
+        assertTrue(h.started.await(5, TimeUnit.SECONDS));
+        assertTrue(d.offer(event, "p1"));
+        assertTrue(d.offer(event, "p2"));
+        return d;
+    }
+
+    @Test
+    public void dropOldestRemovesQueuedEventAndReportsIt() throws Exception {
+        BlockingHandler h = new BlockingHandler(3);
+        RecordingDropListener drops = new RecordingDropListener();
+        NotifyEventDispatcher d = fill("e", NotifyEventDispatcher.Overflow.DROP_OLDEST, h, drops);
+
+        assertTrue(d.offer("e", "p3"));
+        assertEquals(Arrays.<Object>asList("e:p1"), drops.dropped);
+        h.release.countDown();
+        assertTrue(h.done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("p0", "p2", "p3"), h.handled);
+
+        JSONObject stats = d.toJson().getJSONObject("e");
+        assertEquals(1, stats.getLong("dropped"));
+        assertEquals(2, stats.getInt("capacity"));
+        d.shutdown();
+    }
+
+    @Test
+    public void dropNewestRejectsEventAndReportsIt() throws Exception {
+        BlockingHandler h = new BlockingHandler(3);
+        RecordingDropListener drops = new RecordingDropListener();
+        NotifyEventDispatcher d = fill("e", NotifyEventDispatcher.Overflow.DROP_NEWEST, h, drops);
+
+        assertFalse(d.offer("e", "p3"));
+        assertEquals(Arrays.<Object>asList("e:p3"), drops.dropped);
+        h.release.countDown();
+        assertTrue(h.done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("p0", "p1", "p2"), h.handled);
+        assertEquals(1, d.toJson().getJSONObject("e").getLong("dropped"));
+        d.shutdown();
+    }
+
+    @Test
+    public void capacityIsPerEvent() throws Exception {
+        BlockingHandler h = new BlockingHandler(3);
+        RecordingDropListener drops = new RecordingDropListener();
+        NotifyEventDispatcher d = fill("e", NotifyEventDispatcher.Overflow.DROP_NEWEST, h, drops);
+        final List<String> other = new ArrayList<>();
+        d.register("other", 2, NotifyEventDispatcher.Overflow.DROP_NEWEST, new NotifyEventHandler<String>() {
+            @Override
+            public String decode(Object payload) {
+                return (String) payload;
+            }
+
+            @Override
+            public void handle(String event) {
+                other.add(event);
+            }
+        });
+
+        // e 已满，不影响 other 入队
+        assertTrue(d.offer("other", "o1"));
+        assertTrue(drops.dropped.isEmpty());
+        assertFalse(d.offer("unknown", "x"));
+        h.release.countDown();
+        assertTrue(h.done.await(5, TimeUnit.SECONDS));
+        d.shutdown();
+        assertFalse(d.offer("e", "late"));
+    }
+
+    @Test
+    public void droppedMessageOrReplayIsScopedToItsAccount() throws Exception {
+        JSONObject extra = new JSONObject().put("chatId", "c1").put("account", "a1");
+        assertEquals("a1", NotifySocketManager.droppedCursorScope(NotifySocketManager.EVENT_MESSAGE, extra));
+        assertEquals("", NotifySocketManager.droppedCursorScope(NotifySocketManager.EVENT_MESSAGE, new JSONObject().put("chatId", "c1")));
+        assertEquals("", NotifySocketManager.droppedCursorScope(NotifySocketManager.EVENT_MESSAGE, "{\"chatId\":\"c1\"}"));
+        assertEquals("a1", NotifySocketManager.droppedCursorScope(NotifySocketManager.EVENT_REPLAY,
+                new JSONObject().put("items", new JSONArray()).put("account", "a1")));
+        // 已读、会话更新等事件丢了不影响补发
+        assertNull(NotifySocketManager.droppedCursorScope(NotifySocketManager.EVENT_UNREAD, extra));
+    }
+}
@@ -0,0 +1,105 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 待发箱（NotifyOutbox）的容量淘汰、48 小时过期、取出顺序与持久化。
+ */
+public class NotifyOutboxTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static void writeLines(File file, String... lines) throws Exception {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        for (String line : lines) w.write(line + "\n");
+        w.close();
+    }
+
+    private static String record(String chatId, String body, long storedAt) throws Exception {
+        return new NotifyOutbox.Record(chatId, "t", body, null, -1L, storedAt).toLine();
+    }
+
+    @Test
+    public void capacityEvictsOldestAndDrainKeepsOrder() throws Exception {
+        NotifyOutbox o = new NotifyOutbox(tmp.newFile());
+        int total = NotifyOutbox.CAPACITY + 5;
+        for (int i = 0; i < total; i++) o.add(i % 2 == 0 ? "c1" : "c2", "t", "m" + i, null, i);
+
+        List<NotifyOutbox.Record> out = o.drain();
+        assertEquals(NotifyOutbox.CAPACITY, out.size());
+        // 最旧的 5 条被淘汰，其余按存入顺序取出，不按会话分组
+        for (int i = 0; i < out.size(); i++) assertEquals("m" + (i + 5), out.get(i).body);
+        assertTrue(o.isEmpty());
+        assertTrue(o.drain().isEmpty());
+    }
+
+    @Test
+    public void removeChatDropsOnlyThatChat() throws Exception {
+        NotifyOutbox o = new NotifyOutbox(tmp.newFile());
+        o.add("c1", "t", "a", null, 1);
+        o.add("a1/c1", "t", "b", null, 2);
+        o.add("c1", "t", "c", null, 3);
+        o.removeChat("c1");
+        List<NotifyOutbox.Record> out = o.drain();
+        assertEquals(1, out.size());
+        assertEquals("a1/c1", out.get(0).chatId);
+    }
+
+    @Test
+    public void recordsOlderThan48HoursAreDropped() throws Exception {
+        File file = tmp.newFile();
+        long now = System.currentTimeMillis();
+        writeLines(file,
+                record("c1", "expired", now - NotifyOutbox.MAX_AGE_MS - 60_000),
+                record("c1", "nearly", now - NotifyOutbox.MAX_AGE_MS + 1_000),
+                record("c2", "fresh", now - 3600_000L),
+                "not json");
+
+        NotifyOutbox o = new NotifyOutbox(file);
+        assertFalse(o.isEmpty());
+        // 加载时已过期的丢掉；"nearly" 在取出前也过了 48 小时
+        Thread.sleep(1_200);
+        List<NotifyOutbox.Record> out = o.drain();
+        assertEquals(1, out.size());
+        assertEquals("fresh", out.get(0).body);
+    }
+
+    @Test
+    public void pendingRecordsSurviveRestartInOrder() throws Exception {
+        File file = new File(tmp.getRoot(), "outbox.txt");
+        NotifyOutbox o = new NotifyOutbox(file);
+        o.add("c1", "标题", "第一行\n第二行", "https://example.invalid/a.png", 100);
+        o.add("c2", null, null, null, -1);
+        assertTrue(o.awaitSaved(5_000));
+
+        List<NotifyOutbox.Record> out = new NotifyOutbox(file).drain();
+        assertEquals(2, out.size());
+        NotifyOutbox.Record first = out.get(0);
+        assertEquals("c1", first.chatId);
+        assertEquals("标题", first.title);
+        assertEquals("第一行\n第二行", first.body);
+        assertEquals("https://example.invalid/a.png", first.avatarUrl);
+        assertEquals(100, first.serverTimeMs);
+        assertEquals(NotifyPayloadParser.DEFAULT_TITLE, out.get(1).title);
+        assertEquals("", out.get(1).body);
+
+        // 取空后删除文件，重启后不会补发已经发过的
+        o.drain();
+        assertTrue(o.awaitSaved(5_000));
+        assertFalse(file.exists());
+        assertTrue(new NotifyOutbox(file).isEmpty());
+    }
+}
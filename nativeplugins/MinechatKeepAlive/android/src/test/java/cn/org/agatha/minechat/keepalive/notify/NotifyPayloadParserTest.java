@@ -0,0 +1,258 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用一组线上出现过的载荷形状，对照三条解析路径：字符串流式解析（NotifyPayloadParser#parse）、
+ * socket.io 已给出 JSONObject 时的提取（NotifySocketManager#parseJsonPayload），以及改造前基于 JSONObject 的实现（{@link Baseline}）。
+ * <p>
+ * 预期的差异都在对应用例里单独断言：正文超长截断、message.content 为 JSON null、载荷格式错误时保留已解析的字段。
+ */
+public class NotifyPayloadParserTest {
+
+    private static final String[] AGREE = {
+            "{\"chatName\":\"Agatha 主城\",\"message\":{\"content\":\"晚上一起挖矿吗\"}}",
+            "{\"chatId\":\"c_1\",\"chat\":{\"id\":\"c_1\",\"name\":\"群聊\",\"avatar\":\"https://example.invalid/g.png\"},"
+                    + "\"message\":{\"id\":\"m_1\",\"createdAt\":\"2024-03-05T10:20:30.123Z\",\"content\":\"hi\","
+                    + "\"sender\":{\"id\":\"u_1\",\"avatar\":\"https://example.invalid/u.png\"}},\"extra\":{\"mentions\":[],\"attachments\":[{\"k\":\"}\"}]}}",
+            // chat.name 优先于 chatName，顺序无关
+            "{\"chat\":{\"name\":\"A\"},\"chatName\":\"B\",\"message\":{\"content\":\"x\"}}",
+            "{\"chatName\":\"B\",\"chat\":{\"name\":\"A\"},\"message\":{\"content\":\"x\"}}",
+            // 空白标题回落
+            "{\"chatName\":\"   \",\"message\":{\"content\":\"x\"}}",
+            "{\"chat\":{\"name\":\"\"},\"chatName\":\"B\",\"message\":{\"content\":\"x\"}}",
+            // 各字段为 null（content 除外，见 contentNullDiffersFromBaseline）
+            "{\"chatName\":null,\"chat\":null,\"message\":{\"id\":null,\"content\":\"x\",\"sender\":null}}",
+            "{\"chatName\":\"A\",\"chat\":{\"name\":null,\"id\":null},\"message\":null}",
+            "{\"chatName\":\"A\",\"message\":{\"content\":{\"text\":null,\"body\":\"来自 body\"}}}",
+            // content 为对象
+            "{\"chatName\":\"A\",\"message\":{\"content\":{\"text\":\"来自 text\",\"body\":\"来自 body\"}}}",
+            "{\"chatName\":\"A\",\"message\":{\"content\":{\"body\":\"  来自 body  \",\"type\":\"rich\",\"nodes\":[{\"t\":\"x\"}]}}}",
+            "{\"chatName\":\"A\",\"message\":{\"content\":{\"text\":\"  \",\"body\":\"\"}}}",
+            "{\"chatName\":\"A\",\"message\":{\"content\":{}}}",
+            // content 为其他类型
+            "{\"chatName\":\"A\",\"message\":{\"content\":123}}",
+            "{\"chatName\":\"A\",\"message\":{\"content\":true}}",
+            "{\"chatName\":\"A\",\"message\":{\"content\":[\"a\",\"b\"]}}",
+            // 转义与 \\u 序列（含代理对）
+            "{\"chatName\":\"A\\\"B\\\\C\",\"message\":{\"content\":\"line1\\nline2 \\\"quoted\\\" \\u4f60\\u597d \\ud83d\\ude00 \\/ \\t\"}}",
+            "{\"chat\":{\"name\":\"\\u4e3b\\u57ce\"},\"message\":{\"content\":\"\\u0020 padded \\u0020\"}}",
+            "{\"ch\\u0061tName\":\"键名含转义\",\"message\":{\"content\":\"x\"}}",
+            // message 不是对象、缺失
+            "{\"chatName\":\"A\",\"message\":\"plain\"}",
+            "{\"chatName\":\"A\"}",
+            "{}",
+            // 空白与换行
+            " {\n  \"chatName\" : \"A\" ,\n  \"message\" : { \"content\" : \"x\" }\n} ",
+            // 根上的 createdAt 在 chat、message 之后（message 不带 createdAt）：不能提前结束
+            "{\"chatId\":\"c_1\",\"chat\":{\"name\":\"A\"},\"message\":{\"id\":\"m_1\",\"content\":\"x\"},\"createdAt\":\"2024-03-05T10:20:30.123Z\"}",
+    };
+
+    @Test
+    public void wellFormedPayloadsMatchBaseline() throws Exception {
+        for (String payload : AGREE) {
+            Baseline base = Baseline.parse(payload);
+            assertSame(payload, base.title, NotifyPayloadParser.truncateBody(base.body));
+        }
+    }
+
+    @Test
+    public void bodyAtExactlyMaxCharsIsKept() throws Exception {
+        String body = repeat('a', NotifyPayloadParser.MAX_BODY_CHARS);
+        String payload = "{\"chatName\":\"A\",\"message\":{\"content\":\"" + body + "\"}}";
+        assertEquals(body, Baseline.parse(payload).body);
+        assertSame(payload, "A", body);
+    }
+
+    @Test
+    public void bodyOverMaxCharsIsTruncated() throws Exception {
+        String body = repeat('a', NotifyPayloadParser.MAX_BODY_CHARS + 1);
+        String payload = "{\"chatName\":\"A\",\"message\":{\"content\":\"" + body + "\"}}";
+        // 改造前不截断
+        assertEquals(body, Baseline.parse(payload).body);
+        assertSame(payload, "A", repeat('a', NotifyPayloadParser.MAX_BODY_CHARS) + "…");
+    }
+
+    @Test
+    public void escapedBodyAroundMaxChars() throws Exception {
+        // 转义走慢路径：100 / 101 个解码后的字符
+        String exact = "{\"chatName\":\"A\",\"message\":{\"content\":\"" + repeat("\\u4f60", NotifyPayloadParser.MAX_BODY_CHARS) + "\"}}";
+        assertSame(exact, "A", repeat('你', NotifyPayloadParser.MAX_BODY_CHARS));
+        String over = "{\"chatName\":\"A\",\"message\":{\"content\":\"" + repeat("\\u4f60", NotifyPayloadParser.MAX_BODY_CHARS + 1) + "\"}}";
+        assertSame(over, "A", repeat('你', NotifyPayloadParser.MAX_BODY_CHARS) + "…");
+    }
+
+    @Test
+    public void truncationDoesNotSplitSurrogatePair() throws Exception {
+        String body = repeat('a', NotifyPayloadParser.MAX_BODY_CHARS - 1) + "\ud83d\ude00";
+        String payload = "{\"chatName\":\"A\",\"message\":{\"content\":\"" + body + "\"}}";
+        assertSame(payload, "A", repeat('a', NotifyPayloadParser.MAX_BODY_CHARS - 1) + "…");
+    }
+
+    @Test
+    public void contentNullDiffersFromBaseline() throws Exception {
+        String payload = "{\"chatName\":\"A\",\"message\":{\"content\":null}}";
+        // 改造前会显示字符串 "null"，现在按缺省处理
+        assertEquals("null", Baseline.parse(payload).body);
+        assertSame(payload, "A", NotifyPayloadParser.DEFAULT_BODY);
+    }
+
+    @Test
+    public void objectContentIdsAndAvatarMatchJsonPath() throws Exception {
+        String payload = "{\"chatId\":\"c_1\",\"chat\":{\"name\":\"A\",\"avatar\":\"https://example.invalid/g.png\"},"
+                + "\"message\":{\"_id\":\"m_9\",\"createdAt\":1709634030123,\"mentioned\":true,"
+                + "\"content\":{\"text\":\"t\"},\"sender\":{\"avatar\":\"https://example.invalid/u.png\"}}}";
+        NotifyPayloadParser.Result r = assertSame(payload, "A", "t");
+        assertEquals("c_1", r.chatId);
+        assertEquals("m_9", r.messageId);
+        assertEquals("1709634030123", r.createdAt);
+        assertEquals("https://example.invalid/g.png", r.avatarUrl);
+        assertTrue(r.mentioned);
+
+        NotifyPayloadParser.Result direct = NotifyPayloadParser.parse(
+                "{\"chat\":{\"id\":\"c_2\"},\"message\":{\"id\":\"m_1\",\"content\":\"x\",\"sender\":{\"avatar\":\"u\"}}}");
+        assertEquals("c_2", direct.chatId);
+        assertEquals("u", direct.avatarUrl);
+        assertFalse(direct.mentioned);
+        assertNull(direct.createdAt);
+    }
+
+    @Test
+    public void rootCreatedAtAfterMessageIsRead() throws Exception {
+        String payload = "{\"chatId\":\"c_1\",\"chat\":{\"name\":\"A\"},\"message\":{\"id\":\"m_1\",\"content\":\"x\"},"
+                + "\"createdAt\":\"2024-03-05T10:20:30.123Z\"}";
+        assertEquals("2024-03-05T10:20:30.123Z", assertSame(payload, "A", "x").createdAt);
+    }
+
+    @Test
+    public void malformedPayloadsKeepPartialFields() throws Exception {
+        // 截断的载荷：改造前 new JSONObject 直接失败，标题正文都回落默认值；流式解析保留已读到的字段
+        String[][] cases = {
+                {"{\"chat\":{\"name\":\"B\"},\"message\":{\"id\":\"m1\",\"content\":\"hi\"", "B", "hi"},
+                {"{\"chatName\":\"A\",\"message\":{\"content\":\"hel", "A", NotifyPayloadParser.DEFAULT_BODY},
+                {"{\"chatName\":\"A\",\"message\":{\"content\":\"x\"}", "A", "x"},
+                {"{\"chatName\":\"A\" \"message\":{\"content\":\"x\"}}", "A", NotifyPayloadParser.DEFAULT_BODY},
+                {"{\"chatName\":\"A\",\"message\":{\"content\":\"bad \\x escape\"}}", "A", NotifyPayloadParser.DEFAULT_BODY},
+                {"{\"chatName\":\"A\",\"message\":{\"content\":\"\\u12\"}}", "A", NotifyPayloadParser.DEFAULT_BODY},
+                {"{\"chatName\":", NotifyPayloadParser.DEFAULT_TITLE, NotifyPayloadParser.DEFAULT_BODY},
+                {"not json", NotifyPayloadParser.DEFAULT_TITLE, NotifyPayloadParser.DEFAULT_BODY},
+                {"", NotifyPayloadParser.DEFAULT_TITLE, NotifyPayloadParser.DEFAULT_BODY},
+                {"[1,2]", NotifyPayloadParser.DEFAULT_TITLE, NotifyPayloadParser.DEFAULT_BODY},
+        };
+        for (String[] c : cases) {
+            Baseline base = Baseline.parse(c[0]);
+            assertEquals(c[0], NotifyPayloadParser.DEFAULT_TITLE, base.title);
+            assertEquals(c[0], NotifyPayloadParser.DEFAULT_BODY, base.body);
+            NotifyPayloadParser.Result r = NotifyPayloadParser.parse(c[0]);
+            assertEquals(c[0], c[1], r.title);
+            assertEquals(c[0], c[2], r.body);
+        }
+        assertEquals(NotifyPayloadParser.DEFAULT, NotifyPayloadParser.parse(null));
+    }
+
+    @Test
+    public void shortKeysOnlyOnLiteConnections() throws Exception {
+        String lite = "{\"c\":\"c_1\",\"n\":\"A\",\"i\":\"m_1\",\"t\":1709634030123,\"b\":\"hi\",\"a\":\"u\",\"m\":1}";
+        NotifyPayloadParser.Result[] both = {
+                NotifyPayloadParser.parse(lite, true), NotifySocketManager.parseJsonPayload(new JSONObject(lite), true)};
+        for (NotifyPayloadParser.Result r : both) {
+            assertEquals("A", r.title);
+            assertEquals("hi", r.body);
+            assertEquals("c_1", r.chatId);
+            assertEquals("m_1", r.messageId);
+            assertEquals("1709634030123", r.createdAt);
+            assertEquals("u", r.avatarUrl);
+            assertTrue(r.mentioned);
+        }
+
+        // 没有协商精简投影的连接上，根上恰好叫 c/n/i/t/b 的字段不参与取值
+        String full = "{\"chatName\":\"A\",\"c\":\"x\",\"i\":\"y\",\"t\":\"z\",\"b\":\"w\",\"message\":{\"content\":\"hi\"}}";
+        NotifyPayloadParser.Result r = assertSame(full, "A", "hi");
+        assertNull(r.chatId);
+        assertNull(r.messageId);
+        assertNull(r.createdAt);
+        assertSame(lite, NotifyPayloadParser.DEFAULT_TITLE, NotifyPayloadParser.DEFAULT_BODY);
+    }
+
+    /**
+     * 流式解析与 JSONObject 路径给出相同的标题/正文（以及 ID、时间、头像、@），并等于 expectedTitle / expectedBody。
+     */
+    private static NotifyPayloadParser.Result assertSame(String payload, String expectedTitle, String expectedBody) throws Exception {
+        NotifyPayloadParser.Result streamed = NotifyPayloadParser.parse(payload);
+        NotifyPayloadParser.Result json = NotifySocketManager.parseJsonPayload(new JSONObject(payload));
+        assertEquals(payload, expectedTitle, streamed.title);
+        assertEquals(payload, expectedBody, streamed.body);
+        assertEquals(payload, expectedTitle, json.title);
+        assertEquals(payload, expectedBody, json.body);
+        assertEquals(payload, json.chatId, streamed.chatId);
+        assertEquals(payload, json.messageId, streamed.messageId);
+        assertEquals(payload, json.createdAt, streamed.createdAt);
+        assertEquals(payload, json.avatarUrl, streamed.avatarUrl);
+        assertEquals(payload, json.mentioned, streamed.mentioned);
+        return streamed;
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder(s.length() * n);
+        for (int i = 0; i < n; i++) sb.append(s);
+        return sb.toString();
+    }
+
+    /**
+     * 改造前 NotifySocketManager#showPayloadNotification 里的取值逻辑，原样保留作对照。
+     */
+    private static final class Baseline {
+        String title = NotifyPayloadParser.DEFAULT_TITLE;
+        String body = NotifyPayloadParser.DEFAULT_BODY;
+
+        static Baseline parse(String payload) {
+            Baseline b = new Baseline();
+            try {
+                JSONObject json = new JSONObject(payload);
+                if (json.has("chatName")) b.title = optString(json, "chatName", b.title);
+                if (json.has("chat")) {
+                    JSONObject chat = json.optJSONObject("chat");
+                    if (chat != null && chat.has("name")) b.title = optString(chat, "name", b.title);
+                }
+
+                JSONObject msg = json.optJSONObject("message");
+                if (msg != null) {
+                    Object content = msg.opt("content");
+                    if (content instanceof String) {
+                        b.body = (String) content;
+                    } else if (content instanceof JSONObject) {
+                        JSONObject c = (JSONObject) content;
+                        b.body = optString(c, "text", optString(c, "body", b.body));
+                    } else if (content != null) {
+                        b.body = String.valueOf(content);
+                    }
+                }
+            } catch (Throwable ignored) {
+            }
+            return b;
+        }
+
+        private static String optString(JSONObject obj, String key, String def) {
+            try {
+                String v = obj.optString(key, "");
+                if (v == null) return def;
+                v = v.trim();
+                return v.isEmpty() ? def : v;
+            } catch (Throwable ignored) {
+                return def;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package cn.org.agatha.minechat.keepalive.notify;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 附加账号的会话写作 "accountId/chatId"：发给每个命名空间的规则只带该连接上的会话，本地过滤按带账号的 id 匹配。
+ */
+public class NotifyRulesTest {
+
+    private static NotifyRules rules() throws Exception {
+        return NotifyRules.fromJson(new JSONObject()
+                .put("muted", new JSONArray().put("c1").put("a1/c1"))
+                .put("mentionsOnly", new JSONArray().put("a1/c2"))
+                .put("quietHours", new JSONObject().put("start", "23:00").put("end", "07:00")), 3L);
+    }
+
+    private static Set<String> ids(JSONObject wire, String key) {
+        Set<String> out = new HashSet<>();
+        JSONArray a = wire.optJSONArray(key);
+        for (int i = 0; a != null && i < a.length(); i++) out.add(a.optString(i));
+        return out;
+    }
+
+    private static Set<String> setOf(String... ids) {
+        Set<String> out = new HashSet<>();
+        for (String id : ids) out.add(id);
+        return out;
+    }
+
+    @Test
+    public void wireRulesAreProjectedPerNamespace() throws Exception {
+        NotifyRules r = rules();
+
+        JSONObject main = r.toWireJson(null);
+        assertEquals(setOf("c1"), ids(main, "muted"));
+        assertEquals(setOf(), ids(main, "mentionsOnly"));
+
+        JSONObject a1 = r.toWireJson("a1");
+        assertEquals(setOf("c1"), ids(a1, "muted"));
+        assertEquals(setOf("c2"), ids(a1, "mentionsOnly"));
+
+        JSONObject a2 = r.toWireJson("a2");
+        assertEquals(setOf(), ids(a2, "muted"));
+        assertEquals(setOf(), ids(a2, "mentionsOnly"));
+
+        // 免打扰时段与版本对每个连接相同
+        for (JSONObject wire : new JSONObject[]{main, a1, a2}) {
+            assertEquals(3L, wire.getLong("v"));
+            assertEquals("23:00", wire.getJSONObject("quietHours").getString("start"));
+            assertTrue(wire.getJSONObject("quietHours").has("tz"));
+        }
+        // 持久化格式保留原样
+        assertEquals(setOf("c1", "a1/c1"), ids(r.toJson(), "muted"));
+        assertFalse(r.toJson().getJSONObject("quietHours").has("tz"));
+    }
+
+    @Test
+    public void localMatchingIsKeyedByAccount() throws Exception {
+        NotifyRules r = NotifyRules.fromJson(new JSONObject()
+                .put("muted", new JSONArray().put("c1").put("a1/c3"))
+                .put("mentionsOnly", new JSONArray().put("a1/c2")), 1L);
+        long now = System.currentTimeMillis();
+
+        assertFalse(r.allows("c1", false, now));
+        assertTrue(r.allows("a1/c1", false, now));
+        assertTrue(r.allows("c3", false, now));
+        assertFalse(r.allows("a1/c3", true, now));
+        assertTrue(r.allows("c2", false, now));
+        assertFalse(r.allows("a1/c2", false, now));
+        assertTrue(r.allows("a1/c2", true, now));
+        assertTrue(r.allows("a2/c2", false, now));
+    }
+}
@@ -0,0 +1,115 @@
+#!/bin/sh
+# MinechatKeepAlive 原生热路径的 JMH 基准测试（纯 JVM，无需 Android SDK / 设备）。
+#
+# 用法：scripts/bench-keepalive.sh [基准名正则...]
+#   例：JMH_OPTS="-f 1 -wi 1 -i 3" scripts/bench-keepalive.sh PayloadParse
+# 轮数等 JMH 选项放在 JMH_OPTS（默认 -f 1 -wi 3 -i 5）；JMH 不允许同一选项出现两次。
+# 报告：默认写到 .cache/keepalive-bench/reports/keepalive-bench-<时间>.json，可用 BENCH_REPORT 指定。
+#
+# 单元测试：scripts/bench-keepalive.sh test [测试类名...]
+#   编译并运行 android/src/test/java 下的 JUnit 测试（与 Gradle 的 testDebugUnitTest 是同一套源码），默认运行全部 *Test。
+#
+# 浸泡/压测：scripts/bench-keepalive.sh soak [--scale 2]
+#   启动本地 socket.io 替身服务端（scripts/notify-standin-server.cjs），驱动 NotifySocketManager 跑完各场景，
+#   报告写到 .cache/keepalive-bench/reports/keepalive-soak-<时间>.json；任一场景不达标时退出码为 1。
+#   只需要 node（18+）：socket.io 服务端协议由仓库内的 scripts/notify-standin-socketio.cjs 实现，不从 npm 安装。
+set -eu
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+PLUGIN="$ROOT/nativeplugins/MinechatKeepAlive/android"
+CACHE="$ROOT/.cache/keepalive-bench"
+LIB="$CACHE/lib"
+OUT="$CACHE/build"
+MAVEN="${MAVEN_REPO:-https://repo1.maven.org/maven2}"
+
+# 依赖固定版本与 SHA-256：已缓存的 jar 每次运行都会校验，下载的 jar 校验通过才放进缓存。
+# socket.io-client 版本与 build.gradle 保持一致；Maven 不做依赖解析，传递依赖在这里逐个列出。
+# 离线运行：预先填好 .cache/keepalive-bench/lib（CI 缓存即是如此），或用 MAVEN_REPO=file:///镜像目录 指向本地镜像。
+DEPS="
+org/openjdk/jmh/jmh-core/1.37/jmh-core-1.37.jar dc0eaf2bbf0036a70b60798c785d6e03a9daf06b68b8edb0f1ba9eb3421baeb3
+org/openjdk/jmh/jmh-generator-annprocess/1.37/jmh-generator-annprocess-1.37.jar 6a5604b5b804e0daca1145df1077609321687734a8b49387e49f10557c186c77
+net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar df26cc58f235f477db07f753ba5a3ab243ebe5789d9f89ecf68dd62ea9a66c28
+org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar 1e56d7b058d28b65abd256b8458e3885b674c1d588fa43cd7d1cbb9c7ef2b308
+org/json/json/20231013/json-20231013.jar 0f18192df289114e17aa1a0d0a7f8372cc9f5c7e4f7e39adcf8906fe714fa7d3
+junit/junit/4.13.2/junit-4.13.2.jar 8e495b634469d64fb8acfa3495a065cbacc8a0fff55ce1e31007be4c16dc57d3
+org/hamcrest/hamcrest-core/1.3/hamcrest-core-1.3.jar 66fdef91e9739348df7a096aa384a5685f4e875584cce89386a7a47251c4d8e9
+io/socket/socket.io-client/2.1.0/socket.io-client-2.1.0.jar ccc90242ba349719c3e7c333626e4506032520de3b52af4ac011cef028977d6e
+io/socket/engine.io-client/2.1.0/engine.io-client-2.1.0.jar 84bb94a41b0bd1f6f5762804ecc04b3626c3397aa2cfbc22daba6eb0622ee575
+com/squareup/okhttp3/okhttp/3.12.12/okhttp-3.12.12.jar 36f1cd0798fb231e5be189d0bfe2634d5879f73082be5718ca30a73d1ee15e4b
+com/squareup/okio/okio/1.15.0/okio-1.15.0.jar 693fa319a7e8843300602b204023b7674f106ebcb577f2dd5807212b66118bd2
+"
+
+sha256() {
+  if command -v sha256sum >/dev/null 2>&1; then
+    sha256sum "$1" | cut -d' ' -f1
+  else
+    shasum -a 256 "$1" | cut -d' ' -f1
+  fi
+}
+
+mkdir -p "$LIB" "$CACHE/reports"
+CP=""
+while read -r d sum; do
+  [ -n "$d" ] || continue
+  jar="$LIB/$(basename "$d")"
+  if [ -f "$jar" ] && [ "$(sha256 "$jar")" != "$sum" ]; then
+    echo "校验失败，重新下载 $(basename "$d")"
+    rm -f "$jar"
+  fi
+  if [ ! -f "$jar" ]; then
+    echo "下载 $d"
+    curl -fsSL -o "$jar.part" "$MAVEN/$d"
+    if [ "$(sha256 "$jar.part")" != "$sum" ]; then
+      rm -f "$jar.part"
+      echo "SHA-256 不匹配：$d" >&2
+      exit 1
+    fi
+    mv "$jar.part" "$jar"
+  fi
+  CP="$CP:$jar"
+done <<EOF_DEPS
+$DEPS
+EOF_DEPS
+CP=${CP#:}
+
+SOURCES="$PLUGIN/bench/android-stubs:$PLUGIN/src/main/java:$PLUGIN/stubs-src"
+
+if [ "${1:-}" = "test" ]; then
+  shift
+  TEST_SRC="$PLUGIN/src/test/java"
+  TEST_OUT="$CACHE/test-classes"
+  rm -rf "$TEST_OUT"
+  mkdir -p "$TEST_OUT"
+  javac -Xlint:all,-options -source 8 -target 8 -encoding UTF-8 -proc:none \
+    -cp "$CP" -sourcepath "$SOURCES" -implicit:class -d "$TEST_OUT" \
+    $(find "$TEST_SRC" -name '*.java')
+  if [ $# -eq 0 ]; then
+    set -- $(cd "$TEST_SRC" && find . -name '*Test.java' | sed 's|^\./||; s|\.java$||; s|/|.|g' | sort)
+  fi
+  java -cp "$TEST_OUT:$CP" org.junit.runner.JUnitCore "$@"
+  exit $?
+fi
+
+# android.* 使用 bench/android-stubs；stubs-src 里是 uni-app SDK 的编译期 stub。
+# 只编译基准类可达的源码（-implicit:class），AAR 中依赖真实 SDK 的类不会被拉进来。
+rm -rf "$OUT"
+mkdir -p "$OUT/classes" "$OUT/generated"
+javac -Xlint:all,-options -source 8 -target 8 -encoding UTF-8 \
+  -cp "$CP" -processorpath "$CP" \
+  -sourcepath "$SOURCES" \
+  -implicit:class -s "$OUT/generated" -d "$OUT/classes" \
+  $(find "$PLUGIN/bench/src" -name '*.java')
+
+if [ "${1:-}" = "soak" ]; then
+  shift
+  REPORT="${BENCH_REPORT:-$CACHE/reports/keepalive-soak-$(date +%Y%m%d-%H%M%S).json}"
+  java -cp "$OUT/classes:$CP" cn.org.agatha.minechat.keepalive.notify.NotifySoak \
+    --node node --server "$ROOT/scripts/notify-standin-server.cjs" --report "$REPORT" "$@"
+  exit $?
+fi
+
+REPORT="${BENCH_REPORT:-$CACHE/reports/keepalive-bench-$(date +%Y%m%d-%H%M%S).json}"
+# shellcheck disable=SC2086
+java -cp "$OUT/classes:$CP" org.openjdk.jmh.Main \
+  ${JMH_OPTS:--f 1 -wi 3 -i 5} -rf json -rff "$REPORT" "$@"
+echo "报告：$REPORT"
@@ -0,0 +1,404 @@
+// 本地 socket.io 替身服务端：模拟 /api/notify，供 NotifySoak（原生通知浸泡/压测）在无设备、无外网时使用。
+//
+// 启动后在 stdout 输出一行 {"event":"listening","port":n}，之后从 stdin 逐行读取 JSON 指令，
+// 每条指令带 id，完成后在 stdout 输出 {"id":..., ...} 作为应答。指令：
+//   burst   {count, rate, event?, account?}
+//                                  按 rate 条/秒向所有连接推送 count 条（默认 notify.message）；带 account 时只推给该附加账号的命名空间
+//   restart {downMs}               断开全部连接并关闭监听，downMs 后在同一端口重新监听
+//   flap    {count, intervalMs}    每隔 intervalMs 从服务端踢掉全部连接，共 count 次
+//   tokens  {accept, kick?}        替换允许的 token 列表；kick 时踢掉持有旧 token 的连接
+//   stats   {}                     当前连接数（connections 为物理连接数）、已推送条数、握手/重新认证次数、头像请求数、
+//                                  按过滤规则少推的条数、附加账号命名空间数与其连接次数，以及 notify.message 完整/精简两种格式的累计字节数
+//
+// 握手 query 带 fmt=lite1 的连接先收到 notify.format {fmt} 确认，之后收到精简投影 {c, n, i, t, b, a, m}，其余连接收到完整载荷（与 NotifyPayloadParser 对应）。
+// 每 10 条消息有一条 message.mentioned（精简格式 m: 1）。
+//
+// 已连接的客户端可以 emit notify.auth {token}（带 ack）在连接上换 token：token 在允许列表里时应答 {ok: true}，
+// 之后 tokens kick 按新 token 判断；否则应答 {ok: false}。
+//
+// 客户端可以 emit notify.filter {v, muted, mentionsOnly, quietHours?}（带 ack，见 NotifyRules）：之后推给这条连接的
+// notify.message / notify.replay 按规则跳过，跳过的条数计入 stats.filtered；版本不高于已收到的规则时忽略。
+// 附加账号的命名空间同样接受 notify.filter，规则只作用于该命名空间。
+//
+// 附加账号（NotifyAccounts）在同一条连接上连命名空间 /account/<accountId>，auth 带 {token}，按同一份允许列表鉴权；
+// 推给附加账号的消息不进补发历史。
+//
+// 同一端口上 GET /avatar/<name>.png 返回 256x256 的 PNG 头像，可带 ?delayMs= 模拟慢图床；请求数计入 stats.avatarRequests。
+//
+// socket.io 服务端默认用同目录的 notify-standin-socketio.cjs（无第三方依赖）；
+// 设置 NOTIFY_SOCKET_IO=socket.io（并用 NODE_PATH 提供该模块）可换成真实的 socket.io 对照。
+const http = require('http');
+const path = require('path');
+const readline = require('readline');
+const zlib = require('zlib');
+
+let Server;
+try {
+  ({ Server } = require(process.env.NOTIFY_SOCKET_IO || path.join(__dirname, 'notify-standin-socketio.cjs')));
+} catch (e) {
+  process.stderr.write(`无法加载 socket.io 服务端：${e.message}\n`);
+  process.exit(2);
+}
+
+const SOCKET_PATH = '/api/notify';
+// 补发窗口：只保留最近的消息，与真实后端一样，断线太久的部分不再补发
+const HISTORY_LIMIT = 20000;
+const LITE_FORMAT = 'lite1';
+const MAX_BODY_CHARS = 100;
+const AVATAR_PX = 256;
+
+let port = Number(process.env.PORT || 0);
+let io = null;
+let acceptedTokens = new Set(String(process.env.NOTIFY_TOKENS || 'soak-1').split(','));
+let seq = 0;
+let sent = 0;
+let bytesFull = 0;
+let bytesLite = 0;
+let filtered = 0;
+let accountHandshakes = 0;
+const accountSockets = new Set();
+let avatarRequests = 0;
+let handshakes = 0;
+let reauths = 0;
+const history = [];
+let avatarPng = null;
+
+function out(obj) {
+  process.stdout.write(JSON.stringify(obj) + '\n');
+}
+
+function avatarUrl(name) {
+  return `http://127.0.0.1:${port}/avatar/${name}.png`;
+}
+
+// 字段形状参照线上 notify.message：会话与发送者对象完整下发
+function messagePayload(n) {
+  const chatId = `c${n % 8}`;
+  return {
+    chatId,
+    chatName: `Soak 会话 ${n % 8}`,
+    chat: { id: chatId, name: `Soak 会话 ${n % 8}`, type: 'group', avatar: avatarUrl(chatId) },
+    message: {
+      id: String(n),
+      chatId,
+      type: 'text',
+      mentioned: n % 10 === 0,
+      createdAt: new Date().toISOString(),
+      content: `soak message ${n}：` + '这是一条用于浸泡测试的消息正文。'.repeat(1 + (n % 4)),
+      sender: { id: `u${n % 32}`, username: `player${n % 32}`, avatar: avatarUrl(`u${n % 32}`) },
+    },
+  };
+}
+
+// 精简投影：只保留通知需要的字段，正文在服务端截断；头像取会话头像，没有时取发送者头像
+function toLite(p) {
+  const m = p.message || {};
+  const content = typeof m.content === 'string' ? m.content : '';
+  const lite = {
+    c: p.chatId,
+    n: p.chatName,
+    i: m.id,
+    t: Date.parse(m.createdAt) || m.createdAt,
+    b: content.length > MAX_BODY_CHARS ? content.slice(0, MAX_BODY_CHARS) : content,
+  };
+  const avatar = (p.chat && p.chat.avatar) || (m.sender && m.sender.avatar);
+  if (avatar) lite.a = avatar;
+  if (m.mentioned) lite.m = 1;
+  return lite;
+}
+
+function parseRules(req) {
+  const q = req.quietHours;
+  const minute = (s) => {
+    const mm = /^(\d{1,2}):(\d{2})$/.exec(String(s));
+    return mm ? Number(mm[1]) * 60 + Number(mm[2]) : -1;
+  };
+  return {
+    v: Number(req.v) || 0,
+    muted: new Set((req.muted || []).map(String)),
+    mentionsOnly: new Set((req.mentionsOnly || []).map(String)),
+    quiet: q ? { start: minute(q.start), end: minute(q.end), offset: Number(q.tzOffsetMin) || 0 } : null,
+  };
+}
+
+// 与 NotifyRules#allows 相同的判断：免打扰会话、仅 @ 会话里没有 @ 的消息、免打扰时段（按客户端时区）
+function isFiltered(rules, p) {
+  if (!rules) return false;
+  const chatId = String(p.chatId);
+  if (rules.muted.has(chatId)) return true;
+  if (rules.mentionsOnly.has(chatId) && !(p.message && p.message.mentioned)) return true;
+  const q = rules.quiet;
+  if (!q || q.start < 0 || q.end < 0 || q.start === q.end) return false;
+  const minute = (((Math.floor(Date.now() / 60000) + q.offset) % 1440) + 1440) % 1440;
+  return q.start < q.end ? minute >= q.start && minute < q.end : minute >= q.start || minute < q.end;
+}
+
+function crc32(buf) {
+  let c = ~0;
+  for (let i = 0; i < buf.length; i++) {
+    c ^= buf[i];
+    for (let k = 0; k < 8; k++) c = (c >>> 1) ^ (0xedb88320 & -(c & 1));
+  }
+  return ~c >>> 0;
+}
+
+function pngChunk(type, data) {
+  const len = Buffer.alloc(4);
+  len.writeUInt32BE(data.length);
+  const body = Buffer.concat([Buffer.from(type, 'ascii'), data]);
+  const crc = Buffer.alloc(4);
+  crc.writeUInt32BE(crc32(body));
+  return Buffer.concat([len, body, crc]);
+}
+
+// 纯色 RGB PNG，只生成一次
+function avatarImage() {
+  if (avatarPng) return avatarPng;
+  const ihdr = Buffer.alloc(13);
+  ihdr.writeUInt32BE(AVATAR_PX, 0);
+  ihdr.writeUInt32BE(AVATAR_PX, 4);
+  ihdr[8] = 8;
+  ihdr[9] = 2;
+  const row = Buffer.alloc(1 + AVATAR_PX * 3);
+  for (let x = 0; x < AVATAR_PX; x++) row.set([0x3f, 0x8f, 0x5f], 1 + x * 3);
+  const raw = Buffer.concat(new Array(AVATAR_PX).fill(row));
+  avatarPng = Buffer.concat([
+    Buffer.from([0x89, 0x50, 0x4e, 0x47, 0x0d, 0x0a, 0x1a, 0x0a]),
+    pngChunk('IHDR', ihdr),
+    pngChunk('IDAT', zlib.deflateSync(raw)),
+    pngChunk('IEND', Buffer.alloc(0)),
+  ]);
+  return avatarPng;
+}
+
+function serveAvatar(req, res) {
+  const url = new URL(req.url, 'http://127.0.0.1');
+  if (req.method !== 'GET' || !/^\/avatar\/[\w-]+\.png$/.test(url.pathname)) {
+    res.writeHead(404);
+    return res.end();
+  }
+  avatarRequests++;
+  const delayMs = Number(url.searchParams.get('delayMs') || 0);
+  setTimeout(() => {
+    const body = avatarImage();
+    res.writeHead(200, { 'Content-Type': 'image/png', 'Content-Length': body.length });
+    res.end(body);
+  }, delayMs);
+}
+
+function start() {
+  return new Promise((resolve) => {
+    const httpServer = http.createServer(serveAvatar);
+    io = new Server(httpServer, { path: SOCKET_PATH, transports: ['websocket'], serveClient: false });
+
+    io.use((socket, next) => {
+      const q = socket.handshake.query || {};
+      const a = socket.handshake.auth || {};
+      const token = String(q.token || a.token || '');
+      if (!acceptedTokens.has(token)) return next(new Error('unauthorized'));
+      socket.data.token = token;
+      socket.data.lite = String(q.fmt || '') === LITE_FORMAT;
+      next();
+    });
+
+    const accounts = io.of(/^\/account\/[\w-]+$/);
+    accounts.use((socket, next) => {
+      const token = String((socket.handshake.auth || {}).token || '');
+      if (!acceptedTokens.has(token)) return next(new Error('unauthorized'));
+      socket.data.token = token;
+      socket.data.lite = String((socket.handshake.query || {}).fmt || '') === LITE_FORMAT;
+      next();
+    });
+    accounts.on('connection', (socket) => {
+      accountHandshakes++;
+      socket.data.account = socket.nsp.name.slice('/account/'.length);
+      accountSockets.add(socket);
+      socket.on('disconnect', () => accountSockets.delete(socket));
+      out({ event: 'account', account: socket.data.account });
+      if (socket.data.lite) socket.emit('notify.format', { fmt: LITE_FORMAT });
+      acceptFilter(socket);
+    });
+
+    io.on('connection', (socket) => {
+      handshakes++;
+      out({ event: 'connection', token: socket.data.token, lite: socket.data.lite });
+      // 确认精简投影：客户端只在收到它之后才按短键解析
+      if (socket.data.lite) socket.emit('notify.format', { fmt: LITE_FORMAT });
+      socket.on('notify.auth', (req, ack) => {
+        const token = String((req && req.token) || '');
+        const ok = acceptedTokens.has(token);
+        if (ok) {
+          socket.data.token = token;
+          reauths++;
+        }
+        out({ event: 'auth', ok });
+        if (typeof ack === 'function') ack(ok ? { ok: true } : { ok: false, error: 'unauthorized' });
+      });
+      acceptFilter(socket);
+      socket.on('notify.resume', (req) => {
+        const lastId = req && req.lastMessageId != null ? String(req.lastMessageId) : '';
+        let from = 0;
+        const idx = history.findIndex((m) => m.message.id === lastId);
+        if (idx >= 0) from = idx + 1;
+        const items = history.slice(from).filter((m) => {
+          if (!isFiltered(socket.data.rules, m)) return true;
+          filtered++;
+          return false;
+        });
+        out({ event: 'resume', lastId, replay: items.length });
+        if (items.length) socket.emit('notify.replay', { items: socket.data.lite ? items.map(toLite) : items });
+      });
+    });
+
+    httpServer.listen(port, '127.0.0.1', () => {
+      port = httpServer.address().port;
+      resolve();
+    });
+  });
+}
+
+function stop() {
+  return new Promise((resolve) => {
+    if (!io) return resolve();
+    const current = io;
+    io = null;
+    current.disconnectSockets(true);
+    current.close(() => resolve());
+  });
+}
+
+// 规则按连接（命名空间）保存：主连接与每个附加账号的命名空间各自 emit 自己那份
+function acceptFilter(socket) {
+  socket.on('notify.filter', (req, ack) => {
+    const rules = parseRules(req || {});
+    if (!socket.data.rules || rules.v > socket.data.rules.v) socket.data.rules = rules;
+    out({ event: 'filter', v: rules.v, account: socket.data.account || '' });
+    if (typeof ack === 'function') ack({ ok: true, v: socket.data.rules.v });
+  });
+}
+
+function targets(account) {
+  if (!io) return [];
+  if (!account) return io.sockets.sockets.values();
+  return [...accountSockets].filter((s) => s.data.account === account);
+}
+
+function burst({ count = 1000, rate = 1000, event = 'notify.message', account = '' }) {
+  return new Promise((resolve) => {
+    const first = seq + 1;
+    let left = count;
+    // 10ms 一个节拍，节拍内批量推送，保证高速率下 setInterval 精度不拖慢整体
+    const perTick = Math.max(1, Math.round(rate / 100));
+    const timer = setInterval(() => {
+      for (let i = 0; i < perTick && left > 0; i++, left--) {
+        const n = ++seq;
+        if (event === 'notify.message') {
+          const payload = messagePayload(n);
+          const lite = toLite(payload);
+          if (!account) {
+            history.push(payload);
+            if (history.length > HISTORY_LIMIT) history.shift();
+          }
+          bytesFull += Buffer.byteLength(JSON.stringify(payload));
+          bytesLite += Buffer.byteLength(JSON.stringify(lite));
+          for (const s of targets(account)) {
+            if (isFiltered(s.data.rules, payload)) {
+              filtered++;
+              continue;
+            }
+            s.emit(event, s.data.lite ? lite : payload);
+          }
+        } else if (io) {
+          io.emit(event, { seq: n });
+        }
+        sent++;
+      }
+      if (left <= 0) {
+        clearInterval(timer);
+        resolve({ event, first, last: seq, count, account });
+      }
+    }, 10);
+  });
+}
+
+async function restart({ downMs = 2000 }) {
+  await stop();
+  await new Promise((r) => setTimeout(r, downMs));
+  await start();
+  return { port };
+}
+
+function flap({ count = 5, intervalMs = 500 }) {
+  return new Promise((resolve) => {
+    let done = 0;
+    const timer = setInterval(() => {
+      if (io) io.disconnectSockets(true);
+      if (++done >= count) {
+        clearInterval(timer);
+        resolve({ flaps: done });
+      }
+    }, intervalMs);
+  });
+}
+
+async function tokens({ accept = [], kick = false }) {
+  acceptedTokens = new Set(accept.map(String));
+  let kicked = 0;
+  if (kick && io) {
+    for (const s of await io.fetchSockets()) {
+      if (!acceptedTokens.has(s.data.token)) {
+        s.disconnect(true);
+        kicked++;
+      }
+    }
+  }
+  return { kicked };
+}
+
+async function stats() {
+  return {
+    clients: io ? (await io.fetchSockets()).length : 0,
+    connections: io ? io.engine.clientsCount : 0,
+    accounts: accountSockets.size,
+    accountHandshakes,
+    sent,
+    lastSeq: seq,
+    handshakes,
+    reauths,
+    bytesFull,
+    bytesLite,
+    avatarRequests,
+    filtered,
+  };
+}
+
+const commands = { burst, restart, flap, tokens, stats };
+
+async function main() {
+  await start();
+  out({ event: 'listening', port });
+
+  const rl = readline.createInterface({ input: process.stdin });
+  rl.on('line', async (line) => {
+    let cmd;
+    try {
+      cmd = JSON.parse(line);
+    } catch (e) {
+      return;
+    }
+    const fn = commands[cmd.cmd];
+    if (!fn) return out({ id: cmd.id, error: `unknown cmd ${cmd.cmd}` });
+    try {
+      out(Object.assign({ id: cmd.id }, await fn(cmd)));
+    } catch (e) {
+      out({ id: cmd.id, error: String(e && e.message ? e.message : e) });
+    }
+  });
+  // 驱动进程退出（stdin 关闭）时一并退出
+  rl.on('close', async () => {
+    await stop();
+    process.exit(0);
+  });
+}
+
+main();
@@ -0,0 +1,352 @@
+// notify-standin-server.cjs 用的最小 socket.io v4 服务端（Engine.IO 4 协议，只支持 websocket 传输），无第三方依赖。
+//
+// 只实现替身服务端用到的部分：Server(httpServer, { path })、use 中间件、of(名称或正则父命名空间)、
+// connection / disconnect 事件、带 ack 的事件、emit / to(room).emit、disconnectSockets、fetchSockets、close。
+// 客户端是 socket.io-client Java 2.x（transports 固定为 websocket），不做轮询、二进制包与压缩扩展。
+//
+// 这样 scripts/bench-keepalive.sh soak 不需要在运行时从 npm 安装任何东西，CI 与离线环境结果可复现。
+// 需要对照真实 socket.io 时，设置 NOTIFY_SOCKET_IO=socket.io 并通过 NODE_PATH 提供该模块。
+const crypto = require('crypto');
+const { EventEmitter } = require('events');
+
+const WS_GUID = '258EAFA5-E914-47DA-95CA-C5AB0DC85B11';
+const PING_INTERVAL_MS = 25000;
+const PING_TIMEOUT_MS = 20000;
+
+// 服务端发出的文本帧（不加掩码）
+function frame(str) {
+  const payload = Buffer.from(str);
+  let header;
+  if (payload.length < 126) {
+    header = Buffer.from([0x81, payload.length]);
+  } else if (payload.length < 65536) {
+    header = Buffer.alloc(4);
+    header[0] = 0x81;
+    header[1] = 126;
+    header.writeUInt16BE(payload.length, 2);
+  } else {
+    header = Buffer.alloc(10);
+    header[0] = 0x81;
+    header[1] = 127;
+    header.writeBigUInt64BE(BigInt(payload.length), 2);
+  }
+  return Buffer.concat([header, payload]);
+}
+
+// 一个命名空间上的连接（对应 socket.io 的 Socket）
+class Sock extends EventEmitter {
+  constructor(client, nsp, auth) {
+    super();
+    this.client = client;
+    this.nsp = nsp;
+    this.id = crypto.randomBytes(6).toString('hex');
+    this.handshake = { query: client.query, auth: auth || {} };
+    this.data = {};
+    this.rooms = new Set();
+    this.connected = false;
+  }
+
+  prefix() {
+    return this.nsp.name === '/' ? '' : this.nsp.name + ',';
+  }
+
+  // rest：EVENT 包去掉类型与命名空间后的部分，即 [ackId]["event", ...args]
+  onEvent(rest) {
+    const m = /^(\d*)(.*)$/s.exec(rest);
+    const ackId = m[1];
+    const arr = JSON.parse(m[2]);
+    const args = arr.slice(1);
+    if (ackId !== '') {
+      args.push((...reply) => this.client.send('43' + this.prefix() + ackId + JSON.stringify(reply)));
+    }
+    EventEmitter.prototype.emit.call(this, arr[0], ...args);
+  }
+
+  emit(event, ...args) {
+    if (this.connected) this.client.send('42' + this.prefix() + JSON.stringify([event, ...args]));
+    return true;
+  }
+
+  join(room) {
+    this.rooms.add(room);
+  }
+
+  disconnect(close) {
+    if (this.connected) this.client.send('41' + this.prefix());
+    this.onClose('server namespace disconnect');
+    if (close) this.client.close('forced close');
+  }
+
+  onClose(reason) {
+    if (this.closed) return;
+    this.closed = true;
+    this.nsp.sockets.delete(this.id);
+    this.client.socks.delete(this.nsp.name);
+    if (this.connected) {
+      this.connected = false;
+      EventEmitter.prototype.emit.call(this, 'disconnect', reason);
+    }
+  }
+}
+
+class Namespace extends EventEmitter {
+  constructor(server, name) {
+    super();
+    this.server = server;
+    this.name = name;
+    this.middlewares = [];
+    this.sockets = new Map();
+  }
+
+  use(fn) {
+    this.middlewares.push(fn);
+    return this;
+  }
+
+  to(room) {
+    return {
+      emit: (event, ...args) => {
+        for (const s of this.sockets.values()) {
+          if (s.rooms.has(room)) s.emit(event, ...args);
+        }
+      },
+    };
+  }
+
+  emit(event, ...args) {
+    if (event === 'connection') return super.emit(event, ...args);
+    for (const s of this.sockets.values()) s.emit(event, ...args);
+    return true;
+  }
+
+  disconnectSockets(close) {
+    for (const s of [...this.sockets.values()]) s.disconnect(close);
+  }
+
+  async fetchSockets() {
+    return [...this.sockets.values()];
+  }
+
+  // 命名空间 CONNECT：依次跑（父命名空间与自身的）中间件，通过后应答 CONNECT，否则应答 CONNECT_ERROR
+  admit(client, name, auth) {
+    const s = new Sock(client, this, auth);
+    client.socks.set(name, s);
+    const chain = this.parent ? this.parent.middlewares.concat(this.middlewares) : this.middlewares;
+    let i = 0;
+    const next = (err) => {
+      if (err) {
+        client.socks.delete(name);
+        client.send('44' + s.prefix() + JSON.stringify({ message: err.message }));
+        return;
+      }
+      if (i < chain.length) return chain[i++](s, next);
+      s.connected = true;
+      this.sockets.set(s.id, s);
+      client.send('40' + s.prefix() + JSON.stringify({ sid: s.id }));
+      (this.parent || this).emit('connection', s);
+    };
+    next();
+  }
+}
+
+// 一条物理 WebSocket 连接（Engine.IO socket），其上可以打开多个命名空间
+class Client {
+  constructor(server, conn, query) {
+    this.server = server;
+    this.conn = conn;
+    this.query = query;
+    this.id = crypto.randomBytes(6).toString('hex');
+    this.socks = new Map();
+    this.buf = Buffer.alloc(0);
+    this.fragments = [];
+    conn.on('data', (d) => this.onData(d));
+    conn.on('close', () => this.close('transport close'));
+    conn.on('error', () => {});
+    this.send('0' + JSON.stringify({
+      sid: this.id,
+      upgrades: [],
+      pingInterval: PING_INTERVAL_MS,
+      pingTimeout: PING_TIMEOUT_MS,
+      maxPayload: 1e6,
+    }));
+    this.ping = setInterval(() => this.send('2'), PING_INTERVAL_MS);
+  }
+
+  send(str) {
+    if (!this.conn.destroyed) this.conn.write(frame(str));
+  }
+
+  // 拆 WebSocket 帧（客户端帧带掩码），拼接分片后按 Engine.IO 包处理
+  onData(data) {
+    this.buf = Buffer.concat([this.buf, data]);
+    for (;;) {
+      if (this.buf.length < 2) return;
+      const opcode = this.buf[0] & 0x0f;
+      const fin = this.buf[0] & 0x80;
+      let len = this.buf[1] & 0x7f;
+      let off = 2;
+      if (len === 126) {
+        if (this.buf.length < 4) return;
+        len = this.buf.readUInt16BE(2);
+        off = 4;
+      } else if (len === 127) {
+        if (this.buf.length < 10) return;
+        len = Number(this.buf.readBigUInt64BE(2));
+        off = 10;
+      }
+      const masked = this.buf[1] & 0x80;
+      const mask = masked ? this.buf.slice(off, off + 4) : null;
+      if (masked) off += 4;
+      if (this.buf.length < off + len) return;
+      const payload = Buffer.from(this.buf.slice(off, off + len));
+      this.buf = this.buf.slice(off + len);
+      if (mask) {
+        for (let i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+      }
+      if (opcode === 8) {
+        this.conn.end();
+        return;
+      }
+      if (opcode === 9) continue;
+      this.fragments.push(payload);
+      if (!fin) continue;
+      const msg = Buffer.concat(this.fragments).toString();
+      this.fragments = [];
+      this.onPacket(msg);
+    }
+  }
+
+  // Engine.IO：1 close、3 pong、4 message；message 内是 socket.io 包：<类型>[/命名空间,][ackId]<JSON>
+  onPacket(msg) {
+    if (msg[0] === '3') return;
+    if (msg[0] === '1') return this.close('client close');
+    if (msg[0] !== '4') return;
+    const type = msg[1];
+    let rest = msg.slice(2);
+    let name = '/';
+    if (rest[0] === '/') {
+      const comma = rest.indexOf(',');
+      name = comma < 0 ? rest : rest.slice(0, comma);
+      rest = comma < 0 ? '' : rest.slice(comma + 1);
+    }
+    if (type === '0') {
+      let auth = {};
+      if (rest) {
+        try {
+          auth = JSON.parse(rest);
+        } catch (e) {
+          // 按无 auth 处理
+        }
+      }
+      const nsp = this.server.lookup(name);
+      if (!nsp) {
+        this.send('44' + (name === '/' ? '' : name + ',') + JSON.stringify({ message: 'Invalid namespace' }));
+        return;
+      }
+      nsp.admit(this, name, auth);
+      return;
+    }
+    const s = this.socks.get(name);
+    if (!s) return;
+    if (type === '1') return s.onClose('client namespace disconnect');
+    if (type === '2') s.onEvent(rest);
+  }
+
+  close(reason) {
+    if (this.closed) return;
+    this.closed = true;
+    clearInterval(this.ping);
+    this.server.engine.clientsCount--;
+    for (const s of [...this.socks.values()]) s.onClose(reason);
+    this.conn.destroy();
+  }
+}
+
+class Server extends EventEmitter {
+  constructor(httpServer, opts) {
+    super();
+    this.path = (opts && opts.path) || '/socket.io';
+    this.http = httpServer;
+    this.engine = { clientsCount: 0 };
+    this.nsps = new Map();
+    this.parents = [];
+    this.clients = new Set();
+    this.sockets = this.of('/');
+    this.onUpgrade = (req, conn) => {
+      const url = new URL(req.url, 'http://localhost');
+      if (url.pathname.replace(/\/$/, '') !== this.path) return conn.destroy();
+      const key = req.headers['sec-websocket-key'];
+      const accept = crypto.createHash('sha1').update(key + WS_GUID).digest('base64');
+      conn.write('HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n'
+        + 'Sec-WebSocket-Accept: ' + accept + '\r\n\r\n');
+      conn.setNoDelay(true);
+      this.engine.clientsCount++;
+      const client = new Client(this, conn, Object.fromEntries(url.searchParams));
+      this.clients.add(client);
+      conn.on('close', () => this.clients.delete(client));
+    };
+    httpServer.on('upgrade', this.onUpgrade);
+  }
+
+  // 传正则时返回父命名空间：匹配的子命名空间在首次 CONNECT 时创建，共用父命名空间的中间件与 connection 监听
+  of(name) {
+    if (name instanceof RegExp) {
+      const parent = new Namespace(this, String(name));
+      parent.regex = name;
+      this.parents.push(parent);
+      return parent;
+    }
+    let nsp = this.nsps.get(name);
+    if (!nsp) {
+      nsp = new Namespace(this, name);
+      this.nsps.set(name, nsp);
+    }
+    return nsp;
+  }
+
+  lookup(name) {
+    if (this.nsps.has(name)) return this.nsps.get(name);
+    for (const parent of this.parents) {
+      if (parent.regex.test(name)) {
+        const nsp = new Namespace(this, name);
+        nsp.parent = parent;
+        this.nsps.set(name, nsp);
+        return nsp;
+      }
+    }
+    return null;
+  }
+
+  use(fn) {
+    this.sockets.use(fn);
+  }
+
+  on(event, fn) {
+    if (event === 'connection') return this.sockets.on(event, fn);
+    return super.on(event, fn);
+  }
+
+  emit(event, ...args) {
+    return this.sockets.emit(event, ...args);
+  }
+
+  to(room) {
+    return this.sockets.to(room);
+  }
+
+  disconnectSockets() {
+    for (const c of [...this.clients]) c.close('server shutting down');
+  }
+
+  async fetchSockets() {
+    return this.sockets.fetchSockets();
+  }
+
+  close(cb) {
+    this.disconnectSockets();
+    this.http.off('upgrade', this.onUpgrade);
+    this.http.close(() => cb && cb());
+  }
+}
+
+module.exports = { Server };
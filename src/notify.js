@@ -18,6 +18,15 @@ let androidNotifPermChecked = false;
 let nativeSyncTimer = null;
 let nativeSyncOk = false;
 
+// notify 事件订阅者：事件来自 JS socket，或 APP-PLUS 下由原生 socket 转发（此时不再开 JS socket）
+const notifyEventHandlers = {};
+let nativeForwardingInited = false;
+const NATIVE_NOTIFY_GLOBAL_EVENT = 'minechatNotifyEvent';
+
+// 已展示过的消息 ID：原生插件不可用时（H5/旧包）的内存兜底去重表
+const seenMessageIds = new Set();
+const SEEN_MESSAGE_IDS_MAX = 500;
+
 const WS_BASE = 'https://front-dev.agatha.org.cn';
 
 function ensureAndroidNotificationPermissionOnce() {
@@ -47,6 +56,8 @@ function ensureAndroidNotificationPermissionOnce() {
       [permission],
       (res) => {
         try { logDebug('[notify] POST_NOTIFICATIONS granted: ' + JSON.stringify(res || {})); } catch (e) {}
+        // 授权前原生收到的消息存在待发箱里，现在补发
+        flushNativeOutbox('permissionGranted');
       },
       (err) => {
         try { logDebug('[notify] POST_NOTIFICATIONS denied: ' + JSON.stringify(err || {})); } catch (e) {}
@@ -60,12 +71,179 @@ function ensureAndroidNotificationPermissionOnce() {
   // #endif
 }
 
-function trySyncNativeNotifyConfig(tokenOverride) {
+// APP-PLUS：把原生因无通知权限/通知被关闭而没能展示的消息按会话合并补发（通知仍不可用时原生什么也不做）
+function flushNativeOutbox(reason) {
+  // #ifdef APP-PLUS
+  try {
+    const native = getNativeKeepAlive();
+    if (!native || typeof native.flushNotifyOutbox !== 'function') return;
+    const n = native.flushNotifyOutbox();
+    if (n > 0) logDebug('[notify] outbox flushed ' + n + ' (' + reason + ')');
+  } catch (e) {}
+  // #endif
+}
+
+function getNativeKeepAlive() {
   // #ifdef APP-PLUS
   try {
     if (!nativeKeepAlive && uni && typeof uni.requireNativePlugin === 'function') {
       nativeKeepAlive = uni.requireNativePlugin('MinechatKeepAlive');
     }
+  } catch (e) {}
+  return nativeKeepAlive;
+  // #endif
+  return null;
+}
+
+function getPayloadMessageId(payload) {
+  try {
+    const msg = payload && payload.message;
+    const id = (msg && (msg.id || msg._id)) || (payload && payload.messageId);
+    return id ? String(id).trim() : '';
+  } catch (e) {
+    return '';
+  }
+}
+
+// 原生 socket、JS socket、UniPush 可能收到同一条消息；展示前先登记，返回 false 表示其他通道已展示过
+function markMessageSeen(payload) {
+  const id = getPayloadMessageId(payload);
+  if (!id) return true;
+
+  // #ifdef APP-PLUS
+  try {
+    const native = getNativeKeepAlive();
+    if (native && typeof native.markNotifySeen === 'function') {
+      const r = native.markNotifySeen(id);
+      if (r === true || r === false) return r;
+    }
+  } catch (e) {}
+  // #endif
+
+  if (seenMessageIds.has(id)) return false;
+  seenMessageIds.add(id);
+  if (seenMessageIds.size > SEEN_MESSAGE_IDS_MAX) {
+    seenMessageIds.delete(seenMessageIds.values().next().value);
+  }
+  return true;
+}
+
+// 已确认精简投影的原生连接：'' 为主账号，其余为附加账号 ID。服务端在连上后发 notify.format，原生转发（注册监听时补发）；
+// 连接状态离开 connected 时清空，重连后由新的 notify.format 重新确认
+const liteSources = new Set();
+
+function trackLiteFormat(event, payload) {
+  if (event === 'notify.state') {
+    if (payload !== 'connected') liteSources.clear();
+    return;
+  }
+  if (event !== 'notify.format') return;
+  const source = (payload && payload.account) || '';
+  if (payload && payload.fmt === 'lite1') liteSources.add(source);
+  else liteSources.delete(source);
+}
+
+// 原生 socket 握手时请求精简投影 {c, n, i, t, b, a, m}（见 NotifyPayloadParser）；确认了精简投影的连接上的载荷
+// 转发给 JS 前还原成完整载荷的形状，业务代码按原有字段（chatId / chatName / message.id / message.content）读取即可
+function expandLitePayload(event, payload) {
+  if (!liteSources.has((payload && payload.account) || '')) return payload;
+  const expand = (p) => {
+    if (!p || typeof p !== 'object' || p.message) return p;
+    const createdAt = typeof p.t === 'number' ? new Date(p.t).toISOString() : p.t;
+    const message = { id: p.i, createdAt, content: p.b };
+    if (p.a) message.sender = { avatar: p.a };
+    if (p.m) message.mentioned = true;
+    const full = {
+      chatId: p.c,
+      chatName: p.n,
+      messageId: p.i,
+      createdAt,
+      message,
+    };
+    // 附加账号的事件由原生带上 account
+    if (p.account) full.account = p.account;
+    return full;
+  };
+  if (event === 'notify.message') return expand(payload);
+  if (event === 'notify.replay') {
+    if (Array.isArray(payload)) return payload.map(expand);
+    if (payload && Array.isArray(payload.items)) return Object.assign({}, payload, { items: payload.items.map(expand) });
+  }
+  return payload;
+}
+
+function dispatchNotifyEvent(event, payload) {
+  const list = notifyEventHandlers[event];
+  if (!list || !list.length) return;
+  list.slice().forEach((fn) => {
+    try { fn(payload); } catch (e) { console.warn('[notify] event handler error', e); }
+  });
+}
+
+// 订阅服务端 notify 事件（以及 'notify.state' 连接状态），返回取消订阅函数
+function onNotifyEvent(event, handler) {
+  if (!event || typeof handler !== 'function') return () => {};
+  const list = notifyEventHandlers[event] || (notifyEventHandlers[event] = []);
+  list.push(handler);
+  return () => {
+    const i = list.indexOf(handler);
+    if (i >= 0) list.splice(i, 1);
+  };
+}
+
+// 通过当前 notify 连接发事件：APP-PLUS 原生托管时走原生 socket，否则走 JS socket
+function emitNotifyEvent(event, payload) {
+  try {
+    // #ifdef APP-PLUS
+    if (nativeSyncOk) {
+      const native = getNativeKeepAlive();
+      if (native && typeof native.emitNotifyEvent === 'function') {
+        return native.emitNotifyEvent(String(event), JSON.stringify(payload === undefined ? null : payload)) === true;
+      }
+      return false;
+    }
+    // #endif
+    if (socket && socket.connected) {
+      socket.emit(event, payload);
+      return true;
+    }
+  } catch (e) {
+    logDebug('[notify] emitNotifyEvent error: ' + (e?.message || e));
+  }
+  return false;
+}
+
+// APP-PLUS：前台期间让原生 socket 把收到的事件转发过来
+function setNativeForwarding(enabled) {
+  // #ifdef APP-PLUS
+  try {
+    const native = getNativeKeepAlive();
+    if (!native || typeof native.setNotifyForwarding !== 'function') return false;
+    if (enabled && !nativeForwardingInited) {
+      const globalEvent = uni.requireNativePlugin('globalEvent');
+      if (!globalEvent || typeof globalEvent.addEventListener !== 'function') return false;
+      globalEvent.addEventListener(NATIVE_NOTIFY_GLOBAL_EVENT, (e) => {
+        try {
+          let payload = null;
+          try { payload = JSON.parse(e && e.payload); } catch (err) { payload = e && e.payload; }
+          trackLiteFormat(e && e.event, payload);
+          dispatchNotifyEvent(e && e.event, expandLitePayload(e && e.event, payload));
+        } catch (err) {}
+      });
+      nativeForwardingInited = true;
+    }
+    return native.setNotifyForwarding(!!enabled) !== false;
+  } catch (e) {
+    logDebug('[notify] setNativeForwarding error: ' + (e?.message || e));
+  }
+  // #endif
+  return false;
+}
+
+function trySyncNativeNotifyConfig(tokenOverride) {
+  // #ifdef APP-PLUS
+  try {
+    getNativeKeepAlive();
     if (!nativeKeepAlive) return false;
     if (typeof nativeKeepAlive.setNotifyConfig !== 'function' || typeof nativeKeepAlive.setNotifyToken !== 'function') {
       return false;
@@ -91,6 +269,20 @@ function trySyncNativeNotifyConfig(tokenOverride) {
   return false;
 }
 
+// 切换到原生托管的连接：关掉 JS socket（及其重连定时器），前台时开启事件转发
+function useNativeNotifySocket() {
+  nativeSyncOk = true;
+  if (reconnectTimer) {
+    try { clearTimeout(reconnectTimer); } catch (e) {}
+    reconnectTimer = null;
+  }
+  try {
+    safeCloseSocket(socket);
+  } catch (e) {}
+  socket = null;
+  if (getForegroundState()) setNativeForwarding(true);
+}
+
 function startNativeSyncLoopOnce() {
   // #ifdef APP-PLUS
   try {
@@ -99,7 +291,7 @@ function startNativeSyncLoopOnce() {
       if (nativeSyncOk) return;
       try {
         const ok = trySyncNativeNotifyConfig();
-        if (ok) nativeSyncOk = true;
+        if (ok) useNativeNotifySocket();
       } catch (e) {}
     }, 5000);
   } catch (e) {}
@@ -191,13 +383,32 @@ function safeCloseSocket(s) {
   } catch (e) {}
 }
 
+// 原生插件不可用时（H5/旧包）的日志兜底：内存环形缓冲，合并后异步写入 storage
+const DEBUG_LOG_KEY = 'notify-debug';
+const DEBUG_LOG_MAX = 200;
+const DEBUG_LOG_FLUSH_MS = 2000;
+let debugLogBuffer = null;
+let debugLogFlushTimer = null;
+
+function flushDebugLog() {
+  debugLogFlushTimer = null;
+  try {
+    uni.setStorage({ key: DEBUG_LOG_KEY, data: debugLogBuffer || [] });
+  } catch (e) {}
+}
+
 function logDebug(msg) {
   try {
-    const key = 'notify-debug';
-    const arr = (uni.getStorageSync(key) || []);
-    arr.push({ t: Date.now(), msg });
-    if (arr.length > 200) arr.splice(0, arr.length - 200);
-    uni.setStorageSync(key, arr);
+    // APP-PLUS：追加到原生环形日志文件（与原生 socket 事件同一份），单次调用无序列化和整表写盘
+    const native = getNativeKeepAlive();
+    if (native && typeof native.appendNotifyLog === 'function') {
+      native.appendNotifyLog(String(msg));
+    } else {
+      if (!debugLogBuffer) debugLogBuffer = (uni.getStorageSync(DEBUG_LOG_KEY) || []);
+      debugLogBuffer.push({ t: Date.now(), msg });
+      if (debugLogBuffer.length > DEBUG_LOG_MAX) debugLogBuffer.splice(0, debugLogBuffer.length - DEBUG_LOG_MAX);
+      if (!debugLogFlushTimer) debugLogFlushTimer = setTimeout(flushDebugLog, DEBUG_LOG_FLUSH_MS);
+    }
   } catch (e) {}
   console.log('[notify]', msg);
 }
@@ -219,6 +430,13 @@ function initAppStateTrackingOnce() {
         appForeground = true;
         // 回到前台后 push cid 可能才就绪/网络才恢复
         kickCidRegisterLoop('appShow');
+        // 用户可能刚在系统设置里打开了通知
+        flushNativeOutbox('appShow');
+        // APP-PLUS 原生托管连接：只恢复事件转发，不再建 JS socket（否则同一用户会有两条连接）
+        if (nativeSyncOk) {
+          setNativeForwarding(true);
+          return;
+        }
         // 某些 Android 机型后台会冻结 JS/断开网络栈，回前台时主动重连更稳。
         try {
           if (!socket || !socket.connected) {
@@ -228,7 +446,11 @@ function initAppStateTrackingOnce() {
       });
     }
     if (uni && typeof uni.onAppHide === 'function') {
-      uni.onAppHide(() => { appForeground = false; });
+      uni.onAppHide(() => {
+        appForeground = false;
+        // 后台 JS 可能被冻结，不再往 JS 转发
+        if (nativeSyncOk) setNativeForwarding(false);
+      });
     }
   } catch (e) {}
 }
@@ -311,6 +533,8 @@ async function connectNotifySocket(onNotify) {
 
   const token = await getToken();
   currentToken = token;
+  // 等待 token 期间可能已切换到原生托管的连接
+  if (nativeSyncOk) return;
   const wsBase = WS_BASE;
   logDebug(`[notify] socket create: ${wsBase} path=/api/notify auth.token=${token ? 'yes' : 'no'}`);
 
@@ -376,15 +600,18 @@ async function connectNotifySocket(onNotify) {
 
   socket.on('connect', () => {
     if (reconnectTimer) { clearTimeout(reconnectTimer); reconnectTimer = null; }
+    dispatchNotifyEvent('notify.state', 'connected');
     logDebug('[notify] socket connect');
     console.log('[notify] socket connect');
     // 连接成功时也触发一次 cid 注册兜底（若之前没成功）
     kickCidRegisterLoop('socketConnect');
+    pushNotifyRules(socket);
   });
 
   socket.on('disconnect', (reason) => {
     logDebug('[notify] socket disconnect: ' + reason);
     console.log('[notify] socket disconnect', reason);
+    dispatchNotifyEvent('notify.state', 'disconnected');
     // 断联时继续尝试注册（用户希望断联后也能走离线推送）
     kickCidRegisterLoop('socketDisconnect');
   });
@@ -407,6 +634,7 @@ async function connectNotifySocket(onNotify) {
 
   socket.on('notify.message', (payload) => {
     try { if (typeof onNotifyCallback === 'function') onNotifyCallback(payload); } catch (e) {}
+    dispatchNotifyEvent('notify.message', payload);
   });
 }
 
@@ -555,11 +783,7 @@ function startNotifyListener() {
 
   // APP-PLUS：把 socket 长连接交给原生前台服务托管（随保活同生命周期）
   if (trySyncNativeNotifyConfig()) {
-    nativeSyncOk = true;
-    try {
-      safeCloseSocket(socket);
-    } catch (e) {}
-    socket = null;
+    useNativeNotifySocket();
     return;
   }
 
@@ -567,6 +791,11 @@ function startNotifyListener() {
     try {
       logDebug('[notify] payload: ' + JSON.stringify(payload || {}));
       if (payload && payload.message) {
+        if (!markMessageSeen(payload)) {
+          logDebug('[notify] duplicate message skipped: ' + getPayloadMessageId(payload));
+          return;
+        }
+
         const msg = payload.message || {};
         const content = msg.content;
         let messageText = '';
@@ -607,6 +836,60 @@ function startNotifyListener() {
   connectNotifySocket(onNotify);
 }
 
+// 通知过滤规则 {muted, mentionsOnly, quietHours}：APP-PLUS 交给原生持久化并发给服务端；JS socket 连上时也发一份。
+// 附加账号的会话写作 'accountId/chatId'，由原生按命名空间分发；JS socket 只连主账号，只发不带 '/' 的会话
+let notifyRules = null;
+let notifyRulesVersion = 0;
+
+function mainChatIds(ids) {
+  return Array.isArray(ids) ? ids.filter((id) => String(id).indexOf('/') < 0) : ids;
+}
+
+function pushNotifyRules(s) {
+  if (!s || !notifyRules) return;
+  try {
+    s.emit('notify.filter', Object.assign({}, notifyRules, {
+      v: notifyRulesVersion,
+      muted: mainChatIds(notifyRules.muted),
+      mentionsOnly: mainChatIds(notifyRules.mentionsOnly),
+    }));
+  } catch (e) {}
+}
+
+function setNotifyRules(rules) {
+  notifyRules = rules && typeof rules === 'object' ? rules : {};
+  notifyRulesVersion = Date.now();
+  let ok = true;
+  // #ifdef APP-PLUS
+  try {
+    const native = getNativeKeepAlive();
+    if (native && typeof native.setNotifyRules === 'function') {
+      ok = native.setNotifyRules(JSON.stringify(notifyRules)) !== false;
+    }
+  } catch (e) {
+    logDebug('[notify] setNotifyRules error: ' + (e?.message || e));
+  }
+  // #endif
+  if (socket && socket.connected) pushNotifyRules(socket);
+  return ok;
+}
+
+// 附加账号（主账号之外同时接收通知）：只有原生托管连接支持，与主账号共用一条连接；token 传空移除。
+// 这些账号的事件经 onNotifyEvent 收到时载荷带 account 字段
+function setNotifyAccount(accountId, token) {
+  // #ifdef APP-PLUS
+  try {
+    const native = getNativeKeepAlive();
+    if (native && typeof native.setNotifyAccount === 'function') {
+      return native.setNotifyAccount(String(accountId || ''), String(token || '')) !== false;
+    }
+  } catch (e) {
+    logDebug('[notify] setNotifyAccount error: ' + (e?.message || e));
+  }
+  // #endif
+  return false;
+}
+
 function setTokenAndReconnect(token) {
   try {
     const t = String(token || '');
@@ -630,6 +913,7 @@ function setTokenAndReconnect(token) {
 
     // APP-PLUS：优先同步到原生前台服务，让它负责常驻通知
     if (trySyncNativeNotifyConfig(t)) {
+      useNativeNotifySocket();
       return;
     }
 
@@ -637,4 +921,4 @@ function setTokenAndReconnect(token) {
   } catch (e) { console.error('[notify] setTokenAndReconnect error', e); }
 }
 
-export { startNotifyListener, setTokenAndReconnect };
+export { startNotifyListener, setTokenAndReconnect, markMessageSeen, onNotifyEvent, emitNotifyEvent, setNotifyRules, setNotifyAccount };